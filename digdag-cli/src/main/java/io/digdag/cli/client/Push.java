@@ -4,6 +4,7 @@ import com.beust.jcommander.DynamicParameter;
 import com.beust.jcommander.Parameter;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 import com.google.inject.Injector;
 import com.google.inject.Scopes;
 import io.digdag.cli.StdErr;
@@ -13,22 +14,35 @@ import io.digdag.cli.TimeUtil;
 import io.digdag.cli.YamlMapper;
 import io.digdag.client.DigdagClient;
 import io.digdag.client.api.RestProject;
+import io.digdag.client.api.RestProjectArchiveEntry;
+import io.digdag.client.api.RestProjectArchiveManifest;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.core.DigdagEmbed;
+import io.digdag.core.archive.ArchiveManifest;
 import io.digdag.core.config.ConfigLoaderManager;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 
+import javax.ws.rs.NotFoundException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static io.digdag.cli.Arguments.loadParams;
 import static io.digdag.cli.SystemExitException.systemExit;
 import static io.digdag.cli.client.ProjectUtil.showUploadedProject;
+import static java.util.Locale.ENGLISH;
 
 public class Push
     extends ClientCommand
@@ -124,7 +138,65 @@ public class Push
         if (revision == null) {
             revision = Upload.generateDefaultRevisionName();
         }
-        RestProject proj = client.putProjectRevision(projName, revision, archivePath.toFile(), scheduleFrom);
+        RestProject proj = pushArchive(client, out, projName, revision, archivePath, scheduleFrom);
         showUploadedProject(out, proj, programName);
     }
+
+    static RestProject pushArchive(DigdagClient client, PrintStream out,
+            String projName, String revision, Path archivePath, Optional<Instant> scheduleFrom)
+        throws IOException
+    {
+        try {
+            return pushFiles(client, out, projName, revision, archivePath, scheduleFrom);
+        }
+        catch (NotFoundException ex) {
+            // server doesn't support project files. upload the whole archive
+            return client.putProjectRevision(projName, revision, archivePath.toFile(), scheduleFrom);
+        }
+    }
+
+    private static RestProject pushFiles(DigdagClient client, PrintStream out,
+            String projName, String revision, Path archivePath, Optional<Instant> scheduleFrom)
+        throws IOException
+    {
+        // build a manifest of the archive. files are uploaded only if server doesn't have them
+        List<RestProjectArchiveEntry> entries = new ArrayList<>();
+        Map<String, byte[]> files = new HashMap<>();
+        try (TarArchiveInputStream archive = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(Files.newInputStream(archivePath))))) {
+            TarArchiveEntry entry;
+            while ((entry = archive.getNextTarEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (entry.isSymbolicLink()) {
+                    entries.add(RestProjectArchiveEntry.builder()
+                            .name(entry.getName())
+                            .mode(entry.getMode())
+                            .linkName(entry.getLinkName())
+                            .build());
+                }
+                else {
+                    byte[] data = ByteStreams.toByteArray(archive);
+                    String hash = ArchiveManifest.hashFile(data);
+                    files.put(hash, data);
+                    entries.add(RestProjectArchiveEntry.builder()
+                            .name(entry.getName())
+                            .mode(entry.getMode())
+                            .hash(hash)
+                            .build());
+                }
+            }
+        }
+
+        List<String> missing = client.getMissingProjectFiles(new ArrayList<>(files.keySet()));
+        out.println(String.format(ENGLISH, "Uploading %d of %d files...", missing.size(), files.size()));
+        for (String hash : missing) {
+            client.putProjectFile(hash, files.get(hash));
+        }
+
+        RestProjectArchiveManifest manifest = RestProjectArchiveManifest.builder()
+            .entries(entries)
+            .build();
+        return client.putProjectRevision(projName, revision, manifest, scheduleFrom);
+    }
 }
@@ -75,6 +75,7 @@ public class ShowLog
                 }
             }
         }
+        watcher.flush();
     }
 
     private boolean update(DigdagClient client, TaskLogWatcher watcher,
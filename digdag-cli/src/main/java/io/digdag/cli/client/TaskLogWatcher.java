@@ -12,9 +12,10 @@ import java.util.zip.GZIPInputStream;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.time.Instant;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.EOFException;
 import com.google.common.base.Optional;
@@ -65,11 +66,22 @@ class TaskLogWatcher
         return updatedAtLeastOne;
     }
 
+    // shows last lines that don't end with a newline. call this after the
+    // last update when no more logs are expected.
+    void flush()
+    {
+        for (TaskLogState state : stateMap.values()) {
+            state.flushIncompleteLine();
+        }
+    }
+
     private class TaskLogState
     {
         private RestLogFileHandle lastFile = null;
-        private int lastLineCount = 0;
+        private long lastOffset = 0;
         private boolean lastLineFiltered = false;
+        // bytes after the last newline of lastFile. not included in lastOffset.
+        private final ByteArrayOutputStream incompleteLine = new ByteArrayOutputStream();
 
         boolean update(List<RestLogFileHandle> sortedHandles)
             throws IOException
@@ -85,9 +97,14 @@ class TaskLogWatcher
                         continue;  // this file is already shown before. skip it
                     }
                     else if (lastFile.getFileName().equals(handle.getFileName())) {
-                        // showing the last file if its size is grown
+                        // showing the rest of the last file if its size is grown
                         if (handle.getFileSize() > lastFile.getFileSize()) {
-                            showFileAndUpdate(handle, lastLineCount, lastLineFiltered);
+                            showFileTailAndUpdate(handle);
+                            updated = true;
+                        }
+                        else if (incompleteLine.size() > 0) {
+                            // size stopped changing. the last line won't get a newline
+                            flushIncompleteLine();
                             updated = true;
                         }
                         // following files are all new files
@@ -104,36 +121,81 @@ class TaskLogWatcher
             // show all following files
             for (; i < sortedHandles.size(); i++) {
                 RestLogFileHandle handle = sortedHandles.get(i);
-                showFileAndUpdate(handle, 0, false);
+                showFileAndUpdate(handle);
                 updated = true;
             }
 
             return updated;
         }
 
-        private void showFileAndUpdate(RestLogFileHandle handle, int lineOffset, boolean lastLineFiltered)
+        private void showFileAndUpdate(RestLogFileHandle handle)
             throws IOException
         {
-            int lines = 0;
-
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(client.getLogFile(attemptId, handle)), UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    lines++;
-                    if (lineOffset > 0) {
-                        lineOffset--;
-                        continue;
+            // previous file is complete because a newer file exists
+            flushIncompleteLine();
+            this.lastLineFiltered = false;
+            long offset;
+            try (InputStream in = new BufferedInputStream(new GZIPInputStream(client.getLogFile(attemptId, handle)))) {
+                offset = showLines(in);
+            }
+            this.lastFile = handle;
+            this.lastOffset = offset;
+        }
+
+        private void showFileTailAndUpdate(RestLogFileHandle handle)
+            throws IOException
+        {
+            // download only the bytes after the lines shown before
+            byte[] data = client.getLogFileTail(attemptId, handle.getFileName(), lastOffset);
+            long offset = showLines(new ByteArrayInputStream(data));
+            this.lastFile = handle;
+            this.lastOffset += offset;
+        }
+
+        // shows complete lines and returns number of bytes of them.
+        // an incomplete last line is kept in incompleteLine. it's shown by
+        // the next update, or by flushIncompleteLine if the file is complete.
+        private long showLines(InputStream in)
+            throws IOException
+        {
+            long consumed = 0;
+            ByteArrayOutputStream line = incompleteLine;
+            line.reset();
+            try {
+                int b;
+                while ((b = in.read()) >= 0) {
+                    if (b == '\n') {
+                        consumed += line.size() + 1;
+                        showLineBytes(line.toByteArray());
+                        line.reset();
+                    }
+                    else {
+                        line.write(b);
                     }
-                    lastLineFiltered = showOrFilterLine(line, lastLineFiltered);
                 }
             }
             catch (EOFException ex) {
                 // OK to ignore Unexpected end of ZLIB input stream
             }
+            return consumed;
+        }
 
-            this.lastFile = handle;
-            this.lastLineCount = lines;
-            this.lastLineFiltered = false;
+        private void flushIncompleteLine()
+        {
+            if (incompleteLine.size() > 0) {
+                showLineBytes(incompleteLine.toByteArray());
+                this.lastOffset += incompleteLine.size();
+                incompleteLine.reset();
+            }
+        }
+
+        private void showLineBytes(byte[] bytes)
+        {
+            String text = new String(bytes, UTF_8);
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            lastLineFiltered = showOrFilterLine(text, lastLineFiltered);
         }
     }
 
@@ -0,0 +1,121 @@
+package io.digdag.cli.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import javax.ws.rs.NotFoundException;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import io.digdag.client.DigdagClient;
+import io.digdag.client.api.RestProject;
+import io.digdag.client.api.RestProjectArchiveEntry;
+import io.digdag.client.api.RestProjectArchiveManifest;
+import io.digdag.core.archive.ArchiveManifest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PushTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] DIG = "+t:\n  echo>: hello\n".getBytes(UTF_8);
+    private static final byte[] SCRIPT = "print('hello')\n".getBytes(UTF_8);
+
+    private DigdagClient client;
+    private PrintStream out;
+    private Path archivePath;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        client = mock(DigdagClient.class);
+        out = new PrintStream(new ByteArrayOutputStream(), true);
+        archivePath = folder.newFile("archive.tar.gz").toPath();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(Files.newOutputStream(archivePath)))) {
+            putFile(tar, "wf.dig", DIG);
+            putFile(tar, "scripts/a.py", SCRIPT);
+            TarArchiveEntry link = new TarArchiveEntry("scripts/b.py", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName("a.py");
+            link.setMode(0777);
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+        }
+    }
+
+    @Test
+    public void uploadOnlyMissingFiles()
+        throws Exception
+    {
+        String digHash = ArchiveManifest.hashFile(DIG);
+        String scriptHash = ArchiveManifest.hashFile(SCRIPT);
+        RestProject proj = mock(RestProject.class);
+        when(client.getMissingProjectFiles(anyListOf(String.class))).thenReturn(ImmutableList.of(scriptHash));
+        when(client.putProjectRevision(eq("proj"), eq("rev"), any(RestProjectArchiveManifest.class), eq(Optional.absent())))
+            .thenReturn(proj);
+
+        assertThat(Push.pushArchive(client, out, "proj", "rev", archivePath, Optional.absent()), is(proj));
+
+        verify(client).putProjectFile(scriptHash, SCRIPT);
+        verify(client, never()).putProjectFile(eq(digHash), any(byte[].class));
+
+        ArgumentCaptor<RestProjectArchiveManifest> manifest = ArgumentCaptor.forClass(RestProjectArchiveManifest.class);
+        verify(client).putProjectRevision(eq("proj"), eq("rev"), manifest.capture(), eq(Optional.absent()));
+        List<RestProjectArchiveEntry> entries = manifest.getValue().getEntries();
+        assertThat(entries, containsInAnyOrder(
+                    RestProjectArchiveEntry.builder().name("wf.dig").mode(0644).hash(digHash).build(),
+                    RestProjectArchiveEntry.builder().name("scripts/a.py").mode(0644).hash(scriptHash).build(),
+                    RestProjectArchiveEntry.builder().name("scripts/b.py").mode(0777).linkName("a.py").build()));
+
+        verify(client, never()).putProjectRevision(anyString(), anyString(), any(File.class), any());
+    }
+
+    @Test
+    public void fallbackToArchiveUploadIfServerDoesNotSupportFiles()
+        throws Exception
+    {
+        RestProject proj = mock(RestProject.class);
+        when(client.getMissingProjectFiles(anyListOf(String.class))).thenThrow(new NotFoundException());
+        when(client.putProjectRevision("proj", "rev", archivePath.toFile(), Optional.absent())).thenReturn(proj);
+
+        assertThat(Push.pushArchive(client, out, "proj", "rev", archivePath, Optional.absent()), is(proj));
+
+        verify(client).putProjectRevision("proj", "rev", archivePath.toFile(), Optional.absent());
+        verify(client, never()).putProjectFile(anyString(), any(byte[].class));
+        verify(client, never()).putProjectRevision(anyString(), anyString(), any(RestProjectArchiveManifest.class), any());
+    }
+
+    private static void putFile(TarArchiveOutputStream tar, String name, byte[] data)
+        throws Exception
+    {
+        TarArchiveEntry e = new TarArchiveEntry(name);
+        e.setMode(0644);
+        e.setSize(data.length);
+        tar.putArchiveEntry(e);
+        tar.write(data);
+        tar.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,114 @@
+package io.digdag.cli.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.zip.GZIPOutputStream;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import io.digdag.client.DigdagClient;
+import io.digdag.client.api.RestLogFileHandle;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TaskLogWatcherTest
+{
+    private static final long ATTEMPT_ID = 1L;
+
+    private DigdagClient client;
+    private ByteArrayOutputStream outBytes;
+    private TaskLogWatcher watcher;
+
+    @Before
+    public void setUp()
+    {
+        client = mock(DigdagClient.class);
+        outBytes = new ByteArrayOutputStream();
+        watcher = new TaskLogWatcher(client, ATTEMPT_ID, null, new PrintStream(outBytes, true));
+    }
+
+    @Test
+    public void showLastLineWithoutNewlineAtFlush()
+        throws Exception
+    {
+        RestLogFileHandle file = handle("f1", 10, 1);
+        when(client.getLogFile(eq(ATTEMPT_ID), any(RestLogFileHandle.class))).thenReturn(gzip("a\nb"));
+
+        watcher.update(ImmutableList.of(file));
+        assertThat(output(), is("a\n"));
+
+        watcher.flush();
+        assertThat(output(), is("a\nb\n"));
+    }
+
+    @Test
+    public void showLastLineWithoutNewlineWhenSizeStopsChanging()
+        throws Exception
+    {
+        when(client.getLogFile(eq(ATTEMPT_ID), any(RestLogFileHandle.class))).thenReturn(gzip("a\nb"));
+        watcher.update(ImmutableList.of(handle("f1", 10, 1)));
+        assertThat(output(), is("a\n"));
+
+        // the file grows. the incomplete line is downloaded again with the rest
+        when(client.getLogFileTail(ATTEMPT_ID, "f1", 2)).thenReturn("bc\nd".getBytes(UTF_8));
+        assertThat(watcher.update(ImmutableList.of(handle("f1", 20, 1))), is(true));
+        assertThat(output(), is("a\nbc\n"));
+
+        // size doesn't change
+        assertThat(watcher.update(ImmutableList.of(handle("f1", 20, 1))), is(true));
+        assertThat(output(), is("a\nbc\nd\n"));
+
+        // shown only once
+        assertThat(watcher.update(ImmutableList.of(handle("f1", 20, 1))), is(false));
+        watcher.flush();
+        assertThat(output(), is("a\nbc\nd\n"));
+    }
+
+    @Test
+    public void showLastLineWithoutNewlineWhenNextFileExists()
+        throws Exception
+    {
+        RestLogFileHandle file1 = handle("f1", 10, 1);
+        RestLogFileHandle file2 = handle("f2", 10, 2);
+        when(client.getLogFile(ATTEMPT_ID, file1)).thenReturn(gzip("a\nb"));
+        when(client.getLogFile(ATTEMPT_ID, file2)).thenReturn(gzip("c\n"));
+
+        watcher.update(ImmutableList.of(file1, file2));
+        assertThat(output(), is("a\nb\nc\n"));
+    }
+
+    private String output()
+    {
+        return new String(outBytes.toByteArray(), UTF_8).replace(System.lineSeparator(), "\n");
+    }
+
+    private static RestLogFileHandle handle(String fileName, long fileSize, long fileTime)
+    {
+        return RestLogFileHandle.builder()
+            .fileName(fileName)
+            .fileSize(fileSize)
+            .taskName("+wf+t1")
+            .fileTime(Instant.ofEpochSecond(fileTime))
+            .agentId("agent")
+            .build();
+    }
+
+    private static ByteArrayInputStream gzip(String text)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(UTF_8));
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
@@ -8,11 +8,15 @@ import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import io.digdag.client.api.JacksonTimeModule;
 import io.digdag.client.api.LocalTimeOrInstant;
 import io.digdag.client.api.RestLogFileHandle;
 import io.digdag.client.api.RestProject;
+import io.digdag.client.api.RestProjectArchiveManifest;
+import io.digdag.client.api.RestProjectFileHashList;
 import io.digdag.client.api.RestRevision;
 import io.digdag.client.api.RestSchedule;
 import io.digdag.client.api.RestScheduleBackfillRequest;
@@ -32,12 +36,21 @@ import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServerErrorException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
@@ -163,6 +176,24 @@ public class DigdagClient implements AutoCloseable
     private final Client client;
     private final ConfigFactory cf;
 
+    // responses of immutable resources with entity tag.
+    // they are reused when server returns 304 Not Modified.
+    private final Cache<String, CachedEntity> entityCache = CacheBuilder.newBuilder()
+        .maximumSize(16)
+        .build();
+
+    private static class CachedEntity
+    {
+        private final EntityTag tag;
+        private final Object entity;
+
+        CachedEntity(EntityTag tag, Object entity)
+        {
+            this.tag = tag;
+            this.entity = entity;
+        }
+    }
+
     private DigdagClient(Builder builder)
     {
         if (builder.host == null) {
@@ -340,7 +371,7 @@ public class DigdagClient implements AutoCloseable
 
     public RestWorkflowDefinition getWorkflowDefinition(long workflowId)
     {
-        return doGet(RestWorkflowDefinition.class,
+        return doConditionalGet(new GenericType<RestWorkflowDefinition>() { },
                 target("/api/workflows/{id}")
                 .resolveTemplate("id", workflowId));
     }
@@ -392,6 +423,42 @@ public class DigdagClient implements AutoCloseable
         }
     }
 
+    public RestProject putProjectRevision(String projName, String revision, RestProjectArchiveManifest manifest, Optional<Instant> scheduleFrom)
+    {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(projName), "projName");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(revision), "revision");
+        WebTarget target = target("/api/projects")
+            .queryParam("project", projName)
+            .queryParam("revision", revision);
+        if (scheduleFrom.isPresent()) {
+            target = target.queryParam("schedule_from", scheduleFrom.get().toString());
+        }
+        return doPut(RestProject.class, "application/json", manifest, target);
+    }
+
+    public List<String> getMissingProjectFiles(List<String> hashes)
+    {
+        return doPost(RestProjectFileHashList.class,
+                RestProjectFileHashList.of(hashes),
+                target("/api/project_files/missing"))
+            .getHashes();
+    }
+
+    public void putProjectFile(String hash, byte[] data)
+    {
+        Response response = target("/api/project_files/{hash}")
+                .resolveTemplate("hash", hash)
+                .request()
+                .headers(headers.get())
+                .put(Entity.entity(data, "application/octet-stream"));
+        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            // NotFoundException if the server doesn't support project files
+            response.bufferEntity();
+            throw errorResponseException(response);
+        }
+        response.close();
+    }
+
     // TODO getArchive with streaming
     public InputStream getProjectArchive(int projId, String revision)
     {
@@ -533,7 +600,7 @@ public class DigdagClient implements AutoCloseable
 
     public List<RestTask> getTasks(long attemptId)
     {
-        return doGet(new GenericType<List<RestTask>>() { },
+        return doConditionalGet(new GenericType<List<RestTask>>() { },
                 target("/api/attempts/{id}/tasks")
                 .resolveTemplate("id", attemptId));
     }
@@ -579,6 +646,17 @@ public class DigdagClient implements AutoCloseable
         return res.readEntity(InputStream.class);
     }
 
+    public byte[] getLogFileTail(long attemptId, String fileName, long offset)
+    {
+        return target("/api/logs/{id}/files/{fileName}/tail")
+            .resolveTemplate("id", attemptId)
+            .resolveTemplate("fileName", fileName)
+            .queryParam("offset", offset)
+            .request("text/plain")
+            .headers(headers.get())
+            .get(byte[].class);
+    }
+
     public RestSessionAttempt startSessionAttempt(RestSessionAttemptRequest request)
     {
         return doPut(RestSessionAttempt.class,
@@ -735,6 +813,62 @@ public class DigdagClient implements AutoCloseable
             .get(type);
     }
 
+    // GET with If-None-Match header if the resource is fetched before
+    @SuppressWarnings("unchecked")
+    private <T> T doConditionalGet(GenericType<T> type, WebTarget target)
+    {
+        String key = target.getUri().toString();
+        CachedEntity cached = entityCache.getIfPresent(key);
+
+        Invocation.Builder request = target.request("application/json")
+            .headers(headers.get());
+        if (cached != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, cached.tag);
+        }
+
+        Response res = request.get();
+        if (cached != null && res.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+            res.close();
+            return (T) cached.entity;
+        }
+        if (res.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            res.bufferEntity();
+            throw errorResponseException(res);
+        }
+
+        T entity = res.readEntity(type);
+        EntityTag tag = res.getEntityTag();
+        if (tag != null) {
+            entityCache.put(key, new CachedEntity(tag, entity));
+        }
+        return entity;
+    }
+
+    private static WebApplicationException errorResponseException(Response res)
+    {
+        switch (res.getStatus()) {
+        case 400:
+            return new BadRequestException(res);
+        case 401:
+            return new NotAuthorizedException(res);
+        case 403:
+            return new ForbiddenException(res);
+        case 404:
+            return new NotFoundException(res);
+        case 500:
+            return new InternalServerErrorException(res);
+        default:
+            switch (res.getStatusInfo().getFamily()) {
+            case CLIENT_ERROR:
+                return new ClientErrorException(res);
+            case SERVER_ERROR:
+                return new ServerErrorException(res);
+            default:
+                return new WebApplicationException(res);
+            }
+        }
+    }
+
     private <T> T doPut(Class<T> type, String contentType, Object body, WebTarget target)
     {
         return target.request("application/json")
@@ -0,0 +1,27 @@
+package io.digdag.client.api;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Optional;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonSerialize(as = ImmutableRestProjectArchiveEntry.class)
+@JsonDeserialize(as = ImmutableRestProjectArchiveEntry.class)
+public interface RestProjectArchiveEntry
+{
+    String getName();
+
+    int getMode();
+
+    // sha-256 of the file content in hex. absent if this is a symlink.
+    Optional<String> getHash();
+
+    // destination of the symlink. absent if this is a regular file.
+    Optional<String> getLinkName();
+
+    static ImmutableRestProjectArchiveEntry.Builder builder()
+    {
+        return ImmutableRestProjectArchiveEntry.builder();
+    }
+}
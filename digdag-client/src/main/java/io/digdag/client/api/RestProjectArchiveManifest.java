@@ -0,0 +1,19 @@
+package io.digdag.client.api;
+
+import java.util.List;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonSerialize(as = ImmutableRestProjectArchiveManifest.class)
+@JsonDeserialize(as = ImmutableRestProjectArchiveManifest.class)
+public interface RestProjectArchiveManifest
+{
+    List<RestProjectArchiveEntry> getEntries();
+
+    static ImmutableRestProjectArchiveManifest.Builder builder()
+    {
+        return ImmutableRestProjectArchiveManifest.builder();
+    }
+}
@@ -0,0 +1,21 @@
+package io.digdag.client.api;
+
+import java.util.List;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonSerialize(as = ImmutableRestProjectFileHashList.class)
+@JsonDeserialize(as = ImmutableRestProjectFileHashList.class)
+public interface RestProjectFileHashList
+{
+    List<String> getHashes();
+
+    static RestProjectFileHashList of(Iterable<String> hashes)
+    {
+        return ImmutableRestProjectFileHashList.builder()
+            .hashes(hashes)
+            .build();
+    }
+}
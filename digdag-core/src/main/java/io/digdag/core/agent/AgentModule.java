@@ -8,6 +8,7 @@ import io.digdag.spi.NotificationSender;
 import io.digdag.spi.Notifier;
 import io.digdag.spi.TemplateEngine;
 import io.digdag.spi.CommandLogger;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class AgentModule
         implements Module
@@ -21,6 +22,7 @@ public class AgentModule
 
         binder.bind(ConfigEvalEngine.class).in(Scopes.SINGLETON);
         binder.bind(TemplateEngine.class).to(ConfigEvalEngine.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ConfigEvalEngine.class).withGeneratedName();
 
         // log
         binder.bind(CommandLogger.class).to(TaskContextCommandLogger.class).in(Scopes.SINGLETON);
@@ -1,27 +1,46 @@
 package io.digdag.core.agent;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.charset.Charset;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
-import javax.script.Invocable;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharStreams;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.weakref.jmx.Managed;
+import jdk.nashorn.api.scripting.NashornException;
 import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import io.digdag.client.config.Config;
 import io.digdag.spi.TemplateEngine;
 import io.digdag.spi.TemplateException;
@@ -61,8 +80,141 @@ public class ConfigEvalEngine
         RUNTIME_JS_CONTENTS = builder.build();
     }
 
+    // max number of idle engines kept for each timezone
+    private static final int MAX_IDLE_ENGINES_PER_TIMEZONE = 8;
+
+    // Creating a ScriptEngine and compiling runtime scripts (especially
+    // moment.js) are the most expensive part of evaluation. An engine is bound
+    // to a timezone (-timezone option) and keeps the compiled runtime scripts.
+    // Each evaluation creates a fresh global object and runs the compiled
+    // scripts on it so that a template can't leak variables or modified
+    // built-in objects (e.g. String.prototype or moment.fn) to other tasks.
+    private static class PooledEngine
+    {
+        private final ScriptEngine engine;
+        private final List<CompiledScript> runtimeScripts;
+        // compiled template functions. A compiled script doesn't depend on a
+        // global object and creates a function bound to the global object given
+        // to CompiledScript.eval. An engine is used by one thread at a time.
+        private final Map<String, CompiledScript> functions = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest)
+            {
+                return size() > FUNCTION_CACHE_SIZE_PER_ENGINE;
+            }
+        };
+
+        public PooledEngine(ScriptEngine engine, List<CompiledScript> runtimeScripts)
+        {
+            this.engine = engine;
+            this.runtimeScripts = runtimeScripts;
+        }
+
+        public CompiledScript getFunction(String code)
+        {
+            return functions.get(code);
+        }
+
+        public CompiledScript compileFunction(String code, String source)
+            throws ScriptException
+        {
+            CompiledScript function = ((Compilable) engine).compile("(function() {\n" + source + "})");
+            if (code.length() <= MAX_CACHED_TEMPLATE_LENGTH) {
+                functions.put(code, function);
+            }
+            return function;
+        }
+
+        public ScriptObjectMirror newGlobal()
+        {
+            Bindings global = engine.createBindings();
+            try {
+                for (CompiledScript runtimeScript : runtimeScripts) {
+                    runtimeScript.eval(global);
+                }
+                return (ScriptObjectMirror) global;
+            }
+            catch (ScriptException | ClassCastException ex) {
+                throw new IllegalStateException("Unexpected script evaluation failure", ex);
+            }
+        }
+    }
+
+    // max total length of templates whose parsed form is cached. A parsed
+    // template also keeps a function source whose length is proportional to
+    // the template.
+    private static final long TEMPLATE_CACHE_MAX_CHARS = 16 * 1024 * 1024;
+
+    // templates longer than this are not cached. They are usually generated
+    // or embedded contents (e.g. a query file) and are evaluated only once.
+    private static final int MAX_CACHED_TEMPLATE_LENGTH = 64 * 1024;
+
+    // max number of compiled JavaScript functions kept by a pooled engine
+    private static final int FUNCTION_CACHE_SIZE_PER_ENGINE = 1000;
+
+    // matches templates that consist of only a reference to a variable such as
+    // ${session_date} or ${td.last_job_id}
+    private static final Pattern VARIABLE_REFERENCE_PATTERN = Pattern.compile(
+            "\\$\\{\\s*([A-Za-z_$][A-Za-z0-9_$]*(?:\\.[A-Za-z_$][A-Za-z0-9_$]*)*)\\s*\\}");
+
+    private static final Set<String> JS_RESERVED_WORDS = ImmutableSet.of(
+            "this", "true", "false", "null", "undefined", "NaN", "Infinity",
+            "break", "case", "catch", "class", "const", "continue", "debugger", "default",
+            "delete", "do", "else", "enum", "export", "extends", "finally", "for", "function",
+            "if", "import", "in", "instanceof", "new", "return", "super", "switch", "throw",
+            "try", "typeof", "var", "void", "while", "with", "let", "yield");
+
+    // JavaScript represents numbers using double. Integers in this range are
+    // stringified in the same way with Java.
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+    private static class ParsedTemplate
+    {
+        // path of a variable if the template is a variable reference
+        private final Optional<List<String>> variablePath;
+        // JavaScript function body built from the template. This is null until the
+        // template is evaluated using JavaScript first time. Compiling the source
+        // is done by each engine (see PooledEngine.compileFunction).
+        private volatile String functionSource;
+
+        public ParsedTemplate(Optional<List<String>> variablePath)
+        {
+            this.variablePath = variablePath;
+        }
+
+        public static ParsedTemplate of(String code)
+        {
+            Matcher m = VARIABLE_REFERENCE_PATTERN.matcher(code);
+            if (m.matches()) {
+                List<String> path = Splitter.on('.').splitToList(m.group(1));
+                if (!JS_RESERVED_WORDS.contains(path.get(0))) {
+                    return new ParsedTemplate(Optional.of(path));
+                }
+            }
+            return new ParsedTemplate(Optional.absent());
+        }
+    }
+
+    private static class EnginePool
+    {
+        private final Queue<PooledEngine> idleEngines = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger(0);
+    }
+
     private final ObjectMapper jsonMapper;
     private final NashornScriptEngineFactory jsEngineFactory;
+    private final ConcurrentMap<String, EnginePool> enginePools = new ConcurrentHashMap<>();
+    private final Cache<String, ParsedTemplate> templateCache = CacheBuilder.newBuilder()
+        .maximumWeight(TEMPLATE_CACHE_MAX_CHARS)
+        .weigher((String code, ParsedTemplate parsed) -> code.length())
+        .build();
+
+    private final AtomicLong templateCacheHitCount = new AtomicLong(0L);
+    private final AtomicLong templateCacheMissCount = new AtomicLong(0L);
+    private final AtomicLong functionCacheHitCount = new AtomicLong(0L);
+    private final AtomicLong functionCacheMissCount = new AtomicLong(0L);
+    private final AtomicLong variableReferenceCount = new AtomicLong(0L);
 
     @Inject
     public ConfigEvalEngine()
@@ -75,75 +227,231 @@ public class ConfigEvalEngine
         throws TemplateException
     {
         ObjectNode object = config.convert(ObjectNode.class);
-        ObjectNode built = new Context(params).evalObjectRecursive(object);
-        return config.getFactory().create(built);
+        String timezone = params.get("timezone", String.class);
+        PooledEngine engine = borrowEngine(timezone);
+        try {
+            ObjectNode built = new Context(params, engine).evalObjectRecursive(object);
+            return config.getFactory().create(built);
+        }
+        finally {
+            returnEngine(timezone, engine);
+        }
+    }
+
+    @Managed
+    public long getTemplateCacheHitCount()
+    {
+        return templateCacheHitCount.get();
     }
 
-    private Invocable newTemplateInvocable(Config params)
+    @Managed
+    public long getTemplateCacheMissCount()
+    {
+        return templateCacheMissCount.get();
+    }
+
+    @Managed
+    public long getFunctionCacheHitCount()
+    {
+        return functionCacheHitCount.get();
+    }
+
+    @Managed
+    public long getFunctionCacheMissCount()
+    {
+        return functionCacheMissCount.get();
+    }
+
+    @Managed
+    public long getVariableReferenceCount()
+    {
+        return variableReferenceCount.get();
+    }
+
+    private ParsedTemplate getParsedTemplate(String code)
+    {
+        ParsedTemplate parsed = templateCache.getIfPresent(code);
+        if (parsed != null) {
+            templateCacheHitCount.incrementAndGet();
+            return parsed;
+        }
+        templateCacheMissCount.incrementAndGet();
+        parsed = ParsedTemplate.of(code);
+        if (code.length() <= MAX_CACHED_TEMPLATE_LENGTH) {
+            templateCache.put(code, parsed);
+        }
+        return parsed;
+    }
+
+    // Returns result of a template that consists of only a variable reference
+    // without using JavaScript. Returns absent if the reference needs JavaScript
+    // to get the exactly same result (e.g. the variable is not defined, a field of
+    // a non-object value is referenced, or the value is an object or a number
+    // that needs JavaScript's stringification).
+    private Optional<String> resolveVariableReference(List<String> path, ObjectNode... scopes)
+    {
+        JsonNode node = null;
+        for (ObjectNode scope : scopes) {
+            node = scope.get(path.get(0));
+            if (node != null) {
+                break;
+            }
+        }
+        for (int i = 1; i < path.size(); i++) {
+            if (node == null || !node.isObject()) {
+                return Optional.absent();
+            }
+            node = node.get(path.get(i));
+        }
+        if (node == null) {
+            return Optional.absent();
+        }
+        else if (node.isTextual()) {
+            return Optional.of(node.textValue());
+        }
+        else if (node.isNull()) {
+            return Optional.of("");
+        }
+        else if (node.isBoolean()) {
+            return Optional.of(Boolean.toString(node.booleanValue()));
+        }
+        else if (node.isIntegralNumber() && node.canConvertToLong() &&
+                node.longValue() >= -MAX_SAFE_INTEGER && node.longValue() <= MAX_SAFE_INTEGER) {
+            return Optional.of(Long.toString(node.longValue()));
+        }
+        else {
+            return Optional.absent();
+        }
+    }
+
+    private PooledEngine borrowEngine(String timezone)
+    {
+        EnginePool pool = enginePools.computeIfAbsent(timezone, (key) -> new EnginePool());
+        PooledEngine engine = pool.idleEngines.poll();
+        if (engine != null) {
+            pool.idleCount.decrementAndGet();
+            return engine;
+        }
+        return newEngine(timezone);
+    }
+
+    private void returnEngine(String timezone, PooledEngine engine)
+    {
+        EnginePool pool = enginePools.get(timezone);
+        if (pool.idleCount.incrementAndGet() <= MAX_IDLE_ENGINES_PER_TIMEZONE) {
+            pool.idleEngines.add(engine);
+        }
+        else {
+            // discard
+            pool.idleCount.decrementAndGet();
+        }
+    }
+
+    private PooledEngine newEngine(String timezone)
     {
         ScriptEngine jsEngine = jsEngineFactory.getScriptEngine(new String[] {
             //"--language=es6",  // this is not even accepted with jdk1.8.0_20 and has a bug with jdk1.8.0_51
             "--no-java",
             "--no-syntax-extensions",
-            "-timezone=" + params.get("timezone", String.class),
+            "-timezone=" + timezone,
         });
+        ImmutableList.Builder<CompiledScript> runtimeScripts = ImmutableList.builder();
         try {
             for (String runtimeJs : RUNTIME_JS_CONTENTS) {
-                jsEngine.eval(runtimeJs);
+                runtimeScripts.add(((Compilable) jsEngine).compile(runtimeJs));
             }
         }
         catch (ScriptException | ClassCastException ex) {
-            throw new IllegalStateException("Unexpected script evaluation failure", ex);
+            throw new IllegalStateException("Unexpected script compilation failure", ex);
         }
-        return (Invocable) jsEngine;
+        return new PooledEngine(jsEngine, runtimeScripts.build());
     }
 
-    private String invokeTemplate(Invocable templateInvocable, String code, Config params)
+    private String toJson(Object value)
         throws TemplateException
     {
-        String context;
         try {
-            context = jsonMapper.writeValueAsString(params);
+            return jsonMapper.writeValueAsString(value);
         }
         catch (RuntimeException | IOException ex) {
             throw new TemplateException("Failed to serialize parameters to JSON", ex);
         }
+    }
+
+    private String invokeTemplate(PooledEngine engine, ScriptObjectMirror global, String code, ParsedTemplate parsed, Object variables)
+        throws TemplateException
+    {
         try {
-            return (String) templateInvocable.invokeFunction("template", code, context);
-        }
-        catch (ScriptException ex) {
-            String message;
-            if (ex.getCause() != null) {
-                // ScriptException.getMessage includes filename and line number but they
-                // are confusing because filename is always dummy file name and line number
-                // is not accurate.
-                message = ex.getCause().getMessage();
+            CompiledScript compiled = engine.getFunction(code);
+            if (compiled != null) {
+                functionCacheHitCount.incrementAndGet();
             }
             else {
-                message = ex.getMessage();
+                functionCacheMissCount.incrementAndGet();
+                String source = parsed.functionSource;
+                if (source == null) {
+                    source = (String) global.callMember("templateSource", code);
+                    parsed.functionSource = source;
+                }
+                compiled = engine.compileFunction(code, source);
             }
+            Object function = compiled.eval(global);
+            return (String) global.callMember("callTemplate", function, variables);
+        }
+        catch (NashornException ex) {
+            // NashornException.getMessage doesn't include filename and line number that
+            // are confusing because filename is always dummy file name and line number
+            // is not accurate.
+            throw new TemplateException("Failed to evaluate a variable " + code + " (" + ex.getMessage() + ")");
+        }
+        catch (ScriptException ex) {
+            // compilation errors are wrapped by ScriptException
+            String message = (ex.getCause() instanceof NashornException) ? ex.getCause().getMessage() : ex.getMessage();
             throw new TemplateException("Failed to evaluate a variable " + code + " (" + message + ")");
         }
-        catch (NoSuchMethodException ex) {
+        catch (ClassCastException ex) {
             throw new TemplateException("Failed to evaluate JavaScript code: " + code, ex);
         }
     }
 
+    private static boolean needsEvaluation(String code)
+    {
+        // "${...}", "${%...%}" and "$$" are the only syntax of templates
+        return code.indexOf('$') >= 0;
+    }
+
     private class Context
     {
         private final Config params;
-        private final Invocable templateInvocable;
+        private final ObjectNode paramsObject;
+        private final PooledEngine engine;
+        private ScriptObjectMirror global = null;
+        private Object paramsScope = null;
 
-        public Context(Config params)
+        public Context(Config params, PooledEngine engine)
         {
             this.params = params;
-            this.templateInvocable = newTemplateInvocable(params);
+            this.paramsObject = params.getInternalObjectNode();
+            this.engine = engine;
+        }
+
+        private ScriptObjectMirror getGlobal()
+            throws TemplateException
+        {
+            if (global == null) {
+                // created when a template needs JavaScript first time. params are
+                // converted to a JavaScript object only once. Local fields of an
+                // object are layered on it using prototype chain.
+                global = engine.newGlobal();
+                paramsScope = global.callMember("newScope", null, toJson(params));
+            }
+            return global;
         }
 
         private ObjectNode evalObjectRecursive(ObjectNode local)
             throws TemplateException
         {
-            ObjectNode built = local.objectNode();
+            LocalScope scope = new LocalScope(local.objectNode());
             for (Map.Entry<String, JsonNode> pair : ImmutableList.copyOf(local.fields())) {
                 JsonNode value = pair.getValue();
                 JsonNode evaluated;
@@ -155,22 +463,22 @@ public class ConfigEvalEngine
                     evaluated = evalObjectRecursive((ObjectNode) value);
                 }
                 else if (value.isArray()) {
-                    evaluated = evalArrayRecursive(built, (ArrayNode) value);
+                    evaluated = evalArrayRecursive(scope, (ArrayNode) value);
                 }
                 else if (value.isTextual()) {
                     // eval using template engine
                     String code = value.textValue();
-                    evaluated = evalValue(built, code);
+                    evaluated = evalValue(scope, value, code);
                 }
                 else {
                     evaluated = value;
                 }
-                built.set(pair.getKey(), evaluated);
+                scope.set(pair.getKey(), evaluated);
             }
-            return built;
+            return scope.built;
         }
 
-        private ArrayNode evalArrayRecursive(ObjectNode local, ArrayNode array)
+        private ArrayNode evalArrayRecursive(LocalScope local, ArrayNode array)
             throws TemplateException
         {
             ArrayNode built = array.arrayNode();
@@ -185,7 +493,7 @@ public class ConfigEvalEngine
                 else if (value.isTextual()) {
                     // eval using template engine
                     String code = value.textValue();
-                    evaluated = evalValue(local, code);
+                    evaluated = evalValue(local, value, code);
                 }
                 else {
                     evaluated = value;
@@ -195,14 +503,22 @@ public class ConfigEvalEngine
             return built;
         }
 
-        private JsonNode evalValue(ObjectNode local, String code)
+        private JsonNode evalValue(LocalScope local, JsonNode value, String code)
             throws TemplateException
         {
-            Config scopedParams = params.deepCopy();
-            for (Map.Entry<String, JsonNode> pair : ImmutableList.copyOf(local.fields())) {
-                scopedParams.set(pair.getKey(), pair.getValue());
+            if (!needsEvaluation(code)) {
+                return value;
+            }
+            ParsedTemplate parsed = getParsedTemplate(code);
+            if (parsed.variablePath.isPresent()) {
+                Optional<String> resolved = resolveVariableReference(parsed.variablePath.get(), local.built, paramsObject);
+                if (resolved.isPresent()) {
+                    variableReferenceCount.incrementAndGet();
+                    return jsonMapper.getNodeFactory().textNode(resolved.get());
+                }
             }
-            String resultText = invokeTemplate(templateInvocable, code, scopedParams);
+            Object variables = local.getVariables();
+            String resultText = invokeTemplate(engine, global, code, parsed, variables);
             if (resultText == null) {
                 return jsonMapper.getNodeFactory().nullNode();
             }
@@ -210,14 +526,60 @@ public class ConfigEvalEngine
                 return jsonMapper.getNodeFactory().textNode(resultText);
             }
         }
+
+        private class LocalScope
+        {
+            private final ObjectNode built;
+            private Object variables = null;
+
+            public LocalScope(ObjectNode built)
+            {
+                this.built = built;
+            }
+
+            public Object getVariables()
+                throws TemplateException
+            {
+                if (variables == null) {
+                    // created when a template is evaluated first time in this object
+                    variables = getGlobal().callMember("newScope", paramsScope, toJson(built));
+                }
+                return variables;
+            }
+
+            public void set(String key, JsonNode value)
+                throws TemplateException
+            {
+                built.set(key, value);
+                if (variables != null) {
+                    global.callMember("setScopeVariable", variables, key, toJson(value));
+                }
+            }
+        }
     }
 
     @Override
     public String template(String content, Config params)
         throws TemplateException
     {
-        Invocable templateInvocable = newTemplateInvocable(params);
-        String resultText = invokeTemplate(templateInvocable, content, params);
+        ParsedTemplate parsed = getParsedTemplate(content);
+        if (parsed.variablePath.isPresent()) {
+            Optional<String> resolved = resolveVariableReference(parsed.variablePath.get(), params.getInternalObjectNode());
+            if (resolved.isPresent()) {
+                variableReferenceCount.incrementAndGet();
+                return resolved.get();
+            }
+        }
+
+        String timezone = params.get("timezone", String.class);
+        PooledEngine engine = borrowEngine(timezone);
+        String resultText;
+        try {
+            resultText = invokeTemplate(engine, engine.newGlobal(), content, parsed, toJson(params));
+        }
+        finally {
+            returnEngine(timezone, engine);
+        }
         if (resultText == null) {
             return "";
         }
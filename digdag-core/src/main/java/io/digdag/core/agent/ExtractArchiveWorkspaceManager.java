@@ -21,10 +21,13 @@ import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.digdag.client.config.Config;
 import io.digdag.spi.TaskRequest;
 import io.digdag.spi.StorageObject;
 import io.digdag.core.TempFileManager;
 import io.digdag.core.TempFileManager.TempDir;
+import static java.util.Locale.ENGLISH;
+import static io.digdag.core.storage.StorageManager.encodeHex;
 
 public class ExtractArchiveWorkspaceManager
     implements WorkspaceManager
@@ -32,11 +35,23 @@ public class ExtractArchiveWorkspaceManager
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final TempFileManager tempFiles;
+    private final Optional<ExtractedArchiveCache> cache;
 
     @Inject
-    public ExtractArchiveWorkspaceManager(TempFileManager tempFiles)
+    public ExtractArchiveWorkspaceManager(TempFileManager tempFiles, Config systemConfig)
     {
         this.tempFiles = tempFiles;
+        // total size of cached extracted archives in bytes. 0 disables the cache.
+        long cacheMaxSize = systemConfig.get("agent.workspace_cache.max_size", long.class, 1024L * 1024 * 1024);
+        // hardlinks files of a cached archive to workspaces instead of copying them.
+        // enable this only if tasks never modify files of the project in place.
+        boolean cacheHardlink = systemConfig.get("agent.workspace_cache.hardlink", boolean.class, false);
+        if (cacheMaxSize > 0) {
+            this.cache = Optional.of(new ExtractedArchiveCache(tempFiles, cacheMaxSize, cacheHardlink));
+        }
+        else {
+            this.cache = Optional.absent();
+        }
     }
 
     @Override
@@ -44,20 +59,48 @@ public class ExtractArchiveWorkspaceManager
             throws IOException
     {
         try (TempDir workspacePath = createNewWorkspace(request)) {
-            Optional<StorageObject> in = archiveProvider.open();
-            if (in.isPresent()) {
-                try (TarArchiveInputStream archive = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(in.get().getContentInputStream())))) {
-                    extractArchive(workspacePath.get(), archive);
-                }
+            Optional<String> cacheKey = getCacheKey(request, archiveProvider);
+            if (cacheKey.isPresent()) {
+                cache.get().copyTo(cacheKey.get(), workspacePath.get(), (destDir) -> extractArchive(destDir, archiveProvider));
+            }
+            else {
+                extractArchive(workspacePath.get(), archiveProvider);
             }
             return func.run(workspacePath.get());
         }
     }
 
-    private void extractArchive(Path destDir, TarArchiveInputStream archive)
+    private Optional<String> getCacheKey(TaskRequest request, ArchiveProvider archiveProvider)
+        throws IOException
+    {
+        if (!cache.isPresent() || !request.getRevision().isPresent()) {
+            return Optional.absent();
+        }
+        Optional<byte[]> md5 = archiveProvider.getMd5();
+        if (!md5.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(String.format(ENGLISH, "%d/%s/%s",
+                    request.getProjectId(), request.getRevision().get(), encodeHex(md5.get())));
+    }
+
+    private long extractArchive(Path destDir, ArchiveProvider archiveProvider)
+        throws IOException
+    {
+        Optional<StorageObject> in = archiveProvider.open();
+        if (!in.isPresent()) {
+            return 0L;
+        }
+        try (TarArchiveInputStream archive = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(in.get().getContentInputStream())))) {
+            return extractArchive(destDir, archive);
+        }
+    }
+
+    private long extractArchive(Path destDir, TarArchiveInputStream archive)
         throws IOException
     {
         String prefix = destDir.toAbsolutePath().normalize().toString();
+        long totalSize = 0L;
         TarArchiveEntry entry;
         while (true) {
             entry = archive.getNextTarEntry();
@@ -83,11 +126,12 @@ public class ExtractArchiveWorkspaceManager
             else {
                 Files.createDirectories(path.getParent());
                 try (OutputStream out = Files.newOutputStream(path)) {
-                    ByteStreams.copy(archive, out);
+                    totalSize += ByteStreams.copy(archive, out);
                 }
             }
             Files.setPosixFilePermissions(path, getPosixFilePermissions(entry));
         }
+        return totalSize;
     }
 
     private Set<PosixFilePermission> getPosixFilePermissions(TarArchiveEntry entry)
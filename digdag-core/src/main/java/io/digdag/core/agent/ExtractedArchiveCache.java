@@ -0,0 +1,212 @@
+package io.digdag.core.agent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.FileVisitResult;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import io.digdag.core.TempFileManager;
+import io.digdag.core.TempFileManager.TempDir;
+
+/**
+ * Local cache of extracted project archives.
+ *
+ * An entry is a directory that contains files of an extracted archive.
+ * Entries are evicted in LRU order when total size of the files exceeds
+ * maxSize. Entries being copied to a workspace are not evicted until the
+ * copy completes.
+ */
+public class ExtractedArchiveCache
+{
+    public interface Extractor
+    {
+        // extracts archive to the directory and returns total size of the files
+        long extract(Path destDir) throws IOException;
+    }
+
+    private static class Entry
+    {
+        private final TempDir dir;
+        private final long size;
+        private int refCount = 0;
+        private boolean evicted = false;
+
+        Entry(TempDir dir, long size)
+        {
+            this.dir = dir;
+            this.size = size;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractedArchiveCache.class);
+
+    private final TempFileManager tempFiles;
+    private final long maxSize;
+    private final boolean hardlink;
+
+    // access-ordered to evict least recently used entries first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Object> extractLocks = new ConcurrentHashMap<>();
+    private long totalSize = 0;
+
+    public ExtractedArchiveCache(TempFileManager tempFiles, long maxSize, boolean hardlink)
+    {
+        this.tempFiles = tempFiles;
+        this.maxSize = maxSize;
+        this.hardlink = hardlink;
+    }
+
+    public void copyTo(String key, Path workspacePath, Extractor extractor)
+        throws IOException
+    {
+        Entry entry = acquire(key, extractor);
+        try {
+            copyTree(entry.dir.get(), workspacePath);
+        }
+        finally {
+            release(entry);
+        }
+    }
+
+    private Entry acquire(String key, Extractor extractor)
+        throws IOException
+    {
+        Entry entry = acquireIfExists(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        // only one thread extracts an archive. others wait for it.
+        while (true) {
+            Object lock = extractLocks.computeIfAbsent(key, k -> new Object());
+            synchronized (lock) {
+                if (extractLocks.get(key) != lock) {
+                    // the thread that had this lock removed it after extraction.
+                    // retry with the current lock.
+                    continue;
+                }
+                try {
+                    entry = acquireIfExists(key);
+                    if (entry != null) {
+                        return entry;
+                    }
+
+                    TempDir dir = tempFiles.createTempDir("workspace_cache", "archive");
+                    long size;
+                    try {
+                        size = extractor.extract(dir.get());
+                    }
+                    catch (IOException | RuntimeException ex) {
+                        dir.close();
+                        throw ex;
+                    }
+                    logger.debug("Cached extracted archive {} ({} bytes)", key, size);
+
+                    entry = new Entry(dir, size);
+                    synchronized (this) {
+                        entry.refCount++;
+                        entries.put(key, entry);
+                        totalSize += size;
+                        evictIfNecessary();
+                    }
+                    return entry;
+                }
+                finally {
+                    // removes only the lock owned by this thread
+                    extractLocks.remove(key, lock);
+                }
+            }
+        }
+    }
+
+    private synchronized Entry acquireIfExists(String key)
+    {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.refCount++;
+        }
+        return entry;
+    }
+
+    private void release(Entry entry)
+    {
+        synchronized (this) {
+            entry.refCount--;
+            if (entry.refCount == 0 && entry.evicted) {
+                entry.dir.close();
+            }
+            evictIfNecessary();
+        }
+    }
+
+    private synchronized void evictIfNecessary()
+    {
+        Iterator<Map.Entry<String, Entry>> ite = entries.entrySet().iterator();
+        while (totalSize > maxSize && ite.hasNext()) {
+            Map.Entry<String, Entry> pair = ite.next();
+            Entry entry = pair.getValue();
+            if (entry.refCount > 0) {
+                continue;
+            }
+            ite.remove();
+            totalSize -= entry.size;
+            entry.evicted = true;
+            entry.dir.close();
+            logger.debug("Evicted extracted archive {} from cache", pair.getKey());
+        }
+    }
+
+    private void copyTree(Path srcDir, Path destDir)
+        throws IOException
+    {
+        Files.walkFileTree(srcDir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                throws IOException
+            {
+                Files.createDirectories(destDir.resolve(srcDir.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                throws IOException
+            {
+                if (exc != null) {
+                    throw exc;
+                }
+                // set permissions after copying files because the directory may not be writable
+                Path dest = destDir.resolve(srcDir.relativize(dir).toString());
+                Files.setPosixFilePermissions(dest, Files.getPosixFilePermissions(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException
+            {
+                Path dest = destDir.resolve(srcDir.relativize(file).toString());
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(dest, Files.readSymbolicLink(file));
+                }
+                else if (hardlink) {
+                    Files.createLink(dest, file);
+                }
+                else {
+                    Files.copy(file, dest, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
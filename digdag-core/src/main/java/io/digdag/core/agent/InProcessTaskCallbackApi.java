@@ -130,6 +130,30 @@ public class InProcessTaskCallbackApi
         }
     }
 
+    @Override
+    public Optional<byte[]> getArchiveMd5(TaskRequest request)
+        throws IOException
+    {
+        if (!request.getRevision().isPresent()) {
+            return Optional.absent();
+        }
+        String revision = request.getRevision().get();
+
+        try {
+            return archiveManager.getArchiveMd5(
+                    pm.getProjectStore(request.getSiteId()),
+                    request.getProjectId(),
+                    revision);
+        }
+        catch (ResourceNotFoundException ex) {
+            throw new IllegalStateException(String.format(ENGLISH,
+                        "Revision of project id=%d revision='%s' is not found in database",
+                        request.getProjectId(),
+                        request.getRevision().or("")
+                        ), ex);
+        }
+    }
+
     @Override
     public void taskSucceeded(int siteId,
             long taskId, String lockId, AgentId agentId,
@@ -12,6 +12,7 @@ import io.digdag.core.log.TaskContextLogging;
 import io.digdag.core.log.TaskLogger;
 import io.digdag.core.workflow.WorkflowCompiler;
 import io.digdag.core.ErrorReporter;
+import io.digdag.core.agent.WorkspaceManager.ArchiveProvider;
 import io.digdag.spi.Operator;
 import io.digdag.spi.OperatorFactory;
 import io.digdag.spi.SecretAccessContext;
@@ -19,6 +20,7 @@ import io.digdag.spi.SecretAccessPolicy;
 import io.digdag.spi.SecretSelector;
 import io.digdag.spi.SecretStore;
 import io.digdag.spi.SecretStoreManager;
+import io.digdag.spi.StorageObject;
 import io.digdag.spi.TaskExecutionContext;
 import io.digdag.spi.TaskExecutionException;
 import io.digdag.spi.TaskRequest;
@@ -136,7 +138,23 @@ public class OperatorManager
     private void runWithHeartbeat(TaskRequest request)
     {
         try {
-            workspaceManager.withExtractedArchive(request, () -> callback.openArchive(request), (projectPath) -> {
+            ArchiveProvider archiveProvider = new ArchiveProvider()
+            {
+                @Override
+                public Optional<StorageObject> open()
+                    throws IOException
+                {
+                    return callback.openArchive(request);
+                }
+
+                @Override
+                public Optional<byte[]> getMd5()
+                    throws IOException
+                {
+                    return callback.getArchiveMd5(request);
+                }
+            };
+            workspaceManager.withExtractedArchive(request, archiveProvider, (projectPath) -> {
                 try {
                     runWithWorkspace(projectPath, request);
                 }
@@ -23,6 +23,9 @@ public interface TaskCallbackApi
     Optional<StorageObject> openArchive(TaskRequest request)
         throws IOException;
 
+    Optional<byte[]> getArchiveMd5(TaskRequest request)
+        throws IOException;
+
     void taskSucceeded(int siteId,
             long taskId, String lockId, AgentId agentId,
             TaskResult result);
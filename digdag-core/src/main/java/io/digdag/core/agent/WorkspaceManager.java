@@ -11,6 +11,9 @@ public interface WorkspaceManager
     public interface ArchiveProvider
     {
         public Optional<StorageObject> open() throws IOException;
+
+        // md5 of the archive. absent if the archive is not identifiable
+        public Optional<byte[]> getMd5() throws IOException;
     }
 
     public interface WithWorkspaceAction<T>
@@ -0,0 +1,43 @@
+package io.digdag.core.archive;
+
+import java.util.List;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.immutables.value.Value;
+import static io.digdag.core.storage.StorageManager.encodeHex;
+
+/**
+ * List of files of a project archive stored as content-addressed files.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableArchiveManifest.class)
+@JsonDeserialize(as = ImmutableArchiveManifest.class)
+public abstract class ArchiveManifest
+{
+    public abstract List<ArchiveManifestEntry> getEntries();
+
+    public static ArchiveManifest of(List<ArchiveManifestEntry> entries)
+    {
+        return ImmutableArchiveManifest.builder()
+            .entries(entries)
+            .build();
+    }
+
+    // hash of a file used as the key of content-addressed files
+    public static String hashFile(byte[] data)
+    {
+        try {
+            return encodeHex(MessageDigest.getInstance("SHA-256").digest(data));
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static boolean isValidHash(String hash)
+    {
+        return hash != null && hash.matches("[0-9a-f]{64}");
+    }
+}
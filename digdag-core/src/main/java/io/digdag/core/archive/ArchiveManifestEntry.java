@@ -0,0 +1,34 @@
+package io.digdag.core.archive;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Optional;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonSerialize(as = ImmutableArchiveManifestEntry.class)
+@JsonDeserialize(as = ImmutableArchiveManifestEntry.class)
+public abstract class ArchiveManifestEntry
+{
+    public abstract String getName();
+
+    public abstract int getMode();
+
+    // sha-256 of the file content in hex. absent if this is a symlink.
+    public abstract Optional<String> getHash();
+
+    public abstract Optional<String> getLinkName();
+
+    @Value.Check
+    protected void check()
+    {
+        if (getHash().isPresent() == getLinkName().isPresent()) {
+            throw new IllegalArgumentException("Archive entry must have either hash or linkName: " + getName());
+        }
+    }
+
+    public static ImmutableArchiveManifestEntry.Builder builder()
+    {
+        return ImmutableArchiveManifestEntry.builder();
+    }
+}
@@ -0,0 +1,398 @@
+package io.digdag.core.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import com.google.inject.Inject;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.weakref.jmx.Managed;
+import io.digdag.client.config.Config;
+import io.digdag.core.repository.ImmutableStoredRevision;
+import io.digdag.core.repository.ImmutableStoredWorkflowDefinitionWithProject;
+import io.digdag.core.repository.Project;
+import io.digdag.core.repository.ProjectMap;
+import io.digdag.core.repository.ProjectStore;
+import io.digdag.core.repository.ProjectStoreManager;
+import io.digdag.core.repository.ResourceConflictException;
+import io.digdag.core.repository.ResourceNotFoundException;
+import io.digdag.core.repository.StoredProject;
+import io.digdag.core.repository.StoredRevision;
+import io.digdag.core.repository.StoredWorkflowDefinition;
+import io.digdag.core.repository.StoredWorkflowDefinitionWithProject;
+import io.digdag.core.repository.TimeZoneMap;
+
+/**
+ * ProjectStoreManager that caches lookups of projects, revisions and
+ * workflow definitions by id.
+ *
+ * Revisions and workflow definitions are immutable once inserted. They are
+ * cached until evicted by size. A project changes only when it's deleted.
+ * Deleting a project through this manager invalidates the cached entry
+ * immediately. Entries are also expired after database.projectCacheExpire
+ * seconds so that deletion by another server becomes visible eventually.
+ */
+public class CachingProjectStoreManager
+        implements ProjectStoreManager
+{
+    private final ProjectStoreManager store;
+
+    // project of a cached workflow definition is replaced with the one in
+    // projectCache because name and deleted_at of a project can change.
+    private final Cache<Long, StoredWorkflowDefinitionWithProject> workflowCache;
+    private final Cache<Long, StoredRevision> revisionOfWorkflowCache;
+    private final Cache<Integer, StoredProject> projectCache;
+
+    @Inject
+    public CachingProjectStoreManager(DatabaseProjectStoreManager store, Config systemConfig)
+    {
+        this((ProjectStoreManager) store,
+                systemConfig.get("database.projectCacheSize", int.class, 10000),
+                systemConfig.get("database.projectCacheExpire", int.class, 60));
+    }
+
+    CachingProjectStoreManager(ProjectStoreManager store, int cacheSize, int projectExpireSeconds)
+    {
+        this.store = store;
+        this.workflowCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .recordStats()
+            .build();
+        this.revisionOfWorkflowCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .recordStats()
+            .build();
+        this.projectCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .expireAfterWrite(projectExpireSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    @Managed
+    public long getWorkflowCacheHitCount()
+    {
+        return workflowCache.stats().hitCount();
+    }
+
+    @Managed
+    public long getWorkflowCacheMissCount()
+    {
+        return workflowCache.stats().missCount();
+    }
+
+    @Managed
+    public long getWorkflowCacheSize()
+    {
+        return workflowCache.size();
+    }
+
+    @Managed
+    public long getRevisionCacheHitCount()
+    {
+        return revisionOfWorkflowCache.stats().hitCount();
+    }
+
+    @Managed
+    public long getRevisionCacheMissCount()
+    {
+        return revisionOfWorkflowCache.stats().missCount();
+    }
+
+    @Managed
+    public long getRevisionCacheSize()
+    {
+        return revisionOfWorkflowCache.size();
+    }
+
+    @Managed
+    public long getProjectCacheHitCount()
+    {
+        return projectCache.stats().hitCount();
+    }
+
+    @Managed
+    public long getProjectCacheMissCount()
+    {
+        return projectCache.stats().missCount();
+    }
+
+    @Managed
+    public long getProjectCacheEvictionCount()
+    {
+        return projectCache.stats().evictionCount();
+    }
+
+    @Managed
+    public long getProjectCacheSize()
+    {
+        return projectCache.size();
+    }
+
+    @Override
+    public ProjectStore getProjectStore(int siteId)
+    {
+        return new CachingProjectStore(siteId, store.getProjectStore(siteId));
+    }
+
+    @Override
+    public StoredWorkflowDefinitionWithProject getWorkflowDetailsById(long wfId)
+        throws ResourceNotFoundException
+    {
+        StoredWorkflowDefinitionWithProject def = getCached(workflowCache, wfId,
+                () -> {
+                    StoredWorkflowDefinitionWithProject loaded = store.getWorkflowDetailsById(wfId);
+                    projectCache.put(loaded.getProject().getId(), loaded.getProject());
+                    return loaded;
+                });
+        return withLatestProject(def);
+    }
+
+    @Override
+    public StoredProject getProjectByIdInternal(int projId)
+        throws ResourceNotFoundException
+    {
+        return getCached(projectCache, projId,
+                () -> store.getProjectByIdInternal(projId));
+    }
+
+    @Override
+    public StoredRevision getRevisionOfWorkflowDefinition(long wfId)
+        throws ResourceNotFoundException
+    {
+        return copyOf(getCached(revisionOfWorkflowCache, wfId,
+                () -> store.getRevisionOfWorkflowDefinition(wfId)));
+    }
+
+    private StoredWorkflowDefinitionWithProject withLatestProject(StoredWorkflowDefinitionWithProject def)
+        throws ResourceNotFoundException
+    {
+        return ImmutableStoredWorkflowDefinitionWithProject.builder()
+            .from(def)
+            .project(getProjectByIdInternal(def.getProject().getId()))
+            // Config is mutable. Don't share cached instances with callers
+            .config(def.getConfig().deepCopy())
+            .revisionDefaultParams(def.getRevisionDefaultParams().deepCopy())
+            .build();
+    }
+
+    private static StoredRevision copyOf(StoredRevision rev)
+    {
+        return ImmutableStoredRevision.builder()
+            .from(rev)
+            .defaultParams(rev.getDefaultParams().deepCopy())
+            .userInfo(rev.getUserInfo().deepCopy())
+            .build();
+    }
+
+    private static <K, V> V getCached(Cache<K, V> cache, K key, Callable<V> loader)
+        throws ResourceNotFoundException
+    {
+        try {
+            return cache.get(key, loader);
+        }
+        catch (ExecutionException | UncheckedExecutionException ex) {
+            // ResourceNotFoundException is not cached by Cache.get
+            Throwables.propagateIfInstanceOf(ex.getCause(), ResourceNotFoundException.class);
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    private class CachingProjectStore
+            implements ProjectStore
+    {
+        private final int siteId;
+        private final ProjectStore store;
+
+        CachingProjectStore(int siteId, ProjectStore store)
+        {
+            this.siteId = siteId;
+            this.store = store;
+        }
+
+        @Override
+        public List<StoredProject> getProjects(int pageSize, Optional<Integer> lastId)
+        {
+            return store.getProjects(pageSize, lastId);
+        }
+
+        @Override
+        public ProjectMap getProjectsByIdList(List<Integer> projIdList)
+        {
+            Map<Integer, StoredProject> map = new HashMap<>();
+            List<Integer> missingIds = new ArrayList<>();
+            for (int projId : projIdList) {
+                StoredProject proj = projectCache.getIfPresent(projId);
+                if (proj == null) {
+                    missingIds.add(projId);
+                }
+                else if (proj.getSiteId() == siteId) {
+                    map.put(projId, proj);
+                }
+            }
+
+            if (!missingIds.isEmpty()) {
+                ProjectMap loaded = store.getProjectsByIdList(missingIds);
+                for (int projId : missingIds) {
+                    try {
+                        StoredProject proj = loaded.get(projId);
+                        projectCache.put(projId, proj);
+                        map.put(projId, proj);
+                    }
+                    catch (ResourceNotFoundException ex) {
+                        // deleted from the database or belongs to another site
+                    }
+                }
+            }
+
+            return new ProjectMap(map);
+        }
+
+        @Override
+        public StoredProject getProjectById(int projId)
+            throws ResourceNotFoundException
+        {
+            StoredProject proj = getProjectByIdInternal(projId);
+            if (proj.getSiteId() != siteId) {
+                throw new ResourceNotFoundException("Resource does not exist: project id=" + projId);
+            }
+            return proj;
+        }
+
+        @Override
+        public StoredProject getProjectByName(String projName)
+            throws ResourceNotFoundException
+        {
+            return store.getProjectByName(projName);
+        }
+
+        @Override
+        public <T> T putAndLockProject(Project project, ProjectLockAction<T> func)
+            throws ResourceConflictException
+        {
+            return store.putAndLockProject(project, func);
+        }
+
+        @Override
+        public <T> T deleteProject(int projId, ProjectObsoleteAction<T> func)
+            throws ResourceNotFoundException
+        {
+            try {
+                return store.deleteProject(projId, func);
+            }
+            finally {
+                projectCache.invalidate(projId);
+            }
+        }
+
+        @Override
+        public StoredRevision getRevisionById(int revId)
+            throws ResourceNotFoundException
+        {
+            return store.getRevisionById(revId);
+        }
+
+        @Override
+        public StoredRevision getRevisionByName(int projId, String revName)
+            throws ResourceNotFoundException
+        {
+            return store.getRevisionByName(projId, revName);
+        }
+
+        @Override
+        public StoredRevision getLatestRevision(int projId)
+            throws ResourceNotFoundException
+        {
+            return store.getLatestRevision(projId);
+        }
+
+        @Override
+        public List<StoredRevision> getRevisions(int projId, int pageSize, Optional<Integer> lastId)
+        {
+            return store.getRevisions(projId, pageSize, lastId);
+        }
+
+        @Override
+        public byte[] getRevisionArchiveData(int revId)
+            throws ResourceNotFoundException
+        {
+            return store.getRevisionArchiveData(revId);
+        }
+
+        @Override
+        public List<String> getMissingArchiveFileHashes(List<String> hashes)
+        {
+            return store.getMissingArchiveFileHashes(hashes);
+        }
+
+        @Override
+        public void putArchiveFile(String hash, byte[] data)
+        {
+            store.putArchiveFile(hash, data);
+        }
+
+        @Override
+        public Map<String, byte[]> getArchiveFiles(Collection<String> hashes)
+        {
+            return store.getArchiveFiles(hashes);
+        }
+
+        @Override
+        public Map<String, Long> getArchiveFileSizes(Collection<String> hashes)
+        {
+            return store.getArchiveFileSizes(hashes);
+        }
+
+        @Override
+        public List<StoredWorkflowDefinition> getWorkflowDefinitions(int revId, int pageSize, Optional<Long> lastId)
+        {
+            return store.getWorkflowDefinitions(revId, pageSize, lastId);
+        }
+
+        @Override
+        public StoredWorkflowDefinition getWorkflowDefinitionByName(int revId, String name)
+            throws ResourceNotFoundException
+        {
+            return store.getWorkflowDefinitionByName(revId, name);
+        }
+
+        @Override
+        public StoredWorkflowDefinitionWithProject getWorkflowDefinitionById(long wfId)
+            throws ResourceNotFoundException
+        {
+            StoredWorkflowDefinitionWithProject def = getWorkflowDetailsById(wfId);
+            if (def.getProject().getSiteId() != siteId) {
+                throw new ResourceNotFoundException("Resource does not exist: workflow id=" + wfId);
+            }
+            return def;
+        }
+
+        @Override
+        public StoredWorkflowDefinitionWithProject getLatestWorkflowDefinitionByName(int projId, String name)
+            throws ResourceNotFoundException
+        {
+            return store.getLatestWorkflowDefinitionByName(projId, name);
+        }
+
+        @Override
+        public List<StoredWorkflowDefinitionWithProject> getLatestActiveWorkflowDefinitions(int pageSize, Optional<Long> lastId)
+            throws ResourceNotFoundException
+        {
+            return store.getLatestActiveWorkflowDefinitions(pageSize, lastId);
+        }
+
+        @Override
+        public TimeZoneMap getWorkflowTimeZonesByIdList(List<Long> defIdList)
+        {
+            return store.getWorkflowTimeZonesByIdList(defIdList);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.digdag.core.database;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Sends a notification using the executor when notifyLater() is called. Calls
+// made while a notification is waiting for the executor are coalesced into it.
+class CoalescingNotifier
+{
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingNotifier.class);
+
+    private final Executor executor;
+    private final Runnable sender;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    public CoalescingNotifier(Executor executor, Runnable sender)
+    {
+        this.executor = executor;
+        this.sender = sender;
+    }
+
+    public void notifyLater()
+    {
+        if (pending.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                // reset before sending so that a change made while sending
+                // is notified by the next notification
+                pending.set(false);
+                try {
+                    sender.run();
+                }
+                catch (RuntimeException ex) {
+                    logger.warn("Failed to send a notification", ex);
+                }
+            });
+        }
+    }
+}
@@ -30,6 +30,10 @@ public class DatabaseMigrator
         new Migration_20160926123456_AddDisabledAtColumnToSchedules(),
         new Migration_20160928203753_AddWorkflowOrderIndex(),
         new Migration_20161005225356_AddResetParamsToTaskState(),
+        new Migration_20161121103021_AddTasksUpdatedAtIndex(),
+        new Migration_20161207170158_AddLockSharedTasksOfAllSites(),
+        new Migration_20161213152041_AddProjectArchiveFiles(),
+        new Migration_20161219103512_AddTaskArchiveData(),
     })
     .sorted(Comparator.comparing(m -> m.getVersion()))
     .collect(Collectors.toList());
@@ -12,6 +12,7 @@ import io.digdag.core.repository.ProjectStoreManager;
 import io.digdag.core.schedule.ScheduleStoreManager;
 import io.digdag.core.session.SessionStoreManager;
 import org.skife.jdbi.v2.DBI;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class DatabaseModule
         implements Module
@@ -25,12 +26,16 @@ public class DatabaseModule
         binder.bind(DBI.class).toProvider(DbiProvider.class);  // don't make this singleton because DBI.registerMapper is called for each StoreManager
         binder.bind(ConfigMapper.class).in(Scopes.SINGLETON);
         binder.bind(DatabaseMigrator.class).in(Scopes.SINGLETON);
-        binder.bind(ProjectStoreManager.class).to(DatabaseProjectStoreManager.class).in(Scopes.SINGLETON);
+        binder.bind(DatabaseProjectStoreManager.class).in(Scopes.SINGLETON);
+        binder.bind(CachingProjectStoreManager.class).in(Scopes.SINGLETON);
+        binder.bind(ProjectStoreManager.class).to(CachingProjectStoreManager.class).in(Scopes.SINGLETON);
         binder.bind(QueueSettingStoreManager.class).to(DatabaseQueueSettingStoreManager.class).in(Scopes.SINGLETON);
         binder.bind(SessionStoreManager.class).to(DatabaseSessionStoreManager.class).in(Scopes.SINGLETON);
         binder.bind(ScheduleStoreManager.class).to(DatabaseScheduleStoreManager.class).in(Scopes.SINGLETON);
         binder.bind(DatabaseTaskQueueConfig.class).in(Scopes.SINGLETON);
         binder.bind(DatabaseTaskQueueServer.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(DatabaseTaskQueueServer.class).withGeneratedName();
+        newExporter(binder).export(CachingProjectStoreManager.class).withGeneratedName();
     }
 
     public static class AutoMigrator
@@ -1,7 +1,11 @@
 package io.digdag.core.database;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import io.digdag.client.api.IdName;
 import io.digdag.client.config.Config;
@@ -30,6 +34,7 @@ import io.digdag.spi.ScheduleTime;
 import org.immutables.value.Value;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.SQLStatement;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
@@ -37,6 +42,7 @@ import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
 
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -44,10 +50,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.util.Locale.ENGLISH;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -272,6 +282,81 @@ public class DatabaseProjectStoreManager
                     "revisin id=%d", revId);
         }
 
+        @Override
+        public List<String> getMissingArchiveFileHashes(List<String> hashes)
+        {
+            Set<String> found = new HashSet<>();
+            for (List<String> chunk : Lists.partition(ImmutableList.copyOf(ImmutableSet.copyOf(hashes)), 1000)) {
+                found.addAll(autoCommit((handle, dao) ->
+                        bindHashes(handle.createQuery(
+                                "select hash from project_archive_files" +
+                                " where site_id = :siteId" +
+                                " and hash in (" + hashBindNames(chunk) + ")"), chunk)
+                        .bind("siteId", siteId)
+                        .mapTo(String.class)
+                        .list()));
+            }
+            return hashes.stream()
+                .filter(hash -> !found.contains(hash))
+                .distinct()
+                .collect(Collectors.toList());
+        }
+
+        @Override
+        public void putArchiveFile(String hash, byte[] data)
+        {
+            try {
+                autoCommit((handle, dao) ->
+                        catchConflict(() ->
+                            dao.insertArchiveFile(siteId, hash, data),
+                            "project archive file hash=%s", hash),
+                        ResourceConflictException.class);
+            }
+            catch (ResourceConflictException ex) {
+                // the same file is already stored
+            }
+        }
+
+        @Override
+        public Map<String, byte[]> getArchiveFiles(Collection<String> hashes)
+        {
+            Map<String, byte[]> files = new HashMap<>();
+            for (List<String> chunk : Lists.partition(ImmutableList.copyOf(ImmutableSet.copyOf(hashes)), 1000)) {
+                List<ArchiveFile> list = autoCommit((handle, dao) ->
+                        bindHashes(handle.createQuery(
+                                "select hash, data from project_archive_files" +
+                                " where site_id = :siteId" +
+                                " and hash in (" + hashBindNames(chunk) + ")"), chunk)
+                        .bind("siteId", siteId)
+                        .map((index, r, ctx) -> new ArchiveFile(r.getString("hash"), r.getBytes("data")))
+                        .list());
+                for (ArchiveFile file : list) {
+                    files.put(file.hash, file.data);
+                }
+            }
+            return files;
+        }
+
+        @Override
+        public Map<String, Long> getArchiveFileSizes(Collection<String> hashes)
+        {
+            Map<String, Long> sizes = new HashMap<>();
+            for (List<String> chunk : Lists.partition(ImmutableList.copyOf(ImmutableSet.copyOf(hashes)), 1000)) {
+                List<Map.Entry<String, Long>> list = autoCommit((handle, dao) ->
+                        bindHashes(handle.createQuery(
+                                "select hash, length(data) as size from project_archive_files" +
+                                " where site_id = :siteId" +
+                                " and hash in (" + hashBindNames(chunk) + ")"), chunk)
+                        .bind("siteId", siteId)
+                        .map((index, r, ctx) -> Maps.immutableEntry(r.getString("hash"), r.getLong("size")))
+                        .list());
+                for (Map.Entry<String, Long> pair : list) {
+                    sizes.put(pair.getKey(), pair.getValue());
+                }
+            }
+            return sizes;
+        }
+
         @Override
         public StoredWorkflowDefinitionWithProject getLatestWorkflowDefinitionByName(int projId, String name)
             throws ResourceNotFoundException
@@ -371,6 +456,33 @@ public class DatabaseProjectStoreManager
         }
     }
 
+    private static class ArchiveFile
+    {
+        private final String hash;
+        private final byte[] data;
+
+        ArchiveFile(String hash, byte[] data)
+        {
+            this.hash = hash;
+            this.data = data;
+        }
+    }
+
+    private static String hashBindNames(List<String> hashes)
+    {
+        return IntStream.range(0, hashes.size())
+            .mapToObj(i -> ":hash" + i)
+            .collect(Collectors.joining(", "));
+    }
+
+    private static <Q extends SQLStatement<Q>> Q bindHashes(Q statement, List<String> hashes)
+    {
+        for (int i = 0; i < hashes.size(); i++) {
+            statement.bind("hash" + i, hashes.get(i));
+        }
+        return statement;
+    }
+
     private class DatabaseProjectControlStore
             implements ProjectControlStore
     {
@@ -420,6 +532,23 @@ public class DatabaseProjectStoreManager
                 "revision archive=%d", revId);
         }
 
+        @Override
+        public void insertRevisionArchiveData(int revId, InputStream data, int length)
+            throws ResourceConflictException
+        {
+            // TODO catch conflict and overwrite it
+            catchConflict(() -> {
+                    handle.createStatement("insert into revision_archives" +
+                            " (id, archive_data)" +
+                            " values (:revId, :data)")
+                        .bind("revId", revId)
+                        .bindBinaryStream("data", data, length)
+                        .execute();
+                    return true;
+                },
+                "revision archive=%d", revId);
+        }
+
         /**
          * Create a revision.
          *
@@ -763,6 +892,11 @@ public class DatabaseProjectStoreManager
                 " values (:revId, :data)")
         void insertRevisionArchiveData(@Bind("revId") int revId, @Bind("data") byte[] data);
 
+        @SqlUpdate("insert into project_archive_files" +
+                " (site_id, hash, data, created_at)" +
+                " values (:siteId, :hash, :data, now())")
+        int insertArchiveFile(@Bind("siteId") int siteId, @Bind("hash") String hash, @Bind("data") byte[] data);
+
         @SqlUpdate("insert into workflow_definitions" +
                 " (revision_id, name, config_id)" +
                 " values (:revId, :name, :configId)")
@@ -23,7 +23,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class DatabaseScheduleStoreManager
         extends BasicDatabaseStoreManager<DatabaseScheduleStoreManager.Dao>
@@ -45,33 +44,41 @@ public class DatabaseScheduleStoreManager
     }
 
     @Override
-    public void lockReadySchedules(Instant currentTime, ScheduleAction func)
+    public List<Integer> getReadyScheduleIds(Instant currentTime, int limit)
     {
-        List<RuntimeException> exceptions = transaction((handle, dao) -> {
-            return dao.lockReadySchedules(currentTime.getEpochSecond(), 10)  // TODO 10 should be configurable?
-                .stream()
-                .map(schedId -> {
-                    // TODO JOIN + FOR UPDATE doesn't work with H2 database
-                    StoredSchedule sched = dao.getScheduleByIdInternal(schedId);
-                    try {
-                        func.schedule(new DatabaseScheduleControlStore(handle), sched);
-                        return null;
-                    }
-                    catch (RuntimeException ex) {
-                        return ex;
-                    }
-                })
-                .filter(exception -> exception != null)
-                .collect(Collectors.toList());
-        });
+        return autoCommit((handle, dao) -> dao.getReadyScheduleIds(currentTime.getEpochSecond(), limit));
+    }
 
-        if (!exceptions.isEmpty()) {
-            RuntimeException first = exceptions.get(0);
-            for (RuntimeException ex : exceptions.subList(1, exceptions.size())) {
-                first.addSuppressed(ex);
+    @Override
+    public boolean lockReadyScheduleById(int schedId, Instant currentTime, ScheduleAction func)
+    {
+        return transaction((handle, dao) -> {
+            // SKIP LOCKED lets other threads and servers skip this schedule
+            // instead of waiting for this transaction. next_run_time is checked
+            // again because the schedule may be already processed after it's listed.
+            Integer lockedId = handle.createQuery(
+                    "select id from schedules" +
+                    " where id = :id" +
+                    " and next_run_time <= :currentTime" +
+                    " and disabled_at is null" +
+                    (isPostgres() ? " for update skip locked" : " for update"))  // H2 doesn't support SKIP LOCKED
+                .bind("id", schedId)
+                .bind("currentTime", currentTime.getEpochSecond())
+                .mapTo(Integer.class)
+                .first();
+            if (lockedId == null) {
+                return false;
             }
-            throw first;
-        }
+
+            StoredSchedule sched = dao.getScheduleByIdInternal(schedId);
+            func.schedule(new DatabaseScheduleControlStore(handle), sched);
+            return true;
+        });
+    }
+
+    private boolean isPostgres()
+    {
+        return DatabaseConfig.isPostgres(databaseType);
     }
 
     private interface ScheduleCombinedLockAction <T, E extends Exception>
@@ -273,9 +280,9 @@ public class DatabaseScheduleStoreManager
         @SqlQuery("select id from schedules" +
                 " where next_run_time <= :currentTime" +
                 " and disabled_at is null" +
-                " limit :limit" +
-                " for update")
-        List<Integer> lockReadySchedules(@Bind("currentTime") long currentTime, @Bind("limit") int limit);
+                " order by next_run_time asc, id asc" +
+                " limit :limit")
+        List<Integer> getReadyScheduleIds(@Bind("currentTime") long currentTime, @Bind("limit") int limit);
 
         @SqlQuery("select * from schedules" +
                 " where id = :id" +
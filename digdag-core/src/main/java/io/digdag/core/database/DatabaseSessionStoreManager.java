@@ -2,6 +2,7 @@ package io.digdag.core.database;
 
 import java.util.AbstractMap;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
@@ -54,6 +55,7 @@ import io.digdag.spi.TaskReport;
 import io.digdag.spi.TaskResult;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.ResultIterator;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
@@ -66,9 +68,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -115,6 +121,10 @@ public class DatabaseSessionStoreManager
 {
     private static final String DEFAULT_ATTEMPT_NAME = "";
 
+    private static final int TASK_ARCHIVE_FETCH_SIZE = 1000;
+
+    private static final int TASK_PAGE_SIZE = 1000;
+
     private final ObjectMapper mapper;
     private final ConfigFactory cf;
     private final ConfigKeyListMapper cklm = new ConfigKeyListMapper();
@@ -122,6 +132,8 @@ public class DatabaseSessionStoreManager
     private final StoredTaskMapper stm;
     private final ArchivedTaskMapper atm;
     private final TaskAttemptSummaryMapper tasm;
+    private final TaskArchiveFormat taskArchiveFormat;
+    private volatile int taskPageSize = TASK_PAGE_SIZE;
 
     @Inject
     public DatabaseSessionStoreManager(DBI dbi, ConfigFactory cf, ConfigMapper cfm, ObjectMapper mapper, DatabaseConfig config)
@@ -149,6 +161,13 @@ public class DatabaseSessionStoreManager
         this.stm = new StoredTaskMapper(cfm);
         this.atm = new ArchivedTaskMapper(cklm, cfm);
         this.tasm = new TaskAttemptSummaryMapper();
+        this.taskArchiveFormat = new TaskArchiveFormat(mapper);
+    }
+
+    @VisibleForTesting
+    void setTaskPageSize(int taskPageSize)
+    {
+        this.taskPageSize = taskPageSize;
     }
 
     private static Class<? extends Dao> dao(String type)
@@ -219,6 +238,16 @@ public class DatabaseSessionStoreManager
             " join task_details td on t.id = td.id";
     }
 
+    private String selectArchivedTaskDetailsQuery()
+    {
+        return "select t.*, td.full_name, td.local_config, td.export_config, td.resuming_task_id, ts.subtask_config, ts.export_params, ts.store_params, ts.error, ts.report, ts.reset_store_params, " +
+                "(select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
+            " from tasks t" +
+            " join session_attempts sa on sa.id = t.attempt_id" +
+            " join task_details td on t.id = td.id" +
+            " join task_state_details ts on t.id = ts.id";
+    }
+
     @Override
     public SessionStore getSessionStore(int siteId)
     {
@@ -281,12 +310,6 @@ public class DatabaseSessionStoreManager
             );
     }
 
-    @Override
-    public List<Long> findAllReadyTaskIds(int maxEntries)
-    {
-        return autoCommit((handle, dao) -> dao.findAllTaskIdsByState(TaskStateCode.READY.get(), maxEntries));
-    }
-
     @Override
     public <T> Optional<T> lockAttemptIfExists(long attemptId, AttemptLockAction<T> func)
     {
@@ -358,8 +381,10 @@ public class DatabaseSessionStoreManager
     public boolean requestCancelAttempt(long attemptId)
     {
         return transaction((handle, dao) -> {
+            // updated_at is updated so that incremental status propagation of
+            // WorkflowExecutor finds the canceled tasks
             int n = handle.createStatement("update tasks" +
-                    " set state_flags = " + bitOr("state_flags", Integer.toString(TaskStateFlags.CANCEL_REQUESTED)) +
+                    " set updated_at = now(), state_flags = " + bitOr("state_flags", Integer.toString(TaskStateFlags.CANCEL_REQUESTED)) +
                     " where attempt_id = :attemptId" +
                     " and state in (" +
                         Stream.of(TaskStateCode.notDoneStates())
@@ -417,6 +442,54 @@ public class DatabaseSessionStoreManager
         });
     }
 
+    @Override
+    public <T> T lockTasksIfExist(List<Long> taskIds, TaskListLockAction<T> func)
+    {
+        return transaction((handle, dao) -> {
+            List<Long> locked = lockTasks(handle, taskIds);
+            return func.call(new DatabaseTaskControlStore(handle), locked);
+        });
+    }
+
+    @Override
+    public <T> T lockTasksWithDetailsIfExist(List<Long> taskIds, TaskListLockActionWithDetails<T> func)
+    {
+        return transaction((handle, dao) -> {
+            // JOIN + FOR UPDATE doesn't work with H2 database. Lock first and then
+            // get details of all locked tasks using one query.
+            List<Long> locked = lockTasks(handle, taskIds);
+            List<StoredTask> tasks;
+            if (locked.isEmpty()) {
+                tasks = ImmutableList.of();
+            }
+            else {
+                tasks = handle.createQuery(
+                        selectTaskDetailsQuery() + " where t.id " + inLargeIdListExpression(locked) +
+                        " order by t.id"
+                    )
+                    .map(stm)
+                    .list();
+            }
+            return func.call(new DatabaseTaskControlStore(handle), tasks);
+        });
+    }
+
+    private List<Long> lockTasks(Handle handle, List<Long> taskIds)
+    {
+        if (taskIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        // lock rows in order of id so that concurrent batch locking doesn't deadlock
+        return handle.createQuery(
+                "select id from tasks" +
+                " where id " + inLargeIdListExpression(taskIds) +
+                " order by id" +
+                " for update"
+            )
+            .mapTo(Long.class)
+            .list();
+    }
+
     @Override
     public void lockReadySessionMonitors(Instant currentTime, SessionMonitorAction func)
     {
@@ -453,20 +526,36 @@ public class DatabaseSessionStoreManager
 
     @Override
     public List<TaskRelation> getTaskRelations(long attemptId)
+    {
+        return getTaskRelations(attemptId, 0L);
+    }
+
+    @Override
+    public List<TaskRelation> getTaskRelations(long attemptId, long lastId)
     {
         return autoCommit((handle, dao) ->
                 handle.createQuery(
                     "select id, parent_id," +
                     " (select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
                     " from tasks t" +
-                    " where attempt_id = :attemptId"
+                    " where attempt_id = :attemptId" +
+                    " and id > :lastId" +
+                    " order by id asc"
                     )
                 .bind("attemptId", attemptId)
+                .bind("lastId", lastId)
                 .map(new TaskRelationMapper())
                 .list()
             );
     }
 
+    @Override
+    public long getTaskCountOfAttempt(long attemptId)
+    {
+        return autoCommit((handle, dao) ->
+                new DatabaseTaskControlStore(handle).getTaskCountOfAttempt(attemptId));
+    }
+
     @Override
     public List<Config> getExportParams(List<Long> idList)
     {
@@ -556,16 +645,22 @@ public class DatabaseSessionStoreManager
         return builder.build();
     }
 
-    private String dumpTaskArchive(List<ArchivedTask> tasks)
+    private List<ArchivedTask> loadTaskArchiveData(byte[] data, Optional<Collection<Long>> taskIds)
     {
         try {
-            return mapper.writeValueAsString(tasks);
+            if (taskIds.isPresent()) {
+                return taskArchiveFormat.read(data, taskIds.get());
+            }
+            else {
+                return taskArchiveFormat.readAll(data);
+            }
         }
         catch (IOException ex) {
-            throw new RuntimeException(ex);
+            throw new RuntimeException("Failed to load task archive", ex);
         }
     }
 
+    // task archives stored by old versions are JSON text
     @SuppressWarnings("unchecked")
     private List<ArchivedTask> loadTaskArchive(String data)
     {
@@ -605,30 +700,31 @@ public class DatabaseSessionStoreManager
         @Override
         public int aggregateAndInsertTaskArchive(long attemptId)
         {
-            int count;
-            String archive;
-
-            {
-                List<ArchivedTask> tasks = handle.createQuery(
-                        "select t.*, td.full_name, td.local_config, td.export_config, td.resuming_task_id, ts.subtask_config, ts.export_params, ts.store_params, ts.error, ts.report, ts.reset_store_params, " +
-                            "(select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
-                        " from tasks t" +
-                        " join session_attempts sa on sa.id = t.attempt_id" +
-                        " join task_details td on t.id = td.id" +
-                        " join task_state_details ts on t.id = ts.id" +
+            // tasks are serialized one by one so that all tasks of a large
+            // attempt don't have to be in memory at once.
+            TaskArchiveFormat.Writer writer = taskArchiveFormat.newWriter();
+            byte[] archive;
+            try (ResultIterator<ArchivedTask> tasks = handle.createQuery(
+                        selectArchivedTaskDetailsQuery() +
                         " where t.attempt_id = :attemptId" +
                         " order by t.id"
                     )
                     .bind("attemptId", attemptId)
+                    .setFetchSize(TASK_ARCHIVE_FETCH_SIZE)
                     .map(atm)
-                    .list();
-                archive = dumpTaskArchive(tasks);
-                count = tasks.size();
+                    .iterator()) {
+                while (tasks.hasNext()) {
+                    writer.add(tasks.next());
+                }
+                archive = writer.finish();
+            }
+            catch (IOException ex) {
+                throw new RuntimeException("Failed to build task archive", ex);
             }
 
-            dao.insertTaskArchive(attemptId, archive);
+            dao.insertTaskArchiveData(attemptId, archive);
 
-            return count;
+            return writer.getTaskCount();
         }
 
         @Override
@@ -800,7 +896,37 @@ public class DatabaseSessionStoreManager
             return handle.createQuery(
                     "select id from tasks" +
                     " where parent_id = :parentId" +
-                    " and (" +
+                    " and " + progressibleTaskCondition() +
+                    " limit 1"
+                )
+                .bind("parentId", taskId)
+                .mapTo(Long.class)
+                .first() != null;
+        }
+
+        @Override
+        public List<Long> findTasksWithoutProgressibleChild(List<Long> taskIds)
+        {
+            if (taskIds.isEmpty()) {
+                return ImmutableList.of();
+            }
+            return handle.createQuery(
+                    "select pt.id from tasks pt" +
+                    " where pt.id " + inLargeIdListExpression(taskIds) +
+                    " and not exists (" +
+                      "select * from tasks" +
+                      " where parent_id = pt.id" +
+                      " and " + progressibleTaskCondition() +
+                    ")" +
+                    " order by pt.id"
+                )
+                .mapTo(Long.class)
+                .list();
+        }
+
+        private String progressibleTaskCondition()
+        {
+            return "(" +
                       // a child task is progressing now
                     "state in (" + Stream.of(
                             TaskStateCode.progressingStates()
@@ -819,11 +945,7 @@ public class DatabaseSessionStoreManager
                                   ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
                         ")" +
                       ")" +
-                    ") limit 1"
-                )
-                .bind("parentId", taskId)
-                .mapTo(Long.class)
-                .first() != null;
+                    ")";
         }
 
         @Override
@@ -956,14 +1078,33 @@ public class DatabaseSessionStoreManager
 
         public int trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(long taskId)
         {
-            return handle.createStatement("update tasks" +
+            return handle.createStatement(
+                    trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceledSql("= :parentId"))
+                .bind("parentId", taskId)
+                .execute();
+        }
+
+        @Override
+        public int trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(List<Long> taskIds)
+        {
+            if (taskIds.isEmpty()) {
+                return 0;
+            }
+            return handle.createStatement(
+                    trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceledSql(inLargeIdListExpression(taskIds)))
+                .execute();
+        }
+
+        private String trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceledSql(String parentIdExpression)
+        {
+            return "update tasks" +
                     " set updated_at = now(), state = case" +
                     " when task_type = " + TaskType.GROUPING_ONLY + " then " + TaskStateCode.PLANNED_CODE +
                     " when " + bitAnd("state_flags", Integer.toString(TaskStateFlags.CANCEL_REQUESTED)) + " != 0 then " + TaskStateCode.CANCELED_CODE +
                     " else " + TaskStateCode.READY_CODE +
                     " end" +
                     " where state = " + TaskStateCode.BLOCKED_CODE +
-                    " and parent_id = :parentId" +
+                    " and parent_id " + parentIdExpression +
                     " and exists (" +
                       "select * from tasks pt" +
                       " where pt.id = tasks.parent_id" +
@@ -978,9 +1119,7 @@ public class DatabaseSessionStoreManager
                         " and up.state not in (" + Stream.of(
                             TaskStateCode.canRunDownstreamStates()
                             ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
-                    ")")
-                .bind("parentId", taskId)
-                .execute();
+                    ")";
         }
     }
 
@@ -1183,15 +1322,78 @@ public class DatabaseSessionStoreManager
 
         @Override
         public List<ArchivedTask> getTasksOfAttempt(long attemptId)
+        {
+            return getTasksOfAttempt(attemptId, Optional.absent());
+        }
+
+        @Override
+        public List<ArchivedTask> getTasksOfAttempt(long attemptId, Collection<Long> taskIds)
+        {
+            return getTasksOfAttempt(attemptId, Optional.of(taskIds));
+        }
+
+        @Override
+        public void forEachTaskOfAttempt(long attemptId, Consumer<ArchivedTask> action)
+        {
+            // Tasks are fetched page by page so that a database connection
+            // is not held while action runs (e.g. writing tasks to a slow
+            // HTTP client). If the attempt is archived in the middle of
+            // pages, remaining tasks are read from the archive.
+            Optional<Long> lastId = Optional.absent();
+            while (true) {
+                Optional<Long> pageLastId = lastId;
+                List<ArchivedTask> page = autoCommit((handle, dao) ->
+                        handle.createQuery(
+                            selectArchivedTaskDetailsQuery() +
+                            " where sa.site_id = :siteId" +
+                            " and t.attempt_id = :attemptId" +
+                            " and t.id > :lastId" +
+                            " order by t.id" +
+                            " limit :limit"
+                            )
+                        .bind("siteId", siteId)
+                        .bind("attemptId", attemptId)
+                        .bind("lastId", pageLastId.or(0L))
+                        .bind("limit", taskPageSize)
+                        .map(atm)
+                        .list()
+                    );
+                if (page.isEmpty()) {
+                    break;
+                }
+                page.forEach(action);
+                lastId = Optional.of(page.get(page.size() - 1).getId());
+            }
+
+            // tasks are deleted in the same transaction that inserts the archive.
+            // archived tasks are sorted by id.
+            long archiveLastId = lastId.or(0L);
+            Consumer<ArchivedTask> remaining = (task) -> {
+                if (task.getId() > archiveLastId) {
+                    action.accept(task);
+                }
+            };
+            byte[] data = autoCommit((handle, dao) -> dao.getTaskArchiveDataById(siteId, attemptId));
+            if (data != null) {
+                try {
+                    taskArchiveFormat.read(data, null, remaining);
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException("Failed to load task archive", ex);
+                }
+                return;
+            }
+            String archive = autoCommit((handle, dao) -> dao.getTaskArchiveById(siteId, attemptId));
+            if (archive != null) {
+                loadTaskArchive(archive).forEach(remaining);
+            }
+        }
+
+        private List<ArchivedTask> getTasksOfAttempt(long attemptId, Optional<Collection<Long>> taskIds)
         {
             List<ArchivedTask> tasks = autoCommit((handle, dao) ->
                     handle.createQuery(
-                        "select t.*, td.full_name, td.local_config, td.export_config, td.resuming_task_id, ts.subtask_config, ts.export_params, ts.store_params, ts.error, ts.report, ts.reset_store_params, " +
-                            "(select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
-                        " from tasks t" +
-                        " join session_attempts sa on sa.id = t.attempt_id" +
-                        " join task_details td on t.id = td.id" +
-                        " join task_state_details ts on t.id = ts.id" +
+                        selectArchivedTaskDetailsQuery() +
                         " where sa.site_id = :siteId" +
                         " and t.attempt_id = :attemptId" +
                         " order by t.id"
@@ -1202,11 +1404,21 @@ public class DatabaseSessionStoreManager
                     .list()
                 );
             if (tasks.isEmpty()) {
+                byte[] data = autoCommit((handle, dao) -> dao.getTaskArchiveDataById(siteId, attemptId));
+                if (data != null) {
+                    return loadTaskArchiveData(data, taskIds);
+                }
                 String archive = autoCommit((handle, dao) -> dao.getTaskArchiveById(siteId, attemptId));
                 if (archive != null) {
-                    return loadTaskArchive(archive);
+                    tasks = loadTaskArchive(archive);
                 }
             }
+            if (taskIds.isPresent()) {
+                Set<Long> idSet = new HashSet<>(taskIds.get());
+                return tasks.stream()
+                    .filter(task -> idSet.contains(task.getId()))
+                    .collect(Collectors.toList());
+            }
             return tasks;
         }
     }
@@ -1509,9 +1721,6 @@ public class DatabaseSessionStoreManager
         @GetGeneratedKeys
         long insertSessionMonitor(@Bind("attemptId") long attemptId, @Bind("nextRunTime") long nextRunTime, @Bind("type") String type, @Bind("config") Config config);
 
-        @SqlQuery("select id from tasks where state = :state limit :limit")
-        List<Long> findAllTaskIdsByState(@Bind("state") short state, @Bind("limit") int limit);
-
         @SqlQuery("select id, session_id, state_flags from session_attempts where id = :attemptId for update")
         SessionAttemptSummary lockAttempt(@Bind("attemptId") long attemptId);
 
@@ -1643,10 +1852,17 @@ public class DatabaseSessionStoreManager
                 " and sa.site_id = :siteId")
         String getTaskArchiveById(@Bind("siteId") int siteId, @Bind("attemptId") long attemptId);
 
+        @SqlQuery("select tasks_data" +
+                " from task_archives ta" +
+                " join session_attempts sa on sa.id = ta.id" +
+                " where sa.id = :attemptId" +
+                " and sa.site_id = :siteId")
+        byte[] getTaskArchiveDataById(@Bind("siteId") int siteId, @Bind("attemptId") long attemptId);
+
         @SqlUpdate("insert into task_archives" +
-                " (id, tasks, created_at)" +
-                " values (:attemptId, :tasks, now())")
-        void insertTaskArchive(@Bind("attemptId") long attemptId, @Bind("tasks") String tasks);
+                " (id, tasks_data, created_at)" +
+                " values (:attemptId, :data, now())")
+        void insertTaskArchiveData(@Bind("attemptId") long attemptId, @Bind("data") byte[] data);
 
         @SqlUpdate("delete from session_monitors" +
                 " where id = :id")
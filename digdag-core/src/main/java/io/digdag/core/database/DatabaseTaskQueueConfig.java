@@ -1,20 +1,50 @@
 package io.digdag.core.database;
 
+import java.util.Map;
 import io.digdag.client.config.Config;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 
 public class DatabaseTaskQueueConfig
 {
     private final int defaultMaxConcurrency;
+    private final int notificationPollInterval;
+    private final boolean multiSiteLocking;
 
     @Inject
     public DatabaseTaskQueueConfig(Config systemConfig)
     {
         this.defaultMaxConcurrency = systemConfig.get("queue.db.max_concurrency", int.class, Integer.MAX_VALUE);
+        // milliseconds. 0 disables LISTEN/NOTIFY. Agents wake up at latest
+        // after this interval when a task is enqueued by another server.
+        this.notificationPollInterval = systemConfig.get("queue.db.notification_poll_interval", int.class, 500);
+        // lock tasks of all sites using one query instead of iterating sites
+        this.multiSiteLocking = systemConfig.get("queue.db.multi_site_locking", boolean.class, false);
     }
 
-    public int getSiteMaxConcurrency(int siteId)
+    public int getDefaultSiteMaxConcurrency()
     {
         return defaultMaxConcurrency;
     }
+
+    // max concurrency of sites that don't use the default
+    public Map<Integer, Integer> getSiteMaxConcurrencies()
+    {
+        return ImmutableMap.of();
+    }
+
+    public int getSiteMaxConcurrency(int siteId)
+    {
+        return getSiteMaxConcurrencies().getOrDefault(siteId, defaultMaxConcurrency);
+    }
+
+    public boolean isMultiSiteLocking()
+    {
+        return multiSiteLocking;
+    }
+
+    public int getNotificationPollInterval()
+    {
+        return notificationPollInterval;
+    }
 }
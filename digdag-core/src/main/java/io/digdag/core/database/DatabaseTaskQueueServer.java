@@ -1,13 +1,32 @@
 package io.digdag.core.database;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntToLongFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -31,6 +50,8 @@ import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.customizers.Mapper;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
 import io.digdag.client.config.Config;
 import io.digdag.spi.ImmutableTaskQueueLock;
 import io.digdag.spi.TaskQueueRequest;
@@ -42,17 +63,31 @@ import io.digdag.core.repository.ResourceConflictException;
 import io.digdag.core.repository.ResourceNotFoundException;
 import com.google.common.annotations.VisibleForTesting;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.weakref.jmx.Managed;
 
 public class DatabaseTaskQueueServer
         extends BasicDatabaseStoreManager<DatabaseTaskQueueServer.Dao>
         implements TaskQueueServer
 {
+    // channel of PostgreSQL's LISTEN/NOTIFY used to wake up agents on
+    // other servers when a task is enqueued
+    private static final String ENQUEUE_NOTIFICATION_CHANNEL = "digdag_task_queue";
+
+    private final DatabaseConfig databaseConfig;
     private final DatabaseTaskQueueConfig queueConfig;
     private final ObjectMapper taskObjectMapper;
 
     private final int expireLockInterval;
     private final LocalLockMap localLockMap = new LocalLockMap();
+    private final Object multiSiteLockHelper = new Object();
+    private final ConcurrentMap<Integer, SiteLockStats> siteLockStats = new ConcurrentHashMap<>();
     private final ScheduledExecutorService expireExecutor;
+    private final Optional<ExecutorService> notificationListenerExecutor;
+    private final Optional<ExecutorService> notificationSenderExecutor;
+    private final Optional<CoalescingNotifier> enqueueNotifier;
+
+    // max number of lock ids updated by a statement
+    private static final int HEARTBEAT_BATCH_SIZE = 1000;
 
     @Inject(optional = true)
     private ErrorReporter errorReporter = ErrorReporter.empty();
@@ -64,6 +99,7 @@ public class DatabaseTaskQueueServer
 
         dbi.registerMapper(new ImmutableTaskQueueLockMapper());
 
+        this.databaseConfig = config;
         this.queueConfig = queueConfig;
         this.taskObjectMapper = taskObjectMapper;
         this.expireLockInterval = config.getExpireLockInterval();
@@ -73,6 +109,27 @@ public class DatabaseTaskQueueServer
                 .setNameFormat("lock-expire-%d")
                 .build()
                 );
+        if (isNotificationAvailable()) {
+            this.notificationListenerExecutor = Optional.of(Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("task-queue-notification-listener-%d")
+                    .build()
+                    ));
+            ExecutorService senderExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("task-queue-notification-sender-%d")
+                    .build()
+                    );
+            this.notificationSenderExecutor = Optional.of(senderExecutor);
+            this.enqueueNotifier = Optional.of(new CoalescingNotifier(senderExecutor, () -> sendEnqueueNotification()));
+        }
+        else {
+            this.notificationListenerExecutor = Optional.absent();
+            this.notificationSenderExecutor = Optional.absent();
+            this.enqueueNotifier = Optional.absent();
+        }
     }
 
     private final Object localTaskNoticeHelper = new Object();
@@ -104,15 +161,82 @@ public class DatabaseTaskQueueServer
     {
         expireExecutor.scheduleWithFixedDelay(() -> expireLocks(),
                 expireLockInterval, expireLockInterval, TimeUnit.SECONDS);
+        if (notificationListenerExecutor.isPresent()) {
+            notificationListenerExecutor.get().submit(() -> listenEnqueueNotifications());
+        }
     }
 
     @PreDestroy
     public void shutdown()
     {
         expireExecutor.shutdown();
+        if (notificationListenerExecutor.isPresent()) {
+            notificationListenerExecutor.get().shutdownNow();
+        }
+        if (notificationSenderExecutor.isPresent()) {
+            notificationSenderExecutor.get().shutdown();
+        }
         // TODO wait for shutdown completion?
     }
 
+    private boolean isNotificationAvailable()
+    {
+        // H2 doesn't have LISTEN/NOTIFY. Agents on other servers
+        // find enqueued tasks by polling.
+        return databaseType.equals("postgresql") && queueConfig.getNotificationPollInterval() > 0;
+    }
+
+    private Connection openNotificationConnection()
+        throws SQLException
+    {
+        // LISTEN is bound to a session. This connection is not taken from
+        // the connection pool so that the listener doesn't occupy one of
+        // the pooled connections forever.
+        return DriverManager.getConnection(
+                DatabaseConfig.buildJdbcUrl(databaseConfig),
+                DatabaseConfig.buildJdbcProperties(databaseConfig));
+    }
+
+    private void listenEnqueueNotifications()
+    {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Connection connection = openNotificationConnection();
+                    Statement statement = connection.createStatement()) {
+                statement.execute("listen " + ENQUEUE_NOTIFICATION_CHANNEL);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (!Thread.currentThread().isInterrupted()) {
+                    // PostgreSQL JDBC driver 9.4.1211 receives notifications only when
+                    // it sends a query (getNotifications(timeout) that blocks until a
+                    // notification arrives is available since 42.2.0). This query is
+                    // much cheaper than polling queued_task_locks at every agent thread.
+                    statement.executeQuery("select 1").close();
+                    PGNotification[] notifications = pgConnection.getNotifications();
+                    if (notifications != null && notifications.length > 0) {
+                        interruptLocalWait();
+                    }
+                    Thread.sleep(queueConfig.getNotificationPollInterval());
+                }
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+            catch (Throwable t) {
+                logger.warn("Failed to listen task queue notifications. Retrying.", t);
+                try {
+                    Thread.sleep(1000);
+                }
+                catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void sendEnqueueNotification()
+    {
+        autoCommit((handle, dao) -> handle.execute("notify " + ENQUEUE_NOTIFICATION_CHANNEL));
+    }
+
     private boolean isEmbededDatabase()
     {
         switch (databaseType) {
@@ -174,6 +298,14 @@ public class DatabaseTaskQueueServer
 
         interruptLocalWait();
 
+        if (enqueueNotifier.isPresent()) {
+            // NOTIFY is sent after the transaction commits in a separate transaction
+            // because PostgreSQL serializes commits of transactions that sent NOTIFY
+            // using a global lock. Notifications of tasks enqueued at the same time
+            // are coalesced into one.
+            enqueueNotifier.get().notifyLater();
+        }
+
         return id;
     }
 
@@ -252,67 +384,101 @@ public class DatabaseTaskQueueServer
 
     public List<String> taskHeartbeat(int siteId, List<String> lockedIds, String agentId, int lockSeconds)
     {
-        ImmutableList.Builder<String> notFoundList = ImmutableList.builder();
+        // group lock ids by queue id (null for shared tasks) so that locks in
+        // a group are updated at once
+        Map<Optional<Integer>, Map<Long, String>> groups = new HashMap<>();
         for (String formatted : lockedIds) {
-            boolean success;
-            if (isSharedTaskLockId(formatted)) {
-                success = taskHeartbeat0(siteId, null, parseTaskLockId(formatted), agentId, lockSeconds);
-            }
-            else {
-                success = taskHeartbeat0(siteId, parseQueueId(formatted), parseTaskLockId(formatted), agentId, lockSeconds);
-            }
-            if (!success) {
-                notFoundList.add(formatted);
+            Optional<Integer> queueId = isSharedTaskLockId(formatted) ?
+                Optional.absent() : Optional.of(parseQueueId(formatted));
+            groups.computeIfAbsent(queueId, (key) -> new LinkedHashMap<>())
+                .put(parseTaskLockId(formatted), formatted);
+        }
+
+        Set<String> notFoundSet = new HashSet<>();
+        for (Map.Entry<Optional<Integer>, Map<Long, String>> group : groups.entrySet()) {
+            Map<Long, String> formattedByTaskLockId = group.getValue();
+            for (List<Long> taskLockIds : Iterables.partition(formattedByTaskLockId.keySet(), HEARTBEAT_BATCH_SIZE)) {
+                Set<Long> updated = taskHeartbeat0(siteId, group.getKey().orNull(), taskLockIds, agentId, lockSeconds);
+                for (long taskLockId : taskLockIds) {
+                    if (!updated.contains(taskLockId)) {
+                        notFoundSet.add(formattedByTaskLockId.get(taskLockId));
+                    }
+                }
             }
         }
-        return notFoundList.build();
+
+        // keep order of the given list
+        return lockedIds.stream()
+            .filter(formatted -> notFoundSet.contains(formatted))
+            .collect(Collectors.toList());
     }
 
-    private boolean taskHeartbeat0(int siteId, Integer queueId, long taskLockId, String agentId, int lockSeconds)
+    private Set<Long> taskHeartbeat0(int siteId, Integer queueId, List<Long> taskLockIds, String agentId, int lockSeconds)
     {
-        return autoCommit((handle, dao) -> {
-            String lockExpireTimeSql;
-            if (isEmbededDatabase()) {
-                lockExpireTimeSql = Long.toString(Instant.now().getEpochSecond() + lockSeconds);
-            }
-            else {
-                lockExpireTimeSql = statementUnixTimestampSql() + " + " + Integer.toString(lockSeconds);
-            }
-            return handle.createStatement(
-                    "update queued_task_locks" +
-                    " set lock_expire_time = " + lockExpireTimeSql +
-                    " where id = :id" +
+        if (!isEmbededDatabase()) {
+            // PostgreSQL updates the locks and returns ids of them using one statement
+            return transaction((handle, dao) -> {
+                List<Long> updatedIds = handle.createQuery(
+                        "update queued_task_locks" +
+                        " set lock_expire_time = " + statementUnixTimestampSql() + " + " + Integer.toString(lockSeconds) +
+                        " where id " + inLargeIdListExpression(taskLockIds) +
+                        " and lock_agent_id = :agentId" +
+                        " and coalesce(site_id, (select site_id from queue_settings where id = :queueId)) = :siteId" +
+                        " returning id"
+                    )
+                    .bind("agentId", agentId)
+                    .bind("queueId", queueId)
+                    .bind("siteId", siteId)
+                    .mapTo(Long.class)
+                    .list();
+                return ImmutableSet.copyOf(updatedIds);
+            });
+        }
+
+        // H2 doesn't support UPDATE ... RETURNING
+        return transaction((handle, dao) -> {
+            List<Long> lockedIds = handle.createQuery(
+                    "select id from queued_task_locks" +
+                    " where id " + inLargeIdListExpression(taskLockIds) +
                     " and lock_agent_id = :agentId" +
-                    " and coalesce(site_id, (select site_id from queue_settings where id = :queueId)) = :siteId"
+                    " and coalesce(site_id, (select site_id from queue_settings where id = :queueId)) = :siteId" +
+                    " order by id" +
+                    " for update"
                 )
-                .bind("expireTime", Instant.now().getEpochSecond() + lockSeconds)
-                .bind("id", taskLockId)
                 .bind("agentId", agentId)
                 .bind("queueId", queueId)
                 .bind("siteId", siteId)
+                .mapTo(Long.class)
+                .list();
+            if (lockedIds.isEmpty()) {
+                return ImmutableSet.of();
+            }
+
+            handle.createStatement(
+                    "update queued_task_locks" +
+                    " set lock_expire_time = " + Long.toString(Instant.now().getEpochSecond() + lockSeconds) +
+                    " where id " + inLargeIdListExpression(lockedIds)
+                )
                 .execute();
-        }) > 0;
+            return ImmutableSet.copyOf(lockedIds);
+        });
     }
 
     @Override
     public List<TaskQueueLock> lockSharedAgentTasks(int count, String agentId, int lockSeconds, long maxSleepMillis)
     {
-        for (int siteId : autoCommit((handle, dao) -> dao.getActiveSiteIdList())) {
-            List<Long> taskLockIds = tryLockSharedAgentTasks(siteId, count, agentId, lockSeconds);
+        if (queueConfig.isMultiSiteLocking()) {
+            List<Long> taskLockIds = tryLockSharedAgentTasksOfAllSites(count, agentId, lockSeconds);
             if (!taskLockIds.isEmpty()) {
-                ImmutableList.Builder<TaskQueueLock> builder = ImmutableList.builder();
-                for (long taskLockId : taskLockIds) {
-                    ImmutableTaskQueueLock data = autoCommit((handle, dao) -> dao.getTaskData(taskLockId));
-                    if (data == null) {
-                        // queued_task is deleted after tryLockSharedAgentTasks call.
-                        // it is possible just because there are 2 different transactions.
-                    }
-                    else {
-                        String lockId = formatSharedTaskLockId(taskLockId);
-                        builder.add(data.withLockId(lockId));
-                    }
+                return getSharedTaskLocks(taskLockIds);
+            }
+        }
+        else {
+            for (int siteId : autoCommit((handle, dao) -> dao.getActiveSiteIdList())) {
+                List<Long> taskLockIds = tryLockSharedAgentTasks(siteId, count, agentId, lockSeconds);
+                if (!taskLockIds.isEmpty()) {
+                    return getSharedTaskLocks(taskLockIds);
                 }
-                return builder.build();
             }
         }
 
@@ -323,6 +489,235 @@ public class DatabaseTaskQueueServer
         return ImmutableList.of();
     }
 
+    private List<TaskQueueLock> getSharedTaskLocks(List<Long> taskLockIds)
+    {
+        ImmutableList.Builder<TaskQueueLock> builder = ImmutableList.builder();
+        Map<Long, ImmutableTaskQueueLock> dataMap = getTaskDataMap(taskLockIds);
+        for (long taskLockId : taskLockIds) {
+            ImmutableTaskQueueLock data = dataMap.get(taskLockId);
+            if (data == null) {
+                // queued_task is deleted after tryLockSharedAgentTasks call.
+                // it is possible just because there are 2 different transactions.
+            }
+            else {
+                String lockId = formatSharedTaskLockId(taskLockId);
+                builder.add(data.withLockId(lockId));
+            }
+        }
+        return builder.build();
+    }
+
+    private static class LockedTaskData
+    {
+        private final long id;
+        private final Integer siteId;
+        private final Instant createdAt;
+        private final ImmutableTaskQueueLock lock;
+
+        LockedTaskData(long id, Integer siteId, Instant createdAt, ImmutableTaskQueueLock lock)
+        {
+            this.id = id;
+            this.siteId = siteId;
+            this.createdAt = createdAt;
+            this.lock = lock;
+        }
+    }
+
+    private Map<Long, ImmutableTaskQueueLock> getTaskDataMap(List<Long> taskLockIds)
+    {
+        ImmutableTaskQueueLockMapper mapper = new ImmutableTaskQueueLockMapper();
+        List<LockedTaskData> list = autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id, site_id, unique_name, data, created_at from queued_tasks" +
+                    " where id " + inLargeIdListExpression(taskLockIds)
+                )
+                .map((index, r, ctx) -> new LockedTaskData(
+                        r.getLong("id"),
+                        getOptionalInt(r, "site_id").orNull(),
+                        r.getTimestamp("created_at").toInstant(),
+                        mapper.map(index, r, ctx)))
+                .list()
+            );
+        Instant now = Instant.now();
+        ImmutableMap.Builder<Long, ImmutableTaskQueueLock> builder = ImmutableMap.builder();
+        for (LockedTaskData data : list) {
+            if (data.siteId != null) {
+                siteLockStats.computeIfAbsent(data.siteId, (key) -> new SiteLockStats())
+                    .record(now.toEpochMilli() - data.createdAt.toEpochMilli());
+            }
+            builder.put(data.id, data.lock);
+        }
+        return builder.build();
+    }
+
+    private static class SiteLockStats
+    {
+        private final AtomicLong lockedTaskCount = new AtomicLong(0L);
+        private final AtomicLong waitTimeTotalMillis = new AtomicLong(0L);
+        private final AtomicLong waitTimeMaxMillis = new AtomicLong(0L);
+
+        void record(long waitTimeMillis)
+        {
+            lockedTaskCount.incrementAndGet();
+            waitTimeTotalMillis.addAndGet(waitTimeMillis);
+            waitTimeMaxMillis.accumulateAndGet(waitTimeMillis, Math::max);
+        }
+    }
+
+    // wait time is time from enqueue (queued_tasks.created_at) to lock by a shared agent
+
+    @Managed
+    public Map<Integer, Long> getSiteLockedTaskCount()
+    {
+        return siteLockStatsSnapshot(stats -> stats.lockedTaskCount.get());
+    }
+
+    @Managed
+    public Map<Integer, Long> getSiteWaitTimeTotalMillis()
+    {
+        return siteLockStatsSnapshot(stats -> stats.waitTimeTotalMillis.get());
+    }
+
+    @Managed
+    public Map<Integer, Long> getSiteWaitTimeMaxMillis()
+    {
+        return siteLockStatsSnapshot(stats -> stats.waitTimeMaxMillis.get());
+    }
+
+    private Map<Integer, Long> siteLockStatsSnapshot(ToLongFunction<SiteLockStats> getter)
+    {
+        // TreeMap is serializable and sorted by site id
+        Map<Integer, Long> map = new TreeMap<>();
+        for (Map.Entry<Integer, SiteLockStats> pair : siteLockStats.entrySet()) {
+            map.put(pair.getKey(), getter.applyAsLong(pair.getValue()));
+        }
+        return map;
+    }
+
+    private List<Long> tryLockSharedAgentTasksOfAllSites(int count, String agentId, int lockSeconds)
+    {
+        if (isEmbededDatabase()) {
+            // H2 doesn't have window functions. Embedded database is used only by
+            // this process. Thus here picks tasks in Java with a process-wide lock.
+            synchronized (multiSiteLockHelper) {
+                return transaction((handle, dao) -> {
+                    Map<Integer, Long> runningCounts = new HashMap<>();
+                    List<Map.Entry<Integer, Long>> runnings = handle.createQuery(
+                            "select site_id, count(*) as count " +
+                            "from queued_task_locks " +
+                            "where lock_expire_time is not null " +
+                            "and site_id is not null " +
+                            "group by site_id"
+                            )
+                        .map((index, r, ctx) -> Maps.immutableEntry(r.getInt("site_id"), r.getLong("count")))
+                        .list();
+                    for (Map.Entry<Integer, Long> running : runnings) {
+                        runningCounts.put(running.getKey(), running.getValue());
+                    }
+                    List<Map.Entry<Integer, Long>> candidates = handle.createQuery(
+                            "select site_id, id " +
+                            "from queued_task_locks " +
+                            "where lock_expire_time is null " +
+                            "and site_id is not null " +
+                            "and not exists (" +
+                                "select * from (" +
+                                    "select site_id, queue_id, count(*) as count " +
+                                    "from queued_task_locks " +
+                                    "where lock_expire_time is not null " +
+                                    "and site_id is not null " +
+                                    "group by site_id, queue_id" +
+                                ") runnings " +
+                                "join queues on queues.id = runnings.queue_id " +
+                                "where runnings.count >= queues.max_concurrency " +
+                                "and runnings.site_id = queued_task_locks.site_id " +
+                                "and runnings.queue_id = queued_task_locks.queue_id" +
+                            ") " +
+                            "order by site_id, queue_id, priority desc, id"
+                            )
+                        .map((index, r, ctx) -> Maps.immutableEntry(r.getInt("site_id"), r.getLong("id")))
+                        .list();
+
+                    List<Long> taskLockIds = pickSharedTasksFairly(candidates, runningCounts,
+                            siteId -> queueConfig.getSiteMaxConcurrency(siteId), count);
+                    if (!taskLockIds.isEmpty()) {
+                        handle.createStatement(
+                                "update queued_task_locks" +
+                                " set lock_expire_time = :expireTime, lock_agent_id = :agentId" +
+                                " where id " + inLargeIdListExpression(taskLockIds)
+                            )
+                            .bind("expireTime", Instant.now().getEpochSecond() + lockSeconds)
+                            .bind("agentId", agentId)
+                            .execute();
+                    }
+                    return taskLockIds;
+                });
+            }
+        }
+        else {
+            // see Migration_20161207170158_AddLockSharedTasksOfAllSites for the
+            // definition of lock_shared_tasks_of_all_sites function. Sites that are
+            // not in siteMaxConcurrencies use the default max concurrency.
+            Map<Integer, Integer> siteMaxConcurrencies = queueConfig.getSiteMaxConcurrencies();
+            Integer[] siteIds = siteMaxConcurrencies.keySet().toArray(new Integer[0]);
+            Long[] maxConcurrencies = Stream.of(siteIds)
+                .map(siteId -> (long) siteMaxConcurrencies.get(siteId))
+                .toArray(Long[]::new);
+            return autoCommit((handle, dao) -> {
+                return handle.createQuery(
+                        "select lock_shared_tasks_of_all_sites(:siteIds, :siteMaxConcurrencies, :defaultSiteMaxConcurrency, :limit, :lockExpireSeconds, :agentId)"
+                    )
+                    .bind("siteIds", createSqlArray(handle, "int", siteIds))
+                    .bind("siteMaxConcurrencies", createSqlArray(handle, "bigint", maxConcurrencies))
+                    .bind("defaultSiteMaxConcurrency", queueConfig.getDefaultSiteMaxConcurrency())
+                    .bind("limit", count)
+                    .bind("lockExpireSeconds", lockSeconds)
+                    .bind("agentId", agentId)
+                    .mapTo(long.class)
+                    .list();
+            });
+        }
+    }
+
+    private static Array createSqlArray(Handle handle, String typeName, Object[] elements)
+    {
+        try {
+            return handle.getConnection().createArrayOf(typeName, elements);
+        }
+        catch (SQLException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    // Same algorithm with lock_shared_tasks_of_all_sites function. candidates must
+    // be sorted by site_id and then by order of execution in each site.
+    @VisibleForTesting
+    static List<Long> pickSharedTasksFairly(List<Map.Entry<Integer, Long>> candidates,
+            Map<Integer, Long> runningCounts, IntToLongFunction siteMaxConcurrency, int limit)
+    {
+        // (rank in site, id)
+        List<long[]> ranked = new ArrayList<>();
+        Integer lastSiteId = null;
+        long rank = 0;
+        for (Map.Entry<Integer, Long> candidate : candidates) {
+            int siteId = candidate.getKey();
+            if (lastSiteId == null || lastSiteId != siteId) {
+                lastSiteId = siteId;
+                rank = 0;
+            }
+            rank++;
+            long slots = siteMaxConcurrency.applyAsLong(siteId) - runningCounts.getOrDefault(siteId, 0L);
+            if (rank <= slots) {
+                ranked.add(new long[] { rank, candidate.getValue() });
+            }
+        }
+        return ranked.stream()
+            .sorted(Comparator.<long[]>comparingLong(pair -> pair[0]).thenComparingLong(pair -> pair[1]))
+            .limit(limit)
+            .map(pair -> pair[1])
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
     private List<Long> tryLockSharedAgentTasks(int siteId,
             int count, String agentId, int lockSeconds)
     {
@@ -502,9 +897,6 @@ public class DatabaseTaskQueueServer
                 @Bind("siteId") Integer siteId, @Bind("queueId") Integer queueId,
                 @Bind("priority") int priority);
 
-        @SqlQuery("select unique_name, data from queued_tasks where id = :taskLockId")
-        ImmutableTaskQueueLock getTaskData(@Bind("taskLockId") long taskLockId);
-
         @SqlUpdate("delete from queued_task_locks" +
                 " where id = :taskLockId" +
                 " and lock_agent_id = :agentId")
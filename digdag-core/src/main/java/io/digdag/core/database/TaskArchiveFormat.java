@@ -0,0 +1,226 @@
+package io.digdag.core.database;
+
+import java.util.List;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.nio.ByteBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import com.google.common.collect.ImmutableList;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.digdag.core.session.ArchivedTask;
+
+/**
+ * Binary format of task archives.
+ *
+ * Each task is serialized using Smile and appended to a block until the
+ * uncompressed size of the block exceeds BLOCK_SIZE. Blocks are compressed
+ * using deflate. The format starts with an index of tasks so that readers
+ * can decode only the blocks that include the requested tasks.
+ *
+ * <pre>
+ * int version
+ * int taskCount
+ * int blockCount
+ * taskCount * (long taskId, int blockIndex, int offsetInBlock, int length)
+ * blockCount * (int compressedLength, int uncompressedLength)
+ * blockCount * (byte[compressedLength] block)
+ * </pre>
+ */
+class TaskArchiveFormat
+{
+    private static final int VERSION = 1;
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int INDEX_ENTRY_SIZE = 20;
+    private static final int BLOCK_ENTRY_SIZE = 8;
+
+    private final SmileFactory smile;
+
+    TaskArchiveFormat(ObjectMapper mapper)
+    {
+        this.smile = new SmileFactory(mapper);
+    }
+
+    Writer newWriter()
+    {
+        return new Writer();
+    }
+
+    class Writer
+    {
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private final ByteArrayOutputStream blockTable = new ByteArrayOutputStream();
+        private final DataOutputStream blockTableOut = new DataOutputStream(blockTable);
+        private final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        private final Deflater deflater = new Deflater();
+        private int taskCount = 0;
+        private int blockCount = 0;
+
+        public void add(ArchivedTask task)
+            throws IOException
+        {
+            int offset = block.size();
+            try (JsonGenerator gen = smile.createGenerator(block)) {
+                gen.writeObject(task);
+            }
+            indexOut.writeLong(task.getId());
+            indexOut.writeInt(blockCount);
+            indexOut.writeInt(offset);
+            indexOut.writeInt(block.size() - offset);
+            taskCount++;
+
+            if (block.size() >= BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        public int getTaskCount()
+        {
+            return taskCount;
+        }
+
+        public byte[] finish()
+            throws IOException
+        {
+            flushBlock();
+            deflater.end();
+
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(
+                    HEADER_SIZE + index.size() + blockTable.size() + blocks.size());
+            DataOutputStream out = new DataOutputStream(bout);
+            out.writeInt(VERSION);
+            out.writeInt(taskCount);
+            out.writeInt(blockCount);
+            index.writeTo(out);
+            blockTable.writeTo(out);
+            blocks.writeTo(out);
+            out.flush();
+            return bout.toByteArray();
+        }
+
+        private void flushBlock()
+            throws IOException
+        {
+            if (block.size() == 0) {
+                return;
+            }
+            int before = blocks.size();
+            deflater.reset();
+            DeflaterOutputStream out = new DeflaterOutputStream(blocks, deflater);
+            block.writeTo(out);
+            out.finish();
+
+            blockTableOut.writeInt(blocks.size() - before);
+            blockTableOut.writeInt(block.size());
+            blockCount++;
+            block.reset();
+        }
+    }
+
+    List<ArchivedTask> readAll(byte[] data)
+        throws IOException
+    {
+        ImmutableList.Builder<ArchivedTask> builder = ImmutableList.builder();
+        read(data, null, builder::add);
+        return builder.build();
+    }
+
+    List<ArchivedTask> read(byte[] data, Collection<Long> taskIds)
+        throws IOException
+    {
+        ImmutableList.Builder<ArchivedTask> builder = ImmutableList.builder();
+        read(data, taskIds, builder::add);
+        return builder.build();
+    }
+
+    // taskIds == null reads all tasks. Only one decoded block is kept in
+    // memory at a time.
+    void read(byte[] data, Collection<Long> taskIds, Consumer<ArchivedTask> action)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.getInt(0);
+        if (version != VERSION) {
+            throw new IOException("Unsupported task archive version: " + version);
+        }
+        int taskCount = buffer.getInt(4);
+        int blockCount = buffer.getInt(8);
+        int blockTableOffset = HEADER_SIZE + taskCount * INDEX_ENTRY_SIZE;
+
+        int[] blockOffsets = new int[blockCount];
+        int offset = blockTableOffset + blockCount * BLOCK_ENTRY_SIZE;
+        for (int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = offset;
+            offset += buffer.getInt(blockTableOffset + i * BLOCK_ENTRY_SIZE);
+        }
+
+        Set<Long> idSet = (taskIds == null) ? null : new HashSet<>(taskIds);
+
+        int decodedBlockIndex = -1;
+        byte[] decodedBlock = null;
+        Inflater inflater = new Inflater();
+        try {
+            for (int i = 0; i < taskCount; i++) {
+                int pos = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+                long taskId = buffer.getLong(pos);
+                if (idSet != null && !idSet.contains(taskId)) {
+                    continue;
+                }
+                int blockIndex = buffer.getInt(pos + 8);
+                int offsetInBlock = buffer.getInt(pos + 12);
+                int length = buffer.getInt(pos + 16);
+
+                if (blockIndex != decodedBlockIndex) {
+                    int tableEntry = blockTableOffset + blockIndex * BLOCK_ENTRY_SIZE;
+                    decodedBlock = inflate(inflater, data,
+                            blockOffsets[blockIndex], buffer.getInt(tableEntry), buffer.getInt(tableEntry + 4));
+                    decodedBlockIndex = blockIndex;
+                }
+
+                try (JsonParser parser = smile.createParser(decodedBlock, offsetInBlock, length)) {
+                    action.accept(parser.readValueAs(ArchivedTask.class));
+                }
+            }
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] data, int offset, int length, int uncompressedLength)
+        throws IOException
+    {
+        byte[] result = new byte[uncompressedLength];
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        try {
+            int pos = 0;
+            while (pos < uncompressedLength) {
+                int n = inflater.inflate(result, pos, uncompressedLength - pos);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Task archive block is truncated");
+                }
+                pos += n;
+            }
+        }
+        catch (DataFormatException ex) {
+            throw new IOException("Task archive block is broken", ex);
+        }
+        return result;
+    }
+}
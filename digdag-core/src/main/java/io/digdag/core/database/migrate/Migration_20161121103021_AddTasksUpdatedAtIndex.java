@@ -0,0 +1,14 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20161121103021_AddTasksUpdatedAtIndex
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        // for findRecentlyChangedTasks at WorkflowExecutor.IncrementalStatusPropagator
+        handle.update("create index tasks_on_updated_at_and_id on tasks (updated_at, id)");
+    }
+}
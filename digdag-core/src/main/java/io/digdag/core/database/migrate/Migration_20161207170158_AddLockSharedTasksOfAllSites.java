@@ -0,0 +1,98 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20161207170158_AddLockSharedTasksOfAllSites
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        if (context.isPostgres()) {
+            // Locks tasks of all sites at once. Each site gets at most
+            // (max concurrency of the site - running tasks) tasks. Max concurrency
+            // of a site is given by site_ids and site_max_concurrencies, or
+            // default_site_max_concurrency if the site is not in site_ids. Tasks
+            // are picked in round-robin across sites (1st task of each site, 2nd
+            // task of each site, ...) and older tasks first in the same round so
+            // that a busy site doesn't starve the others. Sites locked by other
+            // agents using the same advisory lock with lock_shared_tasks are skipped.
+            handle.update(
+                "CREATE FUNCTION lock_shared_tasks_of_all_sites(site_ids int[], site_max_concurrencies bigint[], default_site_max_concurrency bigint, limit_count int, lock_expire_seconds int, agent_id text) returns setof bigint as $$\n" +
+                "BEGIN\n" +
+                "  RETURN QUERY\n" +
+                "    with recursive waiting_sites (site_id) as (\n" +
+                "      (\n" +
+                "        select queued_task_locks.site_id from queued_task_locks\n" +
+                "        where lock_expire_time is null\n" +
+                "          and queued_task_locks.site_id is not null\n" +
+                "        order by queued_task_locks.site_id limit 1\n" +
+                "      )\n" +
+                "      union all\n" +
+                "      select (\n" +
+                "        select queued_task_locks.site_id from queued_task_locks\n" +
+                "        where lock_expire_time is null\n" +
+                "          and queued_task_locks.site_id is not null\n" +
+                "          and queued_task_locks.site_id > w.site_id\n" +
+                "        order by queued_task_locks.site_id limit 1\n" +
+                "      ) from waiting_sites w where w.site_id is not null\n" +
+                "    ),\n" +
+                "    sites as (\n" +
+                "      select w.site_id,\n" +
+                "        coalesce(m.max_concurrency, default_site_max_concurrency) - (\n" +
+                "          select count(*) from queued_task_locks\n" +
+                "          where lock_expire_time is not null\n" +
+                "            and queued_task_locks.site_id = w.site_id\n" +
+                "        ) as slots\n" +
+                "      from waiting_sites w\n" +
+                "      left join unnest(site_ids, site_max_concurrencies) as m (site_id, max_concurrency)\n" +
+                "        on m.site_id = w.site_id\n" +
+                "      where w.site_id is not null\n" +
+                "        and pg_try_advisory_xact_lock(23300, w.site_id)\n" +
+                "    ),\n" +
+                "    candidates as (\n" +
+                "      select c.id, c.rank\n" +
+                "      from sites s\n" +
+                "      cross join lateral (\n" +
+                "        select queued_task_locks.id,\n" +
+                "          row_number() over (order by queued_task_locks.queue_id, queued_task_locks.priority desc, queued_task_locks.id) as rank\n" +
+                "        from queued_task_locks\n" +
+                "        where lock_expire_time is null\n" +
+                "          and queued_task_locks.site_id = s.site_id\n" +
+                "          and not exists (\n" +
+                "            select * from (\n" +
+                "              select queue_id, count(*) as count\n" +
+                "              from queued_task_locks r\n" +
+                "              where r.lock_expire_time is not null\n" +
+                "                and r.site_id = s.site_id\n" +
+                "              group by queue_id\n" +
+                "            ) runnings\n" +
+                "            join queues on queues.id = runnings.queue_id\n" +
+                "            where runnings.count >= queues.max_concurrency\n" +
+                "              and runnings.queue_id = queued_task_locks.queue_id\n" +
+                "          )\n" +
+                "        order by queued_task_locks.queue_id, queued_task_locks.priority desc, queued_task_locks.id\n" +
+                "        limit limit_count\n" +
+                "      ) c\n" +
+                "      where c.rank <= s.slots\n" +
+                "    ),\n" +
+                "    picked as (\n" +
+                "      select candidates.id from candidates\n" +
+                "      order by candidates.rank, candidates.id\n" +
+                "      limit limit_count\n" +
+                "    ),\n" +
+                "    updated as (\n" +
+                "      update queued_task_locks\n" +
+                "      set lock_expire_time = cast(extract(epoch from statement_timestamp()) as bigint) + lock_expire_seconds,\n" +
+                "          lock_agent_id = agent_id\n" +
+                "      where queued_task_locks.id = any(select picked.id from picked)\n" +
+                "      returning queued_task_locks.site_id, queued_task_locks.queue_id, queued_task_locks.priority, queued_task_locks.id\n" +
+                "    )\n" +
+                "    select updated.id from updated\n" +
+                "    order by updated.site_id, updated.queue_id, updated.priority desc, updated.id;\n" +
+                "END;\n" +
+                "$$ LANGUAGE plpgsql VOLATILE\n" +
+            "");
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20161213152041_AddProjectArchiveFiles
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        // content-addressed files of projects pushed with a manifest.
+        // shared by all revisions of a site that include the same file.
+        handle.update(
+                context.newCreateTableBuilder("project_archive_files")
+                .addLongId("id")
+                .addInt("site_id", "not null")
+                .addString("hash", "not null")
+                .addLongBinary("data", "not null")
+                .addTimestamp("created_at", "not null")
+                .build());
+
+        handle.update("create unique index project_archive_files_on_site_id_and_hash on project_archive_files (site_id, hash)");
+    }
+}
@@ -0,0 +1,26 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20161219103512_AddTaskArchiveData
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        // compressed binary format of task archives. tasks column is
+        // kept to read archives stored by old versions.
+        if (context.isPostgres()) {
+            handle.update("alter table task_archives" +
+                    " add column tasks_data bytea");
+            handle.update("alter table task_archives" +
+                    " alter column tasks drop not null");
+        }
+        else {
+            handle.update("alter table task_archives" +
+                    " add column tasks_data blob");
+            handle.update("alter table task_archives" +
+                    " alter column tasks set null");
+        }
+    }
+}
@@ -4,8 +4,10 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.zip.GZIPOutputStream;
 import java.io.InputStream;
+import java.io.ByteArrayInputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.io.EOFException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.nio.file.FileSystems;
@@ -15,6 +17,8 @@ import java.nio.file.DirectoryStream;
 import com.google.inject.Inject;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.ByteStreams;
 import io.digdag.spi.LogServer;
 import io.digdag.spi.LogServerFactory;
@@ -24,6 +28,7 @@ import io.digdag.spi.ImmutableLogFileHandle;
 import io.digdag.spi.DirectDownloadHandle;
 import io.digdag.spi.DirectUploadHandle;
 import io.digdag.spi.StorageFileNotFoundException;
+import io.digdag.spi.Storage.UploadStreamProvider;
 import io.digdag.client.config.Config;
 import java.time.format.DateTimeFormatter;
 import static java.util.Locale.ENGLISH;
@@ -34,18 +39,65 @@ public abstract class AbstractFileLogServer
 {
     public abstract Optional<DirectUploadHandle> getDirectUploadHandle(String dateDir, String attemptDir, String fileName);
 
-    protected abstract void putFile(String dateDir, String attemptDir, String fileName, byte[] gzData);
+    protected abstract void putFile(String dateDir, String attemptDir, String fileName, long contentLength, UploadStreamProvider gzData);
 
     protected abstract byte[] getFile(String dateDir, String attemptDir, String fileName)
             throws StorageFileNotFoundException;
 
-    protected abstract void listFiles(String dateDir, String attemptDir, FileMetadataConsumer fileNameConsumer);
+    protected abstract InputStream openFile(String dateDir, String attemptDir, String fileName)
+            throws StorageFileNotFoundException;
+
+    // opens at most length bytes from offset. Subclasses override this if the
+    // file system can read a range without reading the bytes before offset.
+    protected InputStream openFileRange(String dateDir, String attemptDir, String fileName, long offset, long length)
+            throws StorageFileNotFoundException
+    {
+        InputStream in = openFile(dateDir, attemptDir, fileName);
+        try {
+            ByteStreams.skipFully(in, offset);
+        }
+        catch (IOException ex) {
+            try {
+                in.close();
+            }
+            catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw Throwables.propagate(ex);
+        }
+        return ByteStreams.limit(in, length);
+    }
+
+    // lists files whose names start with fileNamePrefix if it's present
+    protected abstract void listFiles(String dateDir, String attemptDir, Optional<String> fileNamePrefix, FileMetadataConsumer fileNameConsumer);
 
     public interface FileMetadataConsumer
     {
         public void accept(String name, long size, DirectDownloadHandle directOrNull);
     }
 
+    // size of the beginning of a batch file read to get its index
+    private static final int BATCH_INDEX_READ_SIZE = 64 * 1024;
+
+    // batch files are immutable. caching indexes avoids reading them every time files are listed.
+    private final Cache<String, List<LogBatchFile.Entry>> batchIndexCache = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .build();
+
+    public String putBatchFile(LogFilePrefix prefix, Instant firstLogTime, String agentId,
+            List<String> fileNames, List<byte[]> gzData)
+        throws IOException
+    {
+        String dateDir = LogFiles.formatDataDir(prefix);
+        String attemptDir = LogFiles.formatSessionAttemptDir(prefix);
+        String batchFileName = LogFiles.formatBatchFileName(firstLogTime, agentId);
+
+        byte[] data = LogBatchFile.build(fileNames, gzData);
+        putFile(dateDir, attemptDir, batchFileName, data.length, () -> new ByteArrayInputStream(data));
+
+        return batchFileName;
+    }
+
     @Override
     public Optional<DirectUploadHandle> getDirectUploadHandle(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId)
     {
@@ -57,12 +109,19 @@ public abstract class AbstractFileLogServer
 
     @Override
     public String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId, byte[] gzData)
+    {
+        return putFile(prefix, taskName, firstLogTime, agentId, gzData.length, () -> new ByteArrayInputStream(gzData));
+    }
+
+    @Override
+    public String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId,
+            long contentLength, UploadStreamProvider gzData)
     {
         String dateDir = LogFiles.formatDataDir(prefix);
         String attemptDir = LogFiles.formatSessionAttemptDir(prefix);
         String fileName = LogFiles.formatFileName(taskName, firstLogTime, agentId);
 
-        putFile(dateDir, attemptDir, fileName, gzData);
+        putFile(dateDir, attemptDir, fileName, contentLength, gzData);
 
         return fileName;
     }
@@ -73,9 +132,70 @@ public abstract class AbstractFileLogServer
     {
         String dateDir = LogFiles.formatDataDir(prefix);
         String attemptDir = LogFiles.formatSessionAttemptDir(prefix);
+        Optional<String> batchFileName = LogFiles.getBatchFileNameOfEntry(fileName);
+        if (batchFileName.isPresent()) {
+            try (InputStream in = openBatchEntry(dateDir, attemptDir, batchFileName.get(), LogFiles.getFileNameOfEntry(fileName))) {
+                return ByteStreams.toByteArray(in);
+            }
+            catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+        }
         return getFile(dateDir, attemptDir, fileName);
     }
 
+    @Override
+    public InputStream openFile(LogFilePrefix prefix, String fileName)
+            throws StorageFileNotFoundException
+    {
+        String dateDir = LogFiles.formatDataDir(prefix);
+        String attemptDir = LogFiles.formatSessionAttemptDir(prefix);
+        Optional<String> batchFileName = LogFiles.getBatchFileNameOfEntry(fileName);
+        if (batchFileName.isPresent()) {
+            return openBatchEntry(dateDir, attemptDir, batchFileName.get(), LogFiles.getFileNameOfEntry(fileName));
+        }
+        return openFile(dateDir, attemptDir, fileName);
+    }
+
+    private InputStream openBatchEntry(String dateDir, String attemptDir, String batchFileName, String fileName)
+            throws StorageFileNotFoundException
+    {
+        for (LogBatchFile.Entry entry : getBatchIndex(dateDir, attemptDir, batchFileName)) {
+            if (entry.getFileName().equals(fileName)) {
+                return openFileRange(dateDir, attemptDir, batchFileName, entry.getOffset(), entry.getLength());
+            }
+        }
+        throw new StorageFileNotFoundException("Log file " + fileName + " is not found in " + batchFileName);
+    }
+
+    private List<LogBatchFile.Entry> getBatchIndex(String dateDir, String attemptDir, String batchFileName)
+            throws StorageFileNotFoundException
+    {
+        String key = dateDir + "/" + attemptDir + "/" + batchFileName;
+        List<LogBatchFile.Entry> index = batchIndexCache.getIfPresent(key);
+        if (index == null) {
+            // the index is at the beginning of the file. reading only the
+            // beginning avoids downloading contents of the entries.
+            try (InputStream in = openFileRange(dateDir, attemptDir, batchFileName, 0, BATCH_INDEX_READ_SIZE)) {
+                index = LogBatchFile.readIndex(in);
+            }
+            catch (EOFException ex) {
+                // the index is larger than BATCH_INDEX_READ_SIZE
+                try (InputStream in = openFile(dateDir, attemptDir, batchFileName)) {
+                    index = LogBatchFile.readIndex(in);
+                }
+                catch (IOException ex2) {
+                    throw Throwables.propagate(ex2);
+                }
+            }
+            catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+            batchIndexCache.put(key, index);
+        }
+        return index;
+    }
+
     @Override
     public List<LogFileHandle> getFileHandles(LogFilePrefix prefix, Optional<String> taskName)
     {
@@ -83,8 +203,14 @@ public abstract class AbstractFileLogServer
         String attemptDir = LogFiles.formatSessionAttemptDir(prefix);
 
         List<LogFileHandle> handles = new ArrayList<>();
+        List<String> batchFileNames = new ArrayList<>();
 
-        listFiles(dateDir, attemptDir, (name, size, direct) -> {
+        // file names start with task name. listing only the files of the task
+        // avoids scanning all files of the attempt.
+        listFiles(dateDir, attemptDir, taskName, (name, size, direct) -> {
+            if (LogFiles.isBatchFileName(name)) {
+                batchFileNames.add(name);
+            }
             if (name.endsWith(LogFiles.LOG_GZ_FILE_SUFFIX) && (!taskName.isPresent() || name.startsWith(taskName.get()))) {
                 LogFileHandle handle = LogFiles.buildLogFileHandleFromFileName(name, size);
                 if (handle != null) {
@@ -102,6 +228,37 @@ public abstract class AbstractFileLogServer
             }
         });
 
+        // logs of short tasks are stored in batch files
+        if (taskName.isPresent()) {
+            listFiles(dateDir, attemptDir, Optional.of(LogFiles.BATCH_FILE_PREFIX), (name, size, direct) -> {
+                if (LogFiles.isBatchFileName(name)) {
+                    batchFileNames.add(name);
+                }
+            });
+        }
+        for (String batchFileName : batchFileNames) {
+            List<LogBatchFile.Entry> index;
+            try {
+                index = getBatchIndex(dateDir, attemptDir, batchFileName);
+            }
+            catch (StorageFileNotFoundException ex) {
+                continue;
+            }
+            for (LogBatchFile.Entry entry : index) {
+                String name = entry.getFileName();
+                if (!taskName.isPresent() || name.startsWith(taskName.get())) {
+                    LogFileHandle handle = LogFiles.buildLogFileHandleFromFileName(name, entry.getLength());
+                    if (handle != null) {
+                        handles.add(
+                                ImmutableLogFileHandle.builder()
+                                .from(handle)
+                                .fileName(LogFiles.formatBatchEntryFileName(name, batchFileName))
+                                .build());
+                    }
+                }
+            }
+        }
+
         LogFiles.sortLogFileHandles(handles);
 
         return handles;
@@ -2,18 +2,22 @@ package io.digdag.core.log;
 
 import java.time.Instant;
 import java.util.zip.GZIPOutputStream;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
-import java.time.Instant;
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
-import com.google.common.io.ByteStreams;
 import io.digdag.core.TempFileManager;
+import io.digdag.spi.Storage.UploadStreamProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class BufferedRemoteTaskLogger
@@ -21,26 +25,38 @@ public class BufferedRemoteTaskLogger
 {
     public static interface Uploader
     {
-        void upload(Instant firstLogTime, byte[] gzData);
+        // lastChunk is true if this is the last chunk of the task
+        void upload(Instant firstLogTime, long contentLength, UploadStreamProvider gzData, boolean lastChunk)
+            throws IOException;
     }
 
+    private static final Logger logger = LoggerFactory.getLogger(BufferedRemoteTaskLogger.class);
+
     private static final int UPLOAD_THRESHOLD = 16 * 1024 * 1024;
 
     private final TempFileManager tempFiles;
     private final String tempFilePrefix;
     private final Uploader uploader;
+    private final int compressionLevel;
+    private final Optional<ScheduledExecutorService> flushScheduler;
+    private final long flushIntervalMillis;
     private final ReentrantReadWriteLock lock;
     private final ReadLock logAppendLock;
     private final WriteLock logUploadLock;
     private volatile CountingLogOutputStream currentFile = null;
+    private volatile ScheduledFuture<?> scheduledFlush = null;
     private volatile boolean closed;
 
     public BufferedRemoteTaskLogger(TempFileManager tempFiles, String tempFilePrefix,
-            Uploader uploader)
+            Uploader uploader, int compressionLevel,
+            Optional<ScheduledExecutorService> flushScheduler, long flushIntervalMillis)
     {
         this.tempFiles = tempFiles;
         this.tempFilePrefix = tempFilePrefix;
         this.uploader = uploader;
+        this.compressionLevel = compressionLevel;
+        this.flushScheduler = flushScheduler;
+        this.flushIntervalMillis = flushIntervalMillis;
         this.lock = new ReentrantReadWriteLock();
         this.logAppendLock = lock.readLock();
         this.logUploadLock = lock.writeLock();
@@ -89,30 +105,51 @@ public class BufferedRemoteTaskLogger
                         throw new IOException("Task logger is already closed");
                     }
                     currentFile = new CountingLogOutputStream(
-                            tempFiles.createTempFile("logs", tempFilePrefix, ".log.gz").get()
-                            );
+                            tempFiles.createTempFile("logs", tempFilePrefix, ".log.gz").get(),
+                            compressionLevel);
+                    if (flushScheduler.isPresent() && flushIntervalMillis > 0) {
+                        // upload buffered logs even if the task doesn't write more
+                        scheduledFlush = flushScheduler.get().schedule(
+                                () -> flushByTime(), flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    }
                 }
             }
         }
     }
 
+    private void flushByTime()
+    {
+        try {
+            tryUpload(false, true);
+        }
+        catch (IOException | RuntimeException ex) {
+            logger.warn("Failed to upload task logs", ex);
+        }
+    }
+
     private void tryUpload(boolean atClose)
         throws IOException
+    {
+        tryUpload(atClose, false);
+    }
+
+    private void tryUpload(boolean atClose, boolean byTime)
+        throws IOException
     {
         logUploadLock.lock();
         try {
-            if (currentFile != null && (atClose || currentFile.getUncompressedSize() > UPLOAD_THRESHOLD)) {
+            if (currentFile != null && (atClose || byTime || currentFile.getUncompressedSize() > UPLOAD_THRESHOLD)) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
                 currentFile.close();
                 Path path = currentFile.getPath();
                 Instant firstLogTime = currentFile.getOpenTime();
                 currentFile = null;
 
-                byte[] gzData;
-                try (InputStream in = Files.newInputStream(path)) {
-                    gzData = ByteStreams.toByteArray(in);
-                }
-
-                uploader.upload(firstLogTime, gzData);
+                // stream the temp file instead of loading the whole chunk into the heap
+                uploader.upload(firstLogTime, Files.size(path), () -> Files.newInputStream(path), atClose);
                 Files.deleteIfExists(path);
             }
             if (atClose) {
@@ -142,11 +179,11 @@ public class BufferedRemoteTaskLogger
         private final Instant openTime;
         private int count;
 
-        public CountingLogOutputStream(Path path)
+        public CountingLogOutputStream(Path path, int compressionLevel)
             throws IOException
         {
             super(Files.newOutputStream(path), 8*1024);
-            this.def.setLevel(9);
+            this.def.setLevel(compressionLevel);
             this.path = path;
             this.openTime = Instant.now();
         }
@@ -13,6 +13,9 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.nio.file.DirectoryStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import com.google.inject.Inject;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
@@ -25,6 +28,7 @@ import io.digdag.spi.LogFileHandle;
 import io.digdag.spi.DirectDownloadHandle;
 import io.digdag.spi.DirectUploadHandle;
 import io.digdag.spi.StorageFileNotFoundException;
+import io.digdag.spi.Storage.UploadStreamProvider;
 import io.digdag.client.config.Config;
 import java.time.format.DateTimeFormatter;
 import static java.util.Locale.ENGLISH;
@@ -84,14 +88,14 @@ public class LocalFileLogServerFactory
         }
 
         @Override
-        protected void putFile(String dateDir, String attemptDir, String fileName, byte[] gzData)
+        protected void putFile(String dateDir, String attemptDir, String fileName, long contentLength, UploadStreamProvider gzData)
         {
             Path dir = getPrefixDir(dateDir, attemptDir);
             try {
                 Files.createDirectories(dir);
                 Path path = dir.resolve(fileName);
-                try (OutputStream out = Files.newOutputStream(path)) {
-                    out.write(gzData);
+                try (InputStream in = gzData.open(); OutputStream out = Files.newOutputStream(path)) {
+                    ByteStreams.copy(in, out);
                 }
             }
             catch (IOException ex) {
@@ -100,14 +104,17 @@ public class LocalFileLogServerFactory
         }
 
         @Override
-        protected void listFiles(String dateDir, String attemptDir, FileMetadataConsumer consumer)
+        protected void listFiles(String dateDir, String attemptDir, Optional<String> fileNamePrefix, FileMetadataConsumer consumer)
         {
             Path dir = getPrefixDir(dateDir, attemptDir);
             if (!Files.exists(dir)) {
                 return;
             }
 
-            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            // file names are filtered before calling Files.size to skip stat of other tasks' files
+            DirectoryStream.Filter<Path> filter = (path) ->
+                !fileNamePrefix.isPresent() || path.getFileName().toString().startsWith(fileNamePrefix.get());
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, filter)) {
                 for (Path path : ds) {
                     consumer.accept(
                             path.getFileName().toString(),
@@ -136,6 +143,46 @@ public class LocalFileLogServerFactory
             }
         }
 
+        @Override
+        protected InputStream openFile(String dateDir, String attemptDir, String fileName)
+            throws StorageFileNotFoundException
+        {
+            Path path = getPrefixDir(dateDir, attemptDir).resolve(fileName);
+            try {
+                return Files.newInputStream(path);
+            }
+            catch (NoSuchFileException | FileNotFoundException ex) {
+                throw new StorageFileNotFoundException(ex);
+            }
+            catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+        }
+
+        @Override
+        protected InputStream openFileRange(String dateDir, String attemptDir, String fileName, long offset, long length)
+            throws StorageFileNotFoundException
+        {
+            Path path = getPrefixDir(dateDir, attemptDir).resolve(fileName);
+            try {
+                SeekableByteChannel channel = Files.newByteChannel(path);
+                try {
+                    channel.position(offset);
+                }
+                catch (IOException ex) {
+                    channel.close();
+                    throw ex;
+                }
+                return ByteStreams.limit(Channels.newInputStream(channel), length);
+            }
+            catch (NoSuchFileException | FileNotFoundException ex) {
+                throw new StorageFileNotFoundException(ex);
+            }
+            catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+        }
+
         private Path getPrefixDir(String dateDir, String attemptDir)
         {
             return logPath.resolve(dateDir).resolve(attemptDir);
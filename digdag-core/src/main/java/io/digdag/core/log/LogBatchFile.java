@@ -0,0 +1,100 @@
+package io.digdag.core.log;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Log file that contains gzip log files of multiple tasks.
+ *
+ * A batch file starts with an index that lists name and length of each
+ * log file, followed by the contents of the log files in the same order.
+ * Readers can read only the index to list the log files without
+ * downloading the contents.
+ */
+public class LogBatchFile
+{
+    private LogBatchFile()
+    { }
+
+    private static final int VERSION = 1;
+
+    public static class Entry
+    {
+        private final String fileName;
+        private final long offset;
+        private final int length;
+
+        Entry(String fileName, long offset, int length)
+        {
+            this.fileName = fileName;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getFileName()
+        {
+            return fileName;
+        }
+
+        // position of the content from the beginning of the batch file
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+    }
+
+    public static byte[] build(List<String> fileNames, List<byte[]> contents)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bout)) {
+            out.writeInt(VERSION);
+            out.writeInt(fileNames.size());
+            for (int i = 0; i < fileNames.size(); i++) {
+                out.writeUTF(fileNames.get(i));
+                out.writeInt(contents.get(i).length);
+            }
+            for (byte[] content : contents) {
+                out.write(content);
+            }
+        }
+        return bout.toByteArray();
+    }
+
+    public static List<Entry> readIndex(InputStream in)
+        throws IOException
+    {
+        CountingInputStream counting = new CountingInputStream(in);
+        DataInputStream data = new DataInputStream(counting);
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported log batch file version: " + version);
+        }
+        int count = data.readInt();
+        List<String> names = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(data.readUTF());
+            lengths.add(data.readInt());
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        long offset = counting.getCount();
+        for (int i = 0; i < count; i++) {
+            entries.add(new Entry(names.get(i), offset, lengths.get(i)));
+            offset += lengths.get(i);
+        }
+        return entries;
+    }
+}
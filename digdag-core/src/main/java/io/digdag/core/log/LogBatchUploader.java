@@ -0,0 +1,108 @@
+package io.digdag.core.log;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.time.Instant;
+import java.io.IOException;
+import io.digdag.spi.LogFilePrefix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects small log files of tasks and uploads them together as a batch file.
+ *
+ * Log files are grouped by session attempt because log files are listed
+ * per attempt. A batch is uploaded when its size exceeds maxBatchSize or
+ * when flush is called.
+ *
+ * Added log files are kept only in memory until the batch is uploaded.
+ * They are lost if the process crashes before that. LogServerManager calls
+ * flush every log-server.batch.flush_interval seconds and at shutdown.
+ */
+public class LogBatchUploader
+{
+    private static final Logger logger = LoggerFactory.getLogger(LogBatchUploader.class);
+
+    private static class Batch
+    {
+        private final Instant firstLogTime;
+        private final List<String> taskNames = new ArrayList<>();
+        private final List<Instant> firstLogTimes = new ArrayList<>();
+        private final List<String> fileNames = new ArrayList<>();
+        private final List<byte[]> gzData = new ArrayList<>();
+        private long size = 0;
+
+        Batch(Instant firstLogTime)
+        {
+            this.firstLogTime = firstLogTime;
+        }
+    }
+
+    private final AbstractFileLogServer logServer;
+    private final String agentId;
+    private final long maxBatchSize;
+    private final Map<LogFilePrefix, Batch> batches = new HashMap<>();
+
+    public LogBatchUploader(AbstractFileLogServer logServer, String agentId, long maxBatchSize)
+    {
+        this.logServer = logServer;
+        this.agentId = agentId;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void add(LogFilePrefix prefix, String taskName, Instant firstLogTime, byte[] gzData)
+    {
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = batches.get(prefix);
+            if (batch == null) {
+                batch = new Batch(firstLogTime);
+                batches.put(prefix, batch);
+            }
+            batch.taskNames.add(taskName);
+            batch.firstLogTimes.add(firstLogTime);
+            batch.fileNames.add(LogFiles.formatFileName(taskName, firstLogTime, agentId));
+            batch.gzData.add(gzData);
+            batch.size += gzData.length;
+            if (batch.size >= maxBatchSize) {
+                full = batches.remove(prefix);
+            }
+        }
+        if (full != null) {
+            upload(prefix, full);
+        }
+    }
+
+    public void flush()
+    {
+        Map<LogFilePrefix, Batch> pending;
+        synchronized (this) {
+            if (batches.isEmpty()) {
+                return;
+            }
+            pending = new HashMap<>(batches);
+            batches.clear();
+        }
+        pending.forEach((prefix, batch) -> upload(prefix, batch));
+    }
+
+    private void upload(LogFilePrefix prefix, Batch batch)
+    {
+        try {
+            logServer.putBatchFile(prefix, batch.firstLogTime, agentId, batch.fileNames, batch.gzData);
+        }
+        catch (IOException | RuntimeException ex) {
+            logger.warn("Failed to upload a batch of {} task log files. Uploading them one by one", batch.fileNames.size(), ex);
+            for (int i = 0; i < batch.fileNames.size(); i++) {
+                try {
+                    logServer.putFile(prefix, batch.taskNames.get(i), batch.firstLogTimes.get(i), agentId, batch.gzData.get(i));
+                }
+                catch (RuntimeException fileEx) {
+                    logger.warn("Failed to upload task log file {}", batch.fileNames.get(i), fileEx);
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,13 @@ public class LogFiles
 
     public static final String LOG_GZ_FILE_SUFFIX = ".log.gz";
 
+    public static final String BATCH_FILE_PREFIX = "batch@";
+
+    public static final String BATCH_FILE_SUFFIX = ".logs";
+
+    // separates name of a log file in a batch file and name of the batch file
+    private static final String BATCH_ENTRY_SEPARATOR = "~";
+
     private static DateTimeFormatter CREATE_TIME_FORMATTER =
         DateTimeFormatter.ofPattern("yyyy-MM-dd", ENGLISH)
         .withZone(ZoneId.of("UTC"));
@@ -62,6 +69,46 @@ public class LogFiles
                 agentId) + LOG_GZ_FILE_SUFFIX;
     }
 
+    public static String formatBatchFileName(Instant firstLogTime, String agentId)
+    {
+        return String.format(ENGLISH,
+                "%s%08x%08x.%s",
+                BATCH_FILE_PREFIX,
+                firstLogTime.getEpochSecond(),
+                firstLogTime.getNano(),
+                agentId) + BATCH_FILE_SUFFIX;
+    }
+
+    public static boolean isBatchFileName(String fileName)
+    {
+        return fileName.startsWith(BATCH_FILE_PREFIX) && fileName.endsWith(BATCH_FILE_SUFFIX);
+    }
+
+    // name of a log file stored in a batch file. it starts with the original
+    // file name so that it's sorted in the same order with other files.
+    public static String formatBatchEntryFileName(String fileName, String batchFileName)
+    {
+        return fileName + BATCH_ENTRY_SEPARATOR + batchFileName;
+    }
+
+    public static Optional<String> getBatchFileNameOfEntry(String entryFileName)
+    {
+        int pos = entryFileName.lastIndexOf(BATCH_ENTRY_SEPARATOR);
+        if (pos < 0) {
+            return Optional.absent();
+        }
+        String batchFileName = entryFileName.substring(pos + BATCH_ENTRY_SEPARATOR.length());
+        if (!isBatchFileName(batchFileName)) {
+            return Optional.absent();
+        }
+        return Optional.of(batchFileName);
+    }
+
+    public static String getFileNameOfEntry(String entryFileName)
+    {
+        return entryFileName.substring(0, entryFileName.lastIndexOf(BATCH_ENTRY_SEPARATOR));
+    }
+
     public static LogFileHandle buildLogFileHandleFromFileName(String fileName, long fileSize)
     {
         // TODO use regexp for reliable parsing logic
@@ -1,6 +1,17 @@
 package io.digdag.core.log;
 
+import java.util.Map;
 import java.util.Set;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import javax.annotation.PreDestroy;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import io.digdag.core.session.StoredSessionAttemptWithSession;
 import io.digdag.spi.LogServer;
@@ -15,11 +26,21 @@ import io.digdag.core.storage.StorageManager;
 import io.digdag.core.log.NullLogServerFactory.NullLogServer;
 import io.digdag.core.log.LocalFileLogServerFactory.LocalFileLogServer;
 import io.digdag.core.TempFileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class LogServerManager
 {
+    private static final Logger logger = LoggerFactory.getLogger(LogServerManager.class);
+
     private final LogServer logServer;
     private final TempFileManager tempFiles;
+    private final int bufferCompressionLevel;
+    private final long bufferFlushIntervalMillis;
+    private final ScheduledExecutorService bufferFlushScheduler;
+    private final int batchMaxFileSize;
+    private final Map<String, LogBatchUploader> batchUploaders = new ConcurrentHashMap<>();
+    private final long batchMaxSize;
 
     @Inject
     public LogServerManager(Set<LogServerFactory> factories, Config systemConfig, TempFileManager tempFiles,
@@ -34,6 +55,58 @@ public class LogServerManager
             this.logServer = factory.getLogServer();
         }
         this.tempFiles = tempFiles;
+        // gzip level of log chunks uploaded by agents. 1 (fastest) to 9 (smallest), 0 (no compression)
+        // or -1 (default of zlib).
+        this.bufferCompressionLevel = systemConfig.get("log-server.buffer.compression_level", int.class, Deflater.DEFAULT_COMPRESSION);
+        if (bufferCompressionLevel < Deflater.DEFAULT_COMPRESSION || bufferCompressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new ConfigException("log-server.buffer.compression_level must be between -1 and 9: " + bufferCompressionLevel);
+        }
+        // seconds. buffered logs are uploaded at least this often. 0 uploads only when the buffer is full or the task ends.
+        this.bufferFlushIntervalMillis = systemConfig.get("log-server.buffer.flush_interval", int.class, 60) * 1000L;
+        // number of threads that upload buffered logs and batch files by time. An upload blocks
+        // the thread until it completes. multiple threads keep a slow upload from delaying the others.
+        int flushThreads = systemConfig.get("log-server.buffer.flush_threads", int.class, 4);
+        if (flushThreads < 1) {
+            throw new ConfigException("log-server.buffer.flush_threads must be greater than 0: " + flushThreads);
+        }
+        this.bufferFlushScheduler = Executors.newScheduledThreadPool(flushThreads,
+                new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("log-flush-%d")
+                .build()
+                );
+        // bytes. last log chunks of tasks smaller than this are uploaded together in a batch file
+        // instead of one file per task. 0 disables batching.
+        this.batchMaxFileSize = systemConfig.get("log-server.batch.max_file_size", int.class, 64 * 1024);
+        // bytes. a batch file is uploaded when its size exceeds this.
+        this.batchMaxSize = systemConfig.get("log-server.batch.max_size", long.class, 1024L * 1024);
+        // seconds. batched logs are uploaded at least this often. 0 uploads only when a batch is full.
+        // until then, last logs of finished tasks are kept only in memory and they are lost if
+        // this process crashes. shutdown uploads them.
+        long batchFlushIntervalSeconds = systemConfig.get("log-server.batch.flush_interval", int.class, 10);
+        if (batchMaxFileSize > 0 && logServer instanceof StorageFileLogServer && batchFlushIntervalSeconds > 0) {
+            bufferFlushScheduler.scheduleWithFixedDelay(() -> flushBatches(),
+                    batchFlushIntervalSeconds, batchFlushIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        bufferFlushScheduler.shutdown();
+        flushBatches();
+    }
+
+    private void flushBatches()
+    {
+        for (LogBatchUploader uploader : batchUploaders.values()) {
+            try {
+                uploader.flush();
+            }
+            catch (RuntimeException ex) {
+                logger.warn("Failed to upload batched task logs", ex);
+            }
+        }
     }
 
     private static LogServerFactory findLogServer(Set<LogServerFactory> factories, String type)
@@ -77,11 +150,32 @@ public class LogServerManager
             return ((LocalFileLogServer) logServer).newDirectTaskLogger(prefix, taskName);
         }
         else {
+            Optional<LogBatchUploader> batchUploader = getBatchUploader(agentId);
             return new BufferedRemoteTaskLogger(tempFiles, taskName,
-                    (firstLogTime, gzData) -> {
-                        logServer.putFile(prefix, taskName, firstLogTime, agentId.toString(), gzData);
-                    });
+                    (firstLogTime, contentLength, gzData, lastChunk) -> {
+                        if (lastChunk && batchUploader.isPresent() && contentLength <= batchMaxFileSize) {
+                            // short tasks create many small files. upload them together
+                            byte[] data;
+                            try (InputStream in = gzData.open()) {
+                                data = ByteStreams.toByteArray(in);
+                            }
+                            batchUploader.get().add(prefix, taskName, firstLogTime, data);
+                        }
+                        else {
+                            logServer.putFile(prefix, taskName, firstLogTime, agentId.toString(), contentLength, gzData);
+                        }
+                    },
+                    bufferCompressionLevel, Optional.of(bufferFlushScheduler), bufferFlushIntervalMillis);
+        }
+    }
+
+    private Optional<LogBatchUploader> getBatchUploader(AgentId agentId)
+    {
+        if (batchMaxFileSize <= 0 || !(logServer instanceof StorageFileLogServer)) {
+            return Optional.absent();
         }
+        return Optional.of(batchUploaders.computeIfAbsent(agentId.toString(),
+                    (id) -> new LogBatchUploader((AbstractFileLogServer) logServer, id, batchMaxSize)));
     }
 
     public static LogFilePrefix logFilePrefixFromSessionAttempt(
@@ -1,7 +1,6 @@
 package io.digdag.core.log;
 
 import java.io.InputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import com.google.common.io.ByteStreams;
@@ -12,6 +11,7 @@ import io.digdag.spi.DirectUploadHandle;
 import io.digdag.spi.Storage;
 import io.digdag.spi.StorageObject;
 import io.digdag.spi.StorageFileNotFoundException;
+import io.digdag.spi.Storage.UploadStreamProvider;
 
 public class StorageFileLogServer
         extends AbstractFileLogServer
@@ -38,11 +38,11 @@ public class StorageFileLogServer
     }
 
     @Override
-    protected void putFile(String dateDir, String attemptDir, String fileName, byte[] gzData)
+    protected void putFile(String dateDir, String attemptDir, String fileName, long contentLength, UploadStreamProvider gzData)
     {
         String path = getPrefixDir(dateDir, attemptDir) + fileName;
         try {
-            storage.put(path, gzData.length, () -> new ByteArrayInputStream(gzData));
+            storage.put(path, contentLength, gzData);
         }
         catch (Throwable ex) {
             throw Throwables.propagate(ex);
@@ -71,11 +71,32 @@ public class StorageFileLogServer
     }
 
     @Override
-    protected void listFiles(String dateDir, String attemptDir, FileMetadataConsumer consumer)
+    protected InputStream openFile(String dateDir, String attemptDir, String fileName)
+        throws StorageFileNotFoundException
+    {
+        String path = getPrefixDir(dateDir, attemptDir) + fileName;
+        return storage.open(path).getContentInputStream();
+    }
+
+    @Override
+    protected InputStream openFileRange(String dateDir, String attemptDir, String fileName, long offset, long length)
+        throws StorageFileNotFoundException
+    {
+        String path = getPrefixDir(dateDir, attemptDir) + fileName;
+        try {
+            return storage.openRange(path, offset, length);
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    @Override
+    protected void listFiles(String dateDir, String attemptDir, Optional<String> fileNamePrefix, FileMetadataConsumer consumer)
     {
         String dir = getPrefixDir(dateDir, attemptDir);
 
-        storage.list(dir, (chunk) -> {
+        storage.list(dir + fileNamePrefix.or(""), (chunk) -> {
             chunk.forEach(meta -> {
                     String key = meta.getKey();
                     String fileName = key.substring(dir.length());
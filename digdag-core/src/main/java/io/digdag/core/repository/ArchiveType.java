@@ -8,6 +8,9 @@ public class ArchiveType
 {
     public static final ArchiveType DB = ArchiveType.of("db");
 
+    // archive data stored in db is an ArchiveManifest. files are stored in project_archive_files
+    public static final ArchiveType FILES = ArchiveType.of("files");
+
     public static final ArchiveType NONE = ArchiveType.of("none");
 
     @JsonCreator
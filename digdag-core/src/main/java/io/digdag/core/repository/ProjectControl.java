@@ -2,6 +2,7 @@ package io.digdag.core.repository;
 
 import java.util.HashMap;
 import java.util.List;
+import java.io.InputStream;
 import java.util.Map;
 import java.time.Instant;
 import com.google.common.collect.ImmutableList;
@@ -62,6 +63,12 @@ public class ProjectControl
         store.insertRevisionArchiveData(revId, data);
     }
 
+    public void insertRevisionArchiveData(int revId, InputStream data, int length)
+        throws ResourceConflictException
+    {
+        store.insertRevisionArchiveData(revId, data, length);
+    }
+
     public List<StoredWorkflowDefinition> insertWorkflowDefinitions(
             StoredRevision revision, List<WorkflowDefinition> defs,
             SchedulerManager srm, Instant currentTime)
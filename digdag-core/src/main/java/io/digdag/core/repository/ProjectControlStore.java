@@ -1,6 +1,7 @@
 package io.digdag.core.repository;
 
 import java.util.List;
+import java.io.InputStream;
 import java.time.ZoneId;
 import java.time.Instant;
 import com.google.common.base.Optional;
@@ -16,6 +17,9 @@ public interface ProjectControlStore
     void insertRevisionArchiveData(int revId, byte[] data)
             throws ResourceConflictException;
 
+    void insertRevisionArchiveData(int revId, InputStream data, int length)
+            throws ResourceConflictException;
+
     StoredWorkflowDefinition insertWorkflowDefinition(int projId, int revId, WorkflowDefinition workflow, ZoneId workflowTimeZone)
         throws ResourceConflictException;
 
@@ -1,5 +1,6 @@
 package io.digdag.core.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.time.ZoneId;
@@ -50,6 +51,16 @@ public interface ProjectStore
     byte[] getRevisionArchiveData(int revId)
             throws ResourceNotFoundException;
 
+    // content-addressed files of projects. see ArchiveManifest
+    List<String> getMissingArchiveFileHashes(List<String> hashes);
+
+    void putArchiveFile(String hash, byte[] data);
+
+    Map<String, byte[]> getArchiveFiles(Collection<String> hashes);
+
+    // returns sizes of stored files in bytes. missing files are not included
+    Map<String, Long> getArchiveFileSizes(Collection<String> hashes);
+
 
     List<StoredWorkflowDefinition> getWorkflowDefinitions(int revId, int pageSize, Optional<Long> lastId);
 
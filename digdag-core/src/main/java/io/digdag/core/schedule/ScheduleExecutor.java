@@ -4,9 +4,13 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Locale;
 import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.time.Duration;
 import java.time.Instant;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -14,6 +18,7 @@ import com.google.inject.Inject;
 import com.google.common.base.*;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.digdag.client.config.Config;
 import io.digdag.core.ErrorReporter;
 import io.digdag.spi.ScheduleTime;
 import io.digdag.spi.Scheduler;
@@ -33,6 +38,8 @@ import io.digdag.core.session.StoredSessionAttemptWithSession;
 import io.digdag.core.session.ImmutableStoredSessionAttempt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 import static java.util.Locale.ENGLISH;
 
 public class ScheduleExecutor
@@ -45,7 +52,11 @@ public class ScheduleExecutor
     private final SchedulerManager srm;
     private final ScheduleHandler handler;
     private final SessionStoreManager sessionStoreManager;  // used for validation in backfill method
+    private final int maxThreads;
+    private final int batchSize;
+    private final ScheduleLagHistogram lagHistogram = new ScheduleLagHistogram();
     private ScheduledExecutorService executor;
+    private ExecutorService workerPool;
 
     @Inject(optional = true)
     private ErrorReporter errorReporter = ErrorReporter.empty();
@@ -56,13 +67,26 @@ public class ScheduleExecutor
             ScheduleStoreManager sm,
             SchedulerManager srm,
             ScheduleHandler handler,
-            SessionStoreManager sessionStoreManager)
+            SessionStoreManager sessionStoreManager,
+            Config systemConfig)
     {
         this.rm = rm;
         this.sm = sm;
         this.srm = srm;
         this.handler = handler;
         this.sessionStoreManager = sessionStoreManager;
+        // number of threads that start schedules in parallel. each thread uses
+        // up to 2 database connections.
+        this.maxThreads = systemConfig.get("scheduler.max_threads", int.class, 8);
+        // number of ready schedules listed at once
+        this.batchSize = systemConfig.get("scheduler.batch_size", int.class, 100);
+    }
+
+    @Managed
+    @Nested
+    public ScheduleLagHistogram getScheduleLag()
+    {
+        return lagHistogram;
     }
 
     @PostConstruct
@@ -76,6 +100,14 @@ public class ScheduleExecutor
                     .build()
                     );
         }
+        if (workerPool == null) {
+            workerPool = Executors.newFixedThreadPool(maxThreads,
+                    new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("schedule-worker-%d")
+                    .build()
+                    );
+        }
         // TODO make interval configurable?
         executor.scheduleWithFixedDelay(() -> run(),
                 1, 1, TimeUnit.SECONDS);
@@ -89,6 +121,10 @@ public class ScheduleExecutor
             // TODO wait for shutdown completion?
             executor = null;
         }
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
     }
 
     @Override
@@ -99,10 +135,28 @@ public class ScheduleExecutor
 
     public void run()
     {
+        ExecutorService pool;
+        synchronized (this) {
+            pool = workerPool;
+        }
+        if (pool == null) {
+            return;
+        }
+
         try {
-            sm.lockReadySchedules(Instant.now(), (store, storedSchedule) -> {
-                runSchedule(new ScheduleControl(store, storedSchedule));
-            });
+            Instant now = Instant.now();
+            while (true) {
+                List<Integer> readyIds = sm.getReadyScheduleIds(now, batchSize);
+                int started = runSchedules(pool, readyIds, now);
+                // continue if more schedules may be ready. stop if nothing was
+                // started because the rest is locked by other servers.
+                if (readyIds.size() < batchSize || started == 0) {
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
         catch (Throwable t) {
             logger.error("An uncaught exception is ignored. Scheduling will be retried.", t);
@@ -110,6 +164,35 @@ public class ScheduleExecutor
         }
     }
 
+    // starts schedules in parallel. each schedule is locked and updated in
+    // its own transaction so that a slow schedule doesn't delay the others.
+    private int runSchedules(ExecutorService pool, List<Integer> schedIds, Instant now)
+        throws InterruptedException
+    {
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int schedId : schedIds) {
+            futures.add(pool.submit(() ->
+                sm.lockReadyScheduleById(schedId, now, (store, storedSchedule) -> {
+                    lagHistogram.add(Duration.between(storedSchedule.getNextRunTime(), Instant.now()).toMillis());
+                    runSchedule(new ScheduleControl(store, storedSchedule));
+                })));
+        }
+
+        int started = 0;
+        for (Future<Boolean> future : futures) {
+            try {
+                if (future.get()) {
+                    started++;
+                }
+            }
+            catch (ExecutionException ex) {
+                logger.error("An uncaught exception is ignored. Scheduling will be retried.", ex.getCause());
+                errorReporter.reportUncaughtError(ex.getCause());
+            }
+        }
+        return started;
+    }
+
     private void runSchedule(ScheduleControl lockedSched)
     {
         StoredSchedule sched = lockedSched.get();
@@ -3,6 +3,7 @@ package io.digdag.core.schedule;
 import com.google.inject.Module;
 import com.google.inject.Binder;
 import com.google.inject.Scopes;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class ScheduleExecutorModule
         implements Module
@@ -12,5 +13,6 @@ public class ScheduleExecutorModule
     {
         binder.bind(ScheduleHandler.class).in(Scopes.SINGLETON);
         binder.bind(ScheduleExecutor.class).asEagerSingleton();
+        newExporter(binder).export(ScheduleExecutor.class).withGeneratedName();
     }
 }
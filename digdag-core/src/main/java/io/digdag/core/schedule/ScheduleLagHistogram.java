@@ -0,0 +1,101 @@
+package io.digdag.core.schedule;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.weakref.jmx.Managed;
+
+/**
+ * Histogram of delay from next_run_time of a schedule to the time when
+ * ScheduleExecutor actually starts it.
+ */
+public class ScheduleLagHistogram
+{
+    // upper bounds of buckets in seconds. the last bucket counts the rest.
+    private static final long[] BOUNDS = { 1, 5, 10, 30, 60, 300, 900 };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong totalLagMillis = new AtomicLong(0L);
+    private final AtomicLong maxLagMillis = new AtomicLong(0L);
+
+    public void add(long lagMillis)
+    {
+        long lag = Math.max(lagMillis, 0L);
+        int i = 0;
+        while (i < BOUNDS.length && lag > BOUNDS[i] * 1000) {
+            i++;
+        }
+        counts.incrementAndGet(i);
+        totalLagMillis.addAndGet(lag);
+        maxLagMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    @Managed
+    public long getCount()
+    {
+        long sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            sum += counts.get(i);
+        }
+        return sum;
+    }
+
+    @Managed
+    public long getTotalLagMillis()
+    {
+        return totalLagMillis.get();
+    }
+
+    @Managed
+    public long getMaxLagMillis()
+    {
+        return maxLagMillis.get();
+    }
+
+    @Managed
+    public long getLagUpTo1s()
+    {
+        return counts.get(0);
+    }
+
+    @Managed
+    public long getLagUpTo5s()
+    {
+        return counts.get(1);
+    }
+
+    @Managed
+    public long getLagUpTo10s()
+    {
+        return counts.get(2);
+    }
+
+    @Managed
+    public long getLagUpTo30s()
+    {
+        return counts.get(3);
+    }
+
+    @Managed
+    public long getLagUpTo1m()
+    {
+        return counts.get(4);
+    }
+
+    @Managed
+    public long getLagUpTo5m()
+    {
+        return counts.get(5);
+    }
+
+    @Managed
+    public long getLagUpTo15m()
+    {
+        return counts.get(6);
+    }
+
+    @Managed
+    public long getLagOver15m()
+    {
+        return counts.get(7);
+    }
+}
@@ -16,5 +16,12 @@ public interface ScheduleStoreManager
         void schedule(ScheduleControlStore store, StoredSchedule schedule);
     }
 
-    void lockReadySchedules(Instant currentTime, ScheduleAction func);
+    // lists ids of schedules whose next_run_time is before currentTime
+    // without locking them. The oldest comes first.
+    List<Integer> getReadyScheduleIds(Instant currentTime, int limit);
+
+    // locks a schedule and calls func in a transaction if it's still ready.
+    // Returns false without calling func if the schedule is locked by another
+    // transaction or it's not ready any more.
+    boolean lockReadyScheduleById(int schedId, Instant currentTime, ScheduleAction func);
 }
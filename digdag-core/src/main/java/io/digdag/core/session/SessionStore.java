@@ -1,6 +1,8 @@
 package io.digdag.core.session;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 import java.time.Instant;
 import com.google.common.base.*;
 import io.digdag.core.repository.ResourceConflictException;
@@ -39,6 +41,10 @@ public interface SessionStore
 
     List<ArchivedTask> getTasksOfAttempt(long attemptId);
 
+    List<ArchivedTask> getTasksOfAttempt(long attemptId, Collection<Long> taskIds);
+
+    void forEachTaskOfAttempt(long attemptId, Consumer<ArchivedTask> action);
+
     long getActiveAttemptCount();
 
     interface SessionLockAction <T>
@@ -27,9 +27,6 @@ public interface SessionStoreManager
     // for WorkflowExecutor.runUntilAny
     boolean isAnyNotDoneAttempts();
 
-    // for WorkflowExecutor.enqueueReadyTasks
-    List<Long> findAllReadyTaskIds(int maxEntries);
-
     interface AttemptLockAction <T>
     {
         T call(SessionAttemptControlStore store, SessionAttemptSummary summary);
@@ -41,7 +38,7 @@ public interface SessionStoreManager
     // for WorkflowExecutorManager.IncrementalStatusPropagator.propagateStatus
     List<TaskStateSummary> findRecentlyChangedTasks(Instant updatedSince, long lastId);
 
-    // for WorkflowExecutorManager.propagateAllPlannedToDone
+    // for WorkflowExecutorManager.propagateAllPlannedToDone and WorkflowExecutor.enqueueReadyTasks
     List<Long> findTasksByState(TaskStateCode state, long lastId);
 
     // for WorkflowExecutorManager.propagateSessionArchive
@@ -70,6 +67,24 @@ public interface SessionStoreManager
     // overload for taskFinished
     <T> Optional<T> lockTaskIfExists(long taskId, TaskLockActionWithDetails<T> func);
 
+    interface TaskListLockAction <T>
+    {
+        T call(TaskControlStore lockedTasks, List<Long> lockedTaskIds);
+    }
+
+    interface TaskListLockActionWithDetails <T>
+    {
+        T call(TaskControlStore lockedTasks, List<StoredTask> storedTasks);
+    }
+
+    // locks multiple tasks in a transaction. tasks that don't exist are
+    // excluded from lockedTaskIds.
+    // for WorkflowExecutor.propagateBlockedChildrenToReady
+    <T> T lockTasksIfExist(List<Long> taskIds, TaskListLockAction<T> func);
+
+    // for WorkflowExecutor.propagateAllPlannedToDone
+    <T> T lockTasksWithDetailsIfExist(List<Long> taskIds, TaskListLockActionWithDetails<T> func);
+
     interface SessionMonitorAction
     {
         // returns next run time
@@ -80,6 +95,11 @@ public interface SessionStoreManager
 
     List<TaskRelation> getTaskRelations(long attemptId);
 
+    // relations of tasks whose id is greater than lastId in ascending order of id
+    List<TaskRelation> getTaskRelations(long attemptId, long lastId);
+
+    long getTaskCountOfAttempt(long attemptId);
+
     List<Config> getExportParams(List<Long> idList);
 
     List<ParameterUpdate> getStoreParams(List<Long> idList);
@@ -28,11 +28,17 @@ public interface TaskControlStore
     // return true if one or more child task is progressible.
     boolean isAnyProgressibleChild(long taskId);
 
+    // return tasks that don't have progressible children out of the given tasks.
+    List<Long> findTasksWithoutProgressibleChild(List<Long> taskIds);
+
     // return true if one or more child task is ERROR or GROUP_ERROR state.
     boolean isAnyErrorChild(long taskId);
 
     int trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(long taskId);
 
+    // set-based version of trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled
+    int trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(List<Long> taskIds);
+
     // getChildErrors including this task's error
     List<Config> collectChildrenErrors(long taskId);
 
@@ -2,16 +2,26 @@ package io.digdag.core.storage;
 
 import java.io.IOException;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.digdag.core.archive.ArchiveManifest;
+import io.digdag.core.archive.ArchiveManifestEntry;
 import io.digdag.core.repository.ArchiveType;
 import io.digdag.core.repository.ProjectStore;
 import io.digdag.core.repository.StoredRevision;
@@ -22,6 +32,11 @@ import io.digdag.spi.DirectDownloadHandle;
 import io.digdag.spi.Storage;
 import io.digdag.spi.StorageObject;
 import io.digdag.spi.StorageFileNotFoundException;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.weakref.jmx.Managed;
 import static java.util.Locale.ENGLISH;
 import static io.digdag.core.storage.StorageManager.decodeHex;
 
@@ -56,6 +71,8 @@ public class ArchiveManager
 
     public interface StoredArchive
     {
+        // The returned array may be shared with the archive data cache and
+        // other callers. Callers must not modify it.
         Optional<byte[]> getByteArray();
 
         Optional<DirectDownloadHandle> getDirectDownloadHandle();
@@ -66,13 +83,52 @@ public class ArchiveManager
     private final StorageManager storageManager;
     private final ArchiveType uploadArchiveType;
     private final Config systemConfig;
+    private final ObjectMapper mapper;
+    private final Optional<Cache<Integer, byte[]>> archiveDataCache;
+
+    private final AtomicLong archiveDataCacheHitCount = new AtomicLong(0L);
+    private final AtomicLong archiveDataCacheMissCount = new AtomicLong(0L);
+    private final AtomicLong archiveDataCacheHitBytes = new AtomicLong(0L);
 
     @Inject
-    public ArchiveManager(StorageManager storageManager, Config systemConfig)
+    public ArchiveManager(StorageManager storageManager, Config systemConfig, ObjectMapper mapper)
     {
         this.storageManager = storageManager;
         this.systemConfig = systemConfig;
+        this.mapper = mapper;
         this.uploadArchiveType = systemConfig.get("archive.type", ArchiveType.class, ArchiveType.DB);
+        // total size of archive data cached on heap in bytes. 0 disables the cache.
+        long cacheMaxSize = systemConfig.get("archive.db.cache.max_size", long.class, 128L * 1024 * 1024);
+        if (cacheMaxSize > 0) {
+            // revisions are immutable. cached data never becomes stale.
+            // cached arrays are returned to callers without copying. they
+            // must not be modified (see StoredArchive.getByteArray).
+            this.archiveDataCache = Optional.of(CacheBuilder.newBuilder()
+                    .maximumWeight(cacheMaxSize)
+                    .weigher((Integer revId, byte[] data) -> data.length)
+                    .build());
+        }
+        else {
+            this.archiveDataCache = Optional.absent();
+        }
+    }
+
+    @Managed
+    public long getArchiveDataCacheHitCount()
+    {
+        return archiveDataCacheHitCount.get();
+    }
+
+    @Managed
+    public long getArchiveDataCacheMissCount()
+    {
+        return archiveDataCacheMissCount.get();
+    }
+
+    @Managed
+    public long getArchiveDataCacheHitBytes()
+    {
+        return archiveDataCacheHitBytes.get();
     }
 
     public Location newArchiveLocation(
@@ -113,8 +169,8 @@ public class ArchiveManager
         if (type.equals(ArchiveType.NONE)) {
             return Optional.absent();
         }
-        else if (type.equals(ArchiveType.DB)) {
-            byte[] data = ps.getRevisionArchiveData(rev.getId());
+        else if (type.equals(ArchiveType.DB) || type.equals(ArchiveType.FILES)) {
+            byte[] data = getRevisionArchiveData(ps, rev);
             return Optional.of(
                     new StorageObject(
                         new ByteArrayInputStream(data),
@@ -126,6 +182,17 @@ public class ArchiveManager
         }
     }
 
+    public Optional<byte[]> getArchiveMd5(ProjectStore ps, int projectId, String revisionName)
+        throws ResourceNotFoundException
+    {
+        StoredRevision rev = findRevision(ps, projectId, revisionName);
+
+        if (rev.getArchiveType().equals(ArchiveType.NONE)) {
+            return Optional.absent();
+        }
+        return rev.getArchiveMd5();
+    }
+
     public Optional<StoredArchive> getArchive(ProjectStore ps, int projectId, String revisionName)
         throws ResourceNotFoundException
     {
@@ -135,8 +202,8 @@ public class ArchiveManager
         if (type.equals(ArchiveType.NONE)) {
             return Optional.absent();
         }
-        else if (type.equals(ArchiveType.DB)) {
-            byte[] data = ps.getRevisionArchiveData(rev.getId());
+        else if (type.equals(ArchiveType.DB) || type.equals(ArchiveType.FILES)) {
+            byte[] data = getRevisionArchiveData(ps, rev);
             return Optional.of(new StoredArchive() {
                 public Optional<byte[]> getByteArray()
                 {
@@ -176,6 +243,100 @@ public class ArchiveManager
         }
     }
 
+    private byte[] getRevisionArchiveData(ProjectStore ps, StoredRevision rev)
+        throws ResourceNotFoundException
+    {
+        if (!archiveDataCache.isPresent()) {
+            return loadRevisionArchiveData(ps, rev);
+        }
+
+        byte[] data = archiveDataCache.get().getIfPresent(rev.getId());
+        if (data != null) {
+            archiveDataCacheHitCount.incrementAndGet();
+            archiveDataCacheHitBytes.addAndGet(data.length);
+            return data;
+        }
+        archiveDataCacheMissCount.incrementAndGet();
+        data = loadRevisionArchiveData(ps, rev);
+        archiveDataCache.get().put(rev.getId(), data);
+        return data;
+    }
+
+    private byte[] loadRevisionArchiveData(ProjectStore ps, StoredRevision rev)
+        throws ResourceNotFoundException
+    {
+        byte[] data = ps.getRevisionArchiveData(rev.getId());
+        if (rev.getArchiveType().equals(ArchiveType.FILES)) {
+            // archive data of a FILES revision is a manifest
+            try {
+                return assembleArchive(ps, mapper.readValue(data, ArchiveManifest.class));
+            }
+            catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+        }
+        return data;
+    }
+
+    public byte[] formatManifest(ArchiveManifest manifest)
+    {
+        try {
+            return mapper.writeValueAsBytes(manifest);
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    public static List<String> getFileHashes(ArchiveManifest manifest)
+    {
+        return manifest.getEntries().stream()
+            .filter(entry -> entry.getHash().isPresent())
+            .map(entry -> entry.getHash().get())
+            .distinct()
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Builds a tar.gz archive from files stored in the project store.
+     *
+     * Entries are written in the order of the manifest without timestamps
+     * so that a manifest always builds the same archive.
+     */
+    public static byte[] assembleArchive(ProjectStore ps, ArchiveManifest manifest)
+        throws IOException
+    {
+        Map<String, byte[]> files = ps.getArchiveFiles(getFileHashes(manifest));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(out))) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            for (ArchiveManifestEntry entry : manifest.getEntries()) {
+                if (entry.getLinkName().isPresent()) {
+                    TarArchiveEntry e = new TarArchiveEntry(entry.getName(), TarConstants.LF_SYMLINK);
+                    e.setLinkName(entry.getLinkName().get());
+                    e.setModTime(0L);
+                    tar.putArchiveEntry(e);
+                    tar.closeArchiveEntry();
+                }
+                else {
+                    byte[] data = files.get(entry.getHash().get());
+                    if (data == null) {
+                        throw new IllegalStateException("Project archive file is not stored: " + entry.getName());
+                    }
+                    TarArchiveEntry e = new TarArchiveEntry(entry.getName());
+                    e.setMode(entry.getMode());
+                    e.setSize(data.length);
+                    e.setModTime(0L);
+                    tar.putArchiveEntry(e);
+                    tar.write(data);
+                    tar.closeArchiveEntry();
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
     private StoredRevision findRevision(ProjectStore ps, int projectId, String revisionName)
         throws ResourceNotFoundException
     {
@@ -6,6 +6,7 @@ import com.google.inject.Binder;
 import com.google.inject.Scopes;
 import com.google.inject.multibindings.Multibinder;
 import io.digdag.spi.StorageFactory;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class StorageModule
         implements Module
@@ -15,6 +16,7 @@ public class StorageModule
     {
         binder.bind(StorageManager.class).in(Scopes.SINGLETON);
         binder.bind(ArchiveManager.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ArchiveManager.class).withGeneratedName();
         Multibinder.newSetBinder(binder, StorageFactory.class);
     }
 }
@@ -202,7 +202,7 @@ public class TaskControl
     {
         Set<Long> idSet = new HashSet<>(resumingTaskIds);
         List<ResumingTask> resumingTasks = store
-            .getTasksOfAttempt(attemptId)
+            .getTasksOfAttempt(attemptId, resumingTaskIds)
             .stream()
             .filter(archived -> {
                 if (idSet.remove(archived.getId())) {
@@ -1,5 +1,6 @@
 package io.digdag.core.workflow;
 
+import java.util.Collection;
 import java.util.Objects;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +12,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import io.digdag.core.session.TaskRelation;
 
@@ -22,14 +25,32 @@ public class TaskTree
     }
 
     private final Map<Long, TaskRelation> map;
+    private final ListMultimap<Long, TaskRelation> children;
 
     public TaskTree(List<TaskRelation> rels)
     {
         ImmutableMap.Builder<Long, TaskRelation> builder = ImmutableMap.builder();
+        ImmutableListMultimap.Builder<Long, TaskRelation> childrenBuilder = ImmutableListMultimap.builder();
         for (TaskRelation rel : rels) {
             builder.put(rel.getId(), rel);
+            if (rel.getParentId().isPresent()) {
+                childrenBuilder.put(rel.getParentId().get(), rel);
+            }
         }
         this.map = builder.build();
+        // children are indexed by parent id so that walking a subtree doesn't
+        // scan all tasks of the attempt. Order of rels is kept.
+        this.children = childrenBuilder.build();
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public boolean contains(long id)
+    {
+        return map.containsKey(id);
     }
 
     public long getRootTaskId()
@@ -96,12 +117,9 @@ public class TaskTree
 
     public <T> T walkChildrenRecursively(long id, T value, Walker<T> walker)
     {
-        for (TaskRelation rel : map.values()) {
-            if (rel.getParentId().isPresent() && rel.getParentId().get() == id) {
-                TaskRelation child = rel;
-                value = walker.walk(value, child);
-                value = walkChildrenRecursively(child.getId(), value, walker);
-            }
+        for (TaskRelation child : children.get(id)) {
+            value = walker.walk(value, child);
+            value = walkChildrenRecursively(child.getId(), value, walker);
         }
         return value;
     }
@@ -113,9 +131,16 @@ public class TaskTree
 
     private <T> T walkUpstreamSiblings(long id, T value, Walker<T> walker, Set<Long> walkedSet)
     {
-        Set<Long> upstreams = ImmutableSet.copyOf(get(id).getUpstreams());
-        for (TaskRelation rel : map.values()) {
-            // here uses order of map.values instead of order of get(id).getUpstreams
+        TaskRelation node = get(id);
+        Set<Long> upstreams = ImmutableSet.copyOf(node.getUpstreams());
+        if (upstreams.isEmpty()) {
+            return value;
+        }
+        // upstreams are always siblings
+        Collection<TaskRelation> siblings = node.getParentId().isPresent() ?
+            children.get(node.getParentId().get()) : map.values();
+        for (TaskRelation rel : siblings) {
+            // here uses order of siblings instead of order of get(id).getUpstreams
             // so that farther (younger) siblings always comes first
             if (upstreams.contains(rel.getId())) {
                 // here has deduplication because upstream ids could include
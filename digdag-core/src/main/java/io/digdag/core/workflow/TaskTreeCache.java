@@ -0,0 +1,89 @@
+package io.digdag.core.workflow;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.TaskRelation;
+
+/**
+ * Caches TaskTree of attempts.
+ *
+ * Relations of tasks don't change once they're inserted and tasks are never
+ * removed from an attempt until the attempt is archived. Thus a cached tree is
+ * up to date if number of tasks in the attempt is same with the tree. If tasks
+ * are added (e.g. by ^sub, ^error or retry of a group), relations of the new
+ * tasks are appended to the cached tree instead of loading all tasks again.
+ */
+public class TaskTreeCache
+{
+    private final SessionStoreManager sm;
+    private final Cache<Long, Entry> cache;
+
+    public TaskTreeCache(SessionStoreManager sm, int maxAttempts)
+    {
+        this.sm = sm;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maxAttempts)
+            .build();
+    }
+
+    public TaskTree getTaskTree(long attemptId)
+    {
+        Entry entry;
+        try {
+            entry = cache.get(attemptId, () -> new Entry(attemptId));
+        }
+        catch (UncheckedExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+        catch (ExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+        return entry.update();
+    }
+
+    public void invalidate(long attemptId)
+    {
+        cache.invalidate(attemptId);
+    }
+
+    private class Entry
+    {
+        private final long attemptId;
+        private List<TaskRelation> relations = ImmutableList.of();
+        private TaskTree tree = new TaskTree(ImmutableList.of());
+
+        public Entry(long attemptId)
+        {
+            this.attemptId = attemptId;
+        }
+
+        public synchronized TaskTree update()
+        {
+            long count = sm.getTaskCountOfAttempt(attemptId);
+            if (count == relations.size()) {
+                return tree;
+            }
+
+            long lastId = relations.isEmpty() ? 0L : relations.get(relations.size() - 1).getId();
+            List<TaskRelation> merged = ImmutableList.copyOf(Iterables.concat(
+                        relations,
+                        sm.getTaskRelations(attemptId, lastId)));
+            if (merged.size() != count) {
+                // a transaction that got a smaller task id committed after the
+                // last load, or tasks are added concurrently. reload all.
+                merged = sm.getTaskRelations(attemptId);
+            }
+
+            this.relations = merged;
+            this.tree = new TaskTree(merged);
+            return tree;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import io.digdag.client.config.Config;
@@ -30,6 +31,7 @@ import io.digdag.core.session.StoredSessionAttemptWithSession;
 import io.digdag.core.session.StoredTask;
 import io.digdag.core.session.Task;
 import io.digdag.core.session.TaskAttemptSummary;
+import io.digdag.core.session.TaskControlStore;
 import io.digdag.core.session.TaskStateCode;
 import io.digdag.core.session.TaskStateFlags;
 import io.digdag.core.session.TaskStateSummary;
@@ -43,19 +45,24 @@ import io.digdag.spi.TaskNotFoundException;
 import io.digdag.util.RetryControl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.weakref.jmx.Managed;
 
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -166,6 +173,23 @@ public class WorkflowExecutor
     private final ObjectMapper archiveMapper;
     private final Config systemConfig;
     private Notifier notifier;
+    private final long fullPropagationInterval;
+    private final int enqueueThreads;
+
+    private final AtomicInteger pendingEnqueueCount = new AtomicInteger(0);
+    private final AtomicLong enqueuedTaskCount = new AtomicLong(0L);
+    private final AtomicLong enqueueLatencyTotalNanos = new AtomicLong(0L);
+
+    // interval of full scan of tasks in seconds. 0 means always full scan.
+    private static final long DEFAULT_FULL_PROPAGATION_INTERVAL = 60;
+
+    // number of threads that dispatch READY tasks to the task queue
+    private static final int DEFAULT_ENQUEUE_THREADS = 4;
+
+    // max number of attempts whose TaskTree is cached
+    private static final int DEFAULT_TASK_TREE_CACHE_SIZE = 100;
+
+    private final TaskTreeCache taskTreeCache;
 
     private final Lock propagatorLock = new ReentrantLock();
     private final Condition propagatorCondition = propagatorLock.newCondition();
@@ -190,6 +214,13 @@ public class WorkflowExecutor
         this.archiveMapper = archiveMapper;
         this.systemConfig = systemConfig;
         this.notifier = notifier;
+        this.fullPropagationInterval = systemConfig.get("executor.full-propagation-interval", long.class, DEFAULT_FULL_PROPAGATION_INTERVAL);
+        this.enqueueThreads = systemConfig.get("executor.enqueue-threads", int.class, DEFAULT_ENQUEUE_THREADS);
+        if (enqueueThreads <= 0) {
+            throw new ConfigException("executor.enqueue-threads must be greater than 0: " + enqueueThreads);
+        }
+        this.taskTreeCache = new TaskTreeCache(sm,
+                systemConfig.get("executor.task-tree-cache-size", int.class, DEFAULT_TASK_TREE_CACHE_SIZE));
     }
 
     public StoredSessionAttemptWithSession submitWorkflow(int siteId,
@@ -429,27 +460,34 @@ public class WorkflowExecutor
             throws InterruptedException
     {
         try (TaskQueuer queuer = new TaskQueuer()) {
-            Instant date = sm.getStoreTime();
+            IncrementalStatusPropagator prop = new IncrementalStatusPropagator(sm.getStoreTime());
+
             propagateBlockedChildrenToReady();
             retryRetryWaitingTasks();
-            enqueueReadyTasks(queuer);  // TODO enqueue all (not only first 100)
+            enqueueReadyTasks(queuer);
             propagateAllPlannedToDone();
             propagateSessionArchive();
+            Instant nextFullPropagation = Instant.now().plusSeconds(fullPropagationInterval);
 
-            //IncrementalStatusPropagator prop = new IncrementalStatusPropagator(date);  // TODO doesn't work yet
             int waitMsec = INITIAL_INTERVAL;
             while (cond.getAsBoolean()) {
-                //boolean inced = prop.run();
-                //boolean retried = retryRetryWaitingTasks();
-                //if (inced || retried) {
-                //    enqueueReadyTasks(queuer);
-                //    propagatorNotice = true;
-                //}
-
-                propagateBlockedChildrenToReady();
-                retryRetryWaitingTasks();
-                enqueueReadyTasks(queuer);
-                boolean someDone = propagateAllPlannedToDone();
+                boolean someDone;
+                if (!Instant.now().isBefore(nextFullPropagation)) {
+                    // full scan of all tasks. This is a safety net for changes that
+                    // IncrementalStatusPropagator can't find (e.g. a transaction that took
+                    // longer than INCREMENTAL_PROPAGATION_MARGIN).
+                    propagateBlockedChildrenToReady();
+                    retryRetryWaitingTasks();
+                    enqueueReadyTasks(queuer);
+                    someDone = propagateAllPlannedToDone();
+                    nextFullPropagation = Instant.now().plusSeconds(fullPropagationInterval);
+                }
+                else {
+                    boolean inced = prop.run();
+                    retryRetryWaitingTasks();
+                    enqueueReadyTasks(queuer);
+                    someDone = inced;
+                }
 
                 if (someDone) {
                     propagateSessionArchive();
@@ -489,15 +527,10 @@ public class WorkflowExecutor
             if (parentIds.isEmpty()) {
                 break;
             }
-            anyChanged =
-                parentIds
-                .stream()
-                .map(parentId -> {
-                    return sm.lockTaskIfExists(parentId, (store) ->
-                        store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(parentId) > 0
-                    ).or(false);
-                })
-                .reduce(anyChanged, (a, b) -> a || b);
+            boolean changed = sm.lockTasksIfExist(parentIds, (store, lockedParentIds) ->
+                store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(lockedParentIds) > 0
+            );
+            anyChanged = anyChanged || changed;
             lastParentId = parentIds.get(parentIds.size() - 1);
         }
         return anyChanged;
@@ -512,20 +545,35 @@ public class WorkflowExecutor
             if (taskIds.isEmpty()) {
                 break;
             }
-            anyChanged =
-                taskIds
-                .stream()
-                .map(taskId -> {
-                    return sm.lockTaskIfExists(taskId, (store, storedTask) ->
-                        setDoneFromDoneChildren(new TaskControl(store, storedTask))
-                    ).or(false);
-                })
-                .reduce(anyChanged, (a, b) -> a || b);
+            boolean changed = sm.lockTasksWithDetailsIfExist(taskIds, (store, storedTasks) ->
+                setDoneFromDoneChildren(store, storedTasks)
+            );
+            anyChanged = anyChanged || changed;
             lastTaskId = taskIds.get(taskIds.size() - 1);
         }
         return anyChanged;
     }
 
+    // set-based version of setDoneFromDoneChildren. Most of PLANNED tasks have
+    // progressible children. This skips them using a single query.
+    private boolean setDoneFromDoneChildren(TaskControlStore store, List<StoredTask> lockedTasks)
+    {
+        List<Long> plannedTaskIds = lockedTasks.stream()
+            .filter(task -> task.getState() == TaskStateCode.PLANNED)
+            .map(task -> task.getId())
+            .collect(Collectors.toList());
+        Set<Long> doneableTaskIds = new HashSet<>(store.findTasksWithoutProgressibleChild(plannedTaskIds));
+
+        boolean anyChanged = false;
+        for (StoredTask task : lockedTasks) {
+            if (doneableTaskIds.contains(task.getId())) {
+                boolean changed = setDoneFromDoneChildren(new TaskControl(store, task));
+                anyChanged = anyChanged || changed;
+            }
+        }
+        return anyChanged;
+    }
+
     private boolean setDoneFromDoneChildren(TaskControl lockedTask)
     {
         if (lockedTask.getState() != TaskStateCode.PLANNED) {
@@ -636,7 +684,7 @@ public class WorkflowExecutor
     {
         List<Long> childrenFromThis;
         {
-            TaskTree tree = new TaskTree(sm.getTaskRelations(task.getAttemptId()));
+            TaskTree tree = taskTreeCache.getTaskTree(task.getAttemptId());
             childrenFromThis = tree.getRecursiveChildrenIdList(task.getId());
         }
 
@@ -679,6 +727,7 @@ public class WorkflowExecutor
                         else {
                             SessionAttemptControl control = new SessionAttemptControl(store, task.getAttemptId());
                             control.archiveTasks(archiveMapper, task.getState() == TaskStateCode.SUCCESS);
+                            taskTreeCache.invalidate(task.getAttemptId());
                             return true;
                         }
                     }).or(false);
@@ -689,12 +738,33 @@ public class WorkflowExecutor
         return anyChanged;
     }
 
+    // updated_at of a task is set using now() of the transaction that updated the
+    // task. With PostgreSQL, now() is the time when the transaction started. Thus a
+    // transaction that started before last scan could commit after the scan with an
+    // older updated_at. IncrementalStatusPropagator scans tasks again with this
+    // overlap so that it doesn't miss such changes.
+    private static final int INCREMENTAL_PROPAGATION_MARGIN = 10;
+
+    /**
+     * Propagates state changes only around tasks whose updated_at changed since
+     * last run, instead of scanning all PLANNED and BLOCKED tasks.
+     *
+     * For each changed task:
+     *
+     *   PLANNED: the task itself may be able to transite to done, or its BLOCKED
+     *            children may be able to start.
+     *   BLOCKED: the task is newly added. the parent may be able to start it.
+     *   done:    the parent may be able to transite to done, or downstream
+     *            siblings may be able to start. If the task is a root task,
+     *            the attempt is ready to be archived.
+     */
     private class IncrementalStatusPropagator
     {
-        private Instant updatedSince;
+        // id and updated_at of tasks that are already propagated within the
+        // overlapped range of scan.
+        private final Map<Long, Instant> propagatedTasks = new HashMap<>();
 
-        private Instant lastUpdatedAt;
-        private long lastUpdatedId;
+        private Instant updatedSince;
 
         public IncrementalStatusPropagator(Instant updatedSince)
         {
@@ -708,71 +778,67 @@ public class WorkflowExecutor
 
         private synchronized boolean propagateStatus()
         {
-            boolean anyChanged = false;
-            Set<Long> checkedParentIds = new HashSet<>();
-
             Instant nextUpdatedSince = sm.getStoreTime();
-            lastUpdatedAt = updatedSince;
-            lastUpdatedId = 0;
 
+            List<TaskStateSummary> changedTasks = new ArrayList<>();
+            // sorted so that tasks are locked in a consistent order
+            Set<Long> propagatingTaskIds = new TreeSet<>();
+            boolean anyRootDone = false;
+
+            Instant lastUpdatedAt = updatedSince.minusSeconds(INCREMENTAL_PROPAGATION_MARGIN);
+            long lastUpdatedId = 0;
             while (true) {
                 List<TaskStateSummary> tasks = sm.findRecentlyChangedTasks(lastUpdatedAt, lastUpdatedId);
                 if (tasks.isEmpty()) {
                     break;
                 }
-                anyChanged =
-                    tasks
-                    .stream()
-                    .map(task -> {
-                        boolean propagatedToChildren = false;
-                        boolean propagatedFromChildren = false;
-                        boolean propagatedToSelf = false;
-
-                        if (Tasks.isDone(task.getState()) || task.getState() == TaskStateCode.PLANNED) {
-                            // this parent became planned or done. may be transite from planned to done immediately
-                            propagatedToSelf = sm.lockTaskIfExists(task.getId(), (store, storedTask) -> {
-                                return setDoneFromDoneChildren(new TaskControl(store, storedTask));
-                            }).or(false);
-
-                            if (!propagatedToSelf) {
-                                // if this task is not done yet, transite children from blocked to ready
-                                propagatedToChildren = sm.lockTaskIfExists(task.getId(), (store) ->
-                                    // collect parameters and set them to ready tasks at the same time? no, because children's export_params/store_params are not propagated to parents
-                                    store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(task.getId()) > 0
-                                ).or(false);
-                            }
-                        }
+                for (TaskStateSummary task : tasks) {
+                    if (task.getUpdatedAt().equals(propagatedTasks.get(task.getId()))) {
+                        // already propagated by the last run
+                        continue;
+                    }
+                    changedTasks.add(task);
 
-                        if (Tasks.isDone(task.getState())) {
-                            if (task.getParentId().isPresent()) {
-                                // this child became done. try to transite parent from planned to done.
-                                // and dependint siblings tasks may be able to start
-                                if (checkedParentIds.add(task.getParentId().get())) {
-                                    propagatedFromChildren = sm.lockTaskIfExists(task.getParentId().get(), (store, storedTask) -> {
-                                        boolean doneFromChildren = setDoneFromDoneChildren(new TaskControl(store, storedTask));
-                                        boolean siblingsToReady = store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(task.getId()) > 0;
-                                        return doneFromChildren || siblingsToReady;
-                                    }).or(false);
-                                }
-                            }
-                            else {
-                                // root task became done.
-                                // TODO return archiveSession(task.getid());
-                                //logger.info("Root task is done with state {}",
-                                //        task.getState());
-                            }
+                    if (task.getState() == TaskStateCode.PLANNED) {
+                        propagatingTaskIds.add(task.getId());
+                    }
+                    else if (task.getState() == TaskStateCode.BLOCKED || Tasks.isDone(task.getState())) {
+                        if (task.getParentId().isPresent()) {
+                            propagatingTaskIds.add(task.getParentId().get());
+                        }
+                        else if (Tasks.isDone(task.getState())) {
+                            anyRootDone = true;
                         }
+                    }
+                }
+                TaskStateSummary last = tasks.get(tasks.size() - 1);
+                lastUpdatedAt = last.getUpdatedAt();
+                lastUpdatedId = last.getId();
+            }
 
-                        lastUpdatedAt = task.getUpdatedAt();
-                        lastUpdatedId = task.getId();
+            boolean anyChanged = false;
+            for (List<Long> taskIds : Iterables.partition(propagatingTaskIds, 100)) {
+                boolean changed = sm.lockTasksWithDetailsIfExist(taskIds, (store, storedTasks) -> {
+                    boolean doneFromChildren = setDoneFromDoneChildren(store, storedTasks);
+                    boolean childrenToReady = store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(
+                            storedTasks.stream().map(task -> task.getId()).collect(Collectors.toList())) > 0;
+                    return doneFromChildren || childrenToReady;
+                });
+                anyChanged = anyChanged || changed;
+            }
 
-                        return propagatedToChildren || propagatedFromChildren || propagatedToSelf;
-                    })
-                    .reduce(anyChanged, (a, b) -> a || b);
+            // remember propagated tasks only after propagation succeeded. If it failed,
+            // next run retries them.
+            for (TaskStateSummary task : changedTasks) {
+                propagatedTasks.put(task.getId(), task.getUpdatedAt());
             }
+            // tasks updated before next scan range won't be found again
+            Instant nextScanStart = nextUpdatedSince.minusSeconds(INCREMENTAL_PROPAGATION_MARGIN);
+            propagatedTasks.values().removeIf(updatedAt -> updatedAt.isBefore(nextScanStart));
+
             updatedSince = nextUpdatedSince;
 
-            return anyChanged;
+            return anyChanged || anyRootDone;
         }
     }
 
@@ -781,60 +847,117 @@ public class WorkflowExecutor
         return sm.trySetRetryWaitingToReady() > 0;
     }
 
+    // TaskQueuer runs enqueueTask using a thread pool so that tasks are
+    // dispatched concurrently. If number of pending tasks exceeds
+    // threads * ENQUEUE_MAX_PENDING_PER_THREAD, caller thread (the thread that
+    // runs runWhile) runs enqueueTask by itself. This throttles propagation
+    // until queuer threads catch up.
+    private static final int ENQUEUE_MAX_PENDING_PER_THREAD = 32;
+
     private class TaskQueuer
             implements AutoCloseable
     {
-        private final Map<Long, Future<Void>> waiting = new ConcurrentHashMap<>();
-        private final ExecutorService executor;
+        private final Set<Long> waiting = ConcurrentHashMap.newKeySet();
+        private final ThreadPoolExecutor executor;
 
         public TaskQueuer()
         {
-            this.executor = Executors.newCachedThreadPool(
+            this.executor = new ThreadPoolExecutor(
+                    enqueueThreads, enqueueThreads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(enqueueThreads * ENQUEUE_MAX_PENDING_PER_THREAD),
                     new ThreadFactoryBuilder()
                     .setDaemon(true)
                     .setNameFormat("task-queuer-%d")
-                    .build()
-                    );
+                    .build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
         }
 
         public void close()
         {
-            // TODO
             executor.shutdown();
-            //executor.awaitShutdown(10, TimeUnit.SECONDS);
-            //executor.shutdownNow();
-        }
-
-        //public synchronized Future<Void> asyncEnqueueTask(final long taskId)
-        //{
-        //    if (waiting.containsKey(taskId)) {
-        //        return waiting.get(taskId);
-        //    }
-        //    Future<Void> future = executor.submit(() -> {
-        //        try {
-        //            enqueueTask(dispatcher, taskId);
-        //        }
-        //        catch (Throwable t) {
-        //            logger.error("Uncaught exception during enqueuing a task request. This enqueue attempt will be retried", t);
-        //        }
-        //        finally {
-        //            waiting.remove(taskId);
-        //        }
-        //        return null;
-        //    });
-        //    waiting.put(taskId, future);
-        //    return future;
-        //}
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            }
+            catch (InterruptedException ex) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void asyncEnqueueTask(final long taskId)
+        {
+            if (!waiting.add(taskId)) {
+                // already enqueuing
+                return;
+            }
+            pendingEnqueueCount.incrementAndGet();
+            long submittedAt = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    try {
+                        enqueueTask(dispatcher, taskId);
+                    }
+                    catch (Throwable t) {
+                        logger.error("Uncaught exception during enqueuing a task request. This enqueue attempt will be retried", t);
+                    }
+                    finally {
+                        enqueuedTaskCount.incrementAndGet();
+                        enqueueLatencyTotalNanos.addAndGet(System.nanoTime() - submittedAt);
+                        pendingEnqueueCount.decrementAndGet();
+                        waiting.remove(taskId);
+                        if (waiting.isEmpty()) {
+                            // state of a grouping-only task or a canceled task may change
+                            // without going through an operator. wake up runWhile
+                            // so that the change propagates quickly.
+                            noticeStatusPropagate();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex) {
+                // queuer is already closed
+                pendingEnqueueCount.decrementAndGet();
+                waiting.remove(taskId);
+            }
+        }
     }
 
     private void enqueueReadyTasks(TaskQueuer queuer)
     {
-        for (long taskId : sm.findAllReadyTaskIds(100)) {  // TODO randomize this resut to achieve concurrency
-            enqueueTask(dispatcher, taskId);
-            //queuer.asyncEnqueueTask(taskId);  // TODO async queuing is probably unnecessary but not sure
+        long lastTaskId = 0;
+        while (true) {
+            List<Long> taskIds = sm.findTasksByState(TaskStateCode.READY, lastTaskId);
+            if (taskIds.isEmpty()) {
+                break;
+            }
+            for (long taskId : taskIds) {
+                queuer.asyncEnqueueTask(taskId);
+            }
+            lastTaskId = taskIds.get(taskIds.size() - 1);
         }
     }
 
+    @Managed
+    public int getPendingEnqueueCount()
+    {
+        return pendingEnqueueCount.get();
+    }
+
+    @Managed
+    public long getEnqueuedTaskCount()
+    {
+        return enqueuedTaskCount.get();
+    }
+
+    @Managed
+    public long getEnqueueLatencyTotalMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(enqueueLatencyTotalNanos.get());
+    }
+
     private void enqueueTask(final TaskQueueDispatcher dispatcher, final long taskId)
     {
         sm.lockTaskIfExists(taskId, (store, task) -> {
@@ -1047,7 +1170,7 @@ public class WorkflowExecutor
         // rest task state of subtasks
         StoredTask task = lockedTask.get();
 
-        TaskTree tree = new TaskTree(sm.getTaskRelations(task.getAttemptId()));
+        TaskTree tree = taskTreeCache.getTaskTree(task.getAttemptId());
         List<Long> childrenIdList = tree.getRecursiveChildrenIdList(task.getId());
         lockedTask.copyInitialTasksForRetry(childrenIdList);
 
@@ -1239,7 +1362,7 @@ public class WorkflowExecutor
         List<Long> parentsFromRoot;
         List<Long> parentsUpstreamChildrenFromFar;
         {
-            TaskTree tree = new TaskTree(sm.getTaskRelations(attempt.getId()));
+            TaskTree tree = taskTreeCache.getTaskTree(attempt.getId());
             parentsFromRoot = tree.getRecursiveParentIdListFromRoot(task.getId());
             parentsUpstreamChildrenFromFar = tree.getRecursiveParentsUpstreamChildrenIdListFromFar(task.getId());
         }
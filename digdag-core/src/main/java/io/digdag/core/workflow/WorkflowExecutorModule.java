@@ -4,6 +4,7 @@ import com.google.inject.Module;
 import com.google.inject.Binder;
 import com.google.inject.Scopes;
 import io.digdag.core.session.SessionMonitorExecutor;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class WorkflowExecutorModule
         implements Module
@@ -14,6 +15,7 @@ public class WorkflowExecutorModule
         binder.bind(WorkflowExecutor.class).in(Scopes.SINGLETON);
         binder.bind(SlaCalculator.class).in(Scopes.SINGLETON);
         binder.bind(AttemptBuilder.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(WorkflowExecutor.class).withGeneratedName();
 
         // session
         binder.bind(SessionMonitorExecutor.class).asEagerSingleton();
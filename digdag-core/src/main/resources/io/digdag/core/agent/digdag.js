@@ -1,5 +1,10 @@
-// Code from Underscore.js
 function template(code, variables)
+{
+  return callTemplate(compileTemplateSource(templateSource(code)), variables);
+}
+
+// Code from Underscore.js
+function templateSource(code)
 {
   var matcher = RegExp([
     (/\$(?!\$){%([\s\S]+?)%}/g).source,
@@ -43,17 +48,42 @@ function template(code, variables)
 
   source = 'with(this){\n' + source + '}\n';
 
+  return source;
+}
+
+function compileTemplateSource(source)
+{
   try {
-    var func = new Function(source);
+    return new Function(source);
   } catch (e) {
     e.source = source;
     throw e;
   }
+}
 
+function callTemplate(func, variables)
+{
   if (typeof variables == "string") {
     variables = JSON.parse(variables);
   }
-  vs = func.call(variables);
+  return func.call(variables);
+}
+
+// Returns a new object that inherits variables of parent (if not null) and
+// has variables parsed from json (if not null).
+function newScope(parent, json)
+{
+  var scope = (parent == null) ? {} : Object.create(parent);
+  if (json != null) {
+    var variables = JSON.parse(json);
+    for (var key in variables) {
+      scope[key] = variables[key];
+    }
+  }
+  return scope;
+}
 
-  return vs;
+function setScopeVariable(scope, key, json)
+{
+  scope[key] = JSON.parse(json);
 }
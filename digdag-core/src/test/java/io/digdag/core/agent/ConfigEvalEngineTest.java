@@ -1,6 +1,8 @@
 package io.digdag.core.agent;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 
 import io.digdag.client.config.Config;
 import io.digdag.core.config.YamlConfigLoader;
@@ -114,4 +116,170 @@ public class ConfigEvalEngineTest
                 engine.eval(newConfig().set("key", "${moment().format()}"), params()).get("key", String.class),
                 not(is("")));
     }
+
+    @Test
+    public void globalsAreNotSharedAmongEvaluations()
+            throws Exception
+    {
+        // an assignment to an undeclared variable creates a global variable
+        engine.eval(newConfig().set("key", "${leaked = 1}"), params());
+        engine.template("${moment = null}", params());
+        for (int i = 0; i < 3; i++) {
+            assertThat(
+                    engine.eval(newConfig().set("key", "${typeof leaked}"), params()).get("key", String.class),
+                    is("undefined"));
+            assertThat(
+                    engine.template("${typeof moment}", params()),
+                    is("function"));
+        }
+    }
+
+    @Test
+    public void nonConfigurableGlobalsAreNotShared()
+            throws Exception
+    {
+        // a non-configurable property can't be removed from the global object
+        engine.template("${Object.defineProperty((function() { return this; })(), 'pinned', {value: 1, configurable: false}) && ''}", params());
+        for (int i = 0; i < 3; i++) {
+            assertThat(
+                    engine.template("${typeof pinned}", params()),
+                    is("undefined"));
+        }
+    }
+
+    @Test
+    public void builtInObjectsAreNotSharedAmongEvaluations()
+            throws Exception
+    {
+        // a template can't contain '}' in ${...}. Built-in functions are
+        // replaced with other functions instead of function literals.
+        engine.eval(newConfig().set("key", "${String.prototype.trim = String.prototype.toUpperCase, ''}"), params());
+        engine.template("${String.prototype.replace = String.prototype.toUpperCase, moment.fn.format = moment.fn.valueOf, ''}", params());
+        for (int i = 0; i < 3; i++) {
+            assertThat(
+                    engine.eval(newConfig().set("key", "${' a '.trim()}"), params()).get("key", String.class),
+                    is("a"));
+            assertThat(
+                    engine.template("${'a'.replace('a', 'b')}", params()),
+                    is("b"));
+            assertThat(
+                    engine.template("${moment(0).utc().format('YYYY')}", params()),
+                    is("1970"));
+        }
+    }
+
+    @Test
+    public void localFieldsOverwriteParams()
+            throws Exception
+    {
+        Config evaluated = engine.eval(newConfig()
+                .set("plain", "no variables")
+                .set("a", "${x}")
+                .set("x", "local")
+                .set("b", "${x}")
+                .set("array", ImmutableList.of("${x}"))
+                .set("nested", newConfig().set("c", "${x}")),
+                params().set("x", "param"));
+        assertThat(evaluated.get("plain", String.class), is("no variables"));
+        assertThat(evaluated.get("a", String.class), is("param"));
+        assertThat(evaluated.get("b", String.class), is("local"));
+        assertThat(evaluated.getList("array", String.class).get(0), is("local"));
+        // nested objects don't see local fields of the parent object
+        assertThat(evaluated.getNested("nested").get("c", String.class), is("param"));
+    }
+
+    @Test
+    public void variableReferences()
+            throws Exception
+    {
+        Config params = params()
+            .set("str", "s")
+            .set("int", 10)
+            .set("double", 1.5)
+            .set("bool", true)
+            .set("obj", newConfig().set("k", "v"));
+        Config evaluated = engine.eval(newConfig()
+                .set("str", "${str}")
+                .set("int", "${ int }")
+                .set("double", "${double}")
+                .set("bool", "${bool}")
+                .set("field", "${obj.k}")
+                .set("obj", "${obj}")
+                .set("length", "${str.length}")
+                .set("missing", "${obj.no_such_field}")
+                .set("local", "${field}"),
+                params);
+        assertThat(evaluated.get("str", String.class), is("s"));
+        assertThat(evaluated.get("int", String.class), is("10"));
+        assertThat(evaluated.get("double", String.class), is("1.5"));
+        assertThat(evaluated.get("bool", String.class), is("true"));
+        assertThat(evaluated.get("field", String.class), is("v"));
+        assertThat(evaluated.get("obj", String.class), is("{\"k\":\"v\"}"));
+        assertThat(evaluated.get("length", String.class), is("1"));
+        assertThat(evaluated.get("missing", String.class), is(""));
+        assertThat(evaluated.get("local", String.class), is("v"));
+
+        // str, int, bool, field and local don't need JavaScript
+        assertThat(engine.getVariableReferenceCount(), is(5L));
+
+        assertThat(engine.template("${obj.k}", params), is("v"));
+        assertThat(engine.getVariableReferenceCount(), is(6L));
+        assertThat(engine.getTemplateCacheHitCount(), is(1L));
+    }
+
+    @Test
+    public void unsafeIntegersAreEvaluatedByJavaScript()
+            throws Exception
+    {
+        Config params = params()
+            .set("max", Long.MAX_VALUE)
+            .set("min", Long.MIN_VALUE)
+            .set("safe", -((1L << 53) - 1));
+        assertThat(engine.template("${safe}", params), is("-9007199254740991"));
+        assertThat(engine.getVariableReferenceCount(), is(1L));
+
+        // stringified by JavaScript as before because JavaScript may lose
+        // precision of these numbers
+        engine.template("${max}", params);
+        engine.template("${min}", params);
+        assertThat(engine.getVariableReferenceCount(), is(1L));
+    }
+
+    @Test
+    public void compiledFunctionsAreReused()
+            throws Exception
+    {
+        for (int i = 0; i < 3; i++) {
+            assertThat(engine.template("${1 + 2}", params()), is("3"));
+        }
+        assertThat(engine.getFunctionCacheMissCount(), is(1L));
+        assertThat(engine.getFunctionCacheHitCount(), is(2L));
+
+        Config evaluated = engine.eval(newConfig()
+                .set("a", "${1 + 2}")
+                .set("b", "${a + 1}"),
+                params());
+        assertThat(evaluated.get("a", String.class), is("3"));
+        assertThat(evaluated.get("b", String.class), is("31"));
+        assertThat(engine.getFunctionCacheMissCount(), is(2L));
+        assertThat(engine.getFunctionCacheHitCount(), is(3L));
+    }
+
+    @Test
+    public void longTemplatesAreNotCached()
+            throws Exception
+    {
+        String text = Strings.repeat("x", 64 * 1024);
+        for (int i = 0; i < 2; i++) {
+            assertThat(engine.template(text + "${1 + 2}", params()), is(text + "3"));
+        }
+        assertThat(engine.getTemplateCacheMissCount(), is(2L));
+        assertThat(engine.getFunctionCacheMissCount(), is(2L));
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(engine.template("${1 + 2}", params()), is("3"));
+        }
+        assertThat(engine.getTemplateCacheMissCount(), is(3L));
+        assertThat(engine.getTemplateCacheHitCount(), is(1L));
+    }
 }
@@ -0,0 +1,122 @@
+package io.digdag.core.agent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import io.digdag.core.TempFileManager;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ExtractedArchiveCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TempFileManager tempFiles;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        tempFiles = new TempFileManager(folder.newFolder().toPath());
+    }
+
+    @Test
+    public void extractOnlyOnce()
+        throws Exception
+    {
+        ExtractedArchiveCache cache = new ExtractedArchiveCache(tempFiles, 1024, false);
+        AtomicInteger extractCount = new AtomicInteger(0);
+
+        Path ws1 = folder.newFolder().toPath();
+        Path ws2 = folder.newFolder().toPath();
+        cache.copyTo("k1", ws1, (dir) -> writeFile(dir, "a/b.txt", "hello", extractCount));
+        cache.copyTo("k1", ws2, (dir) -> writeFile(dir, "a/b.txt", "hello", extractCount));
+
+        assertEquals(1, extractCount.get());
+        assertEquals("hello", new String(Files.readAllBytes(ws1.resolve("a/b.txt")), UTF_8));
+        assertEquals("hello", new String(Files.readAllBytes(ws2.resolve("a/b.txt")), UTF_8));
+
+        // modifying a workspace doesn't change the cached files
+        Files.write(ws1.resolve("a/b.txt"), "modified".getBytes(UTF_8));
+        Path ws3 = folder.newFolder().toPath();
+        cache.copyTo("k1", ws3, (dir) -> writeFile(dir, "a/b.txt", "hello", extractCount));
+        assertEquals("hello", new String(Files.readAllBytes(ws3.resolve("a/b.txt")), UTF_8));
+    }
+
+    @Test
+    public void extractOnlyOnceConcurrently()
+        throws Exception
+    {
+        ExtractedArchiveCache cache = new ExtractedArchiveCache(tempFiles, 1024, false);
+        AtomicInteger extractCount = new AtomicInteger(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                Path ws = folder.newFolder().toPath();
+                futures.add(executor.submit(() -> {
+                    cache.copyTo("k1", ws, (dir) -> {
+                        try {
+                            // let the other threads wait for this extraction
+                            Thread.sleep(100);
+                        }
+                        catch (InterruptedException ex) {
+                            throw new IOException(ex);
+                        }
+                        return writeFile(dir, "f", "hello", extractCount);
+                    });
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, extractCount.get());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed()
+        throws Exception
+    {
+        ExtractedArchiveCache cache = new ExtractedArchiveCache(tempFiles, 10, false);
+        AtomicInteger extractCount = new AtomicInteger(0);
+
+        cache.copyTo("k1", folder.newFolder().toPath(), (dir) -> writeFile(dir, "f", "12345", extractCount));
+        cache.copyTo("k2", folder.newFolder().toPath(), (dir) -> writeFile(dir, "f", "12345", extractCount));
+        cache.copyTo("k1", folder.newFolder().toPath(), (dir) -> writeFile(dir, "f", "12345", extractCount));
+        assertEquals(2, extractCount.get());
+
+        // k2 is evicted because k1 is used more recently
+        cache.copyTo("k3", folder.newFolder().toPath(), (dir) -> writeFile(dir, "f", "12345", extractCount));
+        cache.copyTo("k1", folder.newFolder().toPath(), (dir) -> writeFile(dir, "f", "12345", extractCount));
+        assertEquals(3, extractCount.get());
+        cache.copyTo("k2", folder.newFolder().toPath(), (dir) -> writeFile(dir, "f", "12345", extractCount));
+        assertEquals(4, extractCount.get());
+    }
+
+    private static long writeFile(Path dir, String name, String data, AtomicInteger extractCount)
+        throws IOException
+    {
+        extractCount.incrementAndGet();
+        Path path = dir.resolve(name);
+        Files.createDirectories(path.getParent());
+        byte[] bytes = data.getBytes(UTF_8);
+        Files.write(path, bytes);
+        return bytes.length;
+    }
+}
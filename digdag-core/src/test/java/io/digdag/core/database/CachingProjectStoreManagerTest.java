@@ -0,0 +1,98 @@
+package io.digdag.core.database;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.*;
+import com.google.common.collect.*;
+import io.digdag.core.repository.*;
+import io.digdag.core.schedule.*;
+import static io.digdag.core.database.DatabaseTestingUtils.*;
+import static org.junit.Assert.*;
+
+public class CachingProjectStoreManagerTest
+{
+    private DatabaseFactory factory;
+    private CachingProjectStoreManager manager;
+    private SchedulerManager sm;
+    private ProjectStore store;
+
+    @Before
+    public void setUp()
+    {
+        factory = setupDatabase();
+        manager = new CachingProjectStoreManager(factory.getProjectStoreManager(), 100, 60);
+        sm = new SchedulerManager(ImmutableSet.of());
+        store = manager.getProjectStore(0);
+    }
+
+    @After
+    public void destroy()
+    {
+        factory.close();
+    }
+
+    @Test
+    public void cacheLookupsById()
+        throws Exception
+    {
+        AtomicReference<StoredWorkflowDefinition> wfRef = new AtomicReference<>();
+        StoredRevision rev = store.putAndLockProject(
+                Project.of("proj1"),
+                (store, stored) -> {
+                    ProjectControl lock = new ProjectControl(store, stored);
+                    StoredRevision storedRev = lock.insertRevision(createRevision("rev1"));
+                    wfRef.set(lock.insertWorkflowDefinitions(storedRev, ImmutableList.of(createWorkflow("wf1")), sm, Instant.now()).get(0));
+                    return storedRev;
+                });
+        long wfId = wfRef.get().getId();
+
+        StoredWorkflowDefinitionWithProject details = manager.getWorkflowDetailsById(wfId);
+        assertEquals(details, manager.getWorkflowDetailsById(wfId));
+        assertEquals(1, manager.getWorkflowCacheMissCount());
+        assertEquals(1, manager.getWorkflowCacheHitCount());
+
+        assertEquals(rev, manager.getRevisionOfWorkflowDefinition(wfId));
+        assertEquals(rev, manager.getRevisionOfWorkflowDefinition(wfId));
+        assertEquals(1, manager.getRevisionCacheHitCount());
+
+        // project is cached when workflow details are loaded
+        StoredProject proj = manager.getProjectByIdInternal(rev.getProjectId());
+        assertEquals(details.getProject(), proj);
+        assertEquals(proj, store.getProjectsByIdList(ImmutableList.of(proj.getId())).get(proj.getId()));
+        assertEquals(0, manager.getProjectCacheMissCount());
+
+        // cached projects are checked per site
+        assertNotFound(() -> manager.getProjectStore(1).getProjectById(proj.getId()));
+        assertNotFound(() -> manager.getProjectStore(1).getWorkflowDefinitionById(wfId));
+        assertNotFound(() -> manager.getProjectStore(1).getProjectsByIdList(ImmutableList.of(proj.getId())).get(proj.getId()));
+
+        // returned Config is a copy
+        manager.getWorkflowDetailsById(wfId).getConfig().set("modified", true);
+        assertFalse(manager.getWorkflowDetailsById(wfId).getConfig().has("modified"));
+    }
+
+    @Test
+    public void deleteProjectInvalidatesCache()
+        throws Exception
+    {
+        AtomicReference<StoredWorkflowDefinition> wfRef = new AtomicReference<>();
+        StoredRevision rev = store.putAndLockProject(
+                Project.of("proj1"),
+                (store, stored) -> {
+                    ProjectControl lock = new ProjectControl(store, stored);
+                    StoredRevision storedRev = lock.insertRevision(createRevision("rev1"));
+                    wfRef.set(lock.insertWorkflowDefinitions(storedRev, ImmutableList.of(createWorkflow("wf1")), sm, Instant.now()).get(0));
+                    return storedRev;
+                });
+        long wfId = wfRef.get().getId();
+
+        assertFalse(manager.getWorkflowDetailsById(wfId).getProject().getDeletedAt().isPresent());
+        assertFalse(store.getProjectById(rev.getProjectId()).getDeletedAt().isPresent());
+
+        ProjectControl.deleteProject(store, rev.getProjectId(), (control, proj) -> proj);
+
+        assertTrue(store.getProjectById(rev.getProjectId()).getDeletedAt().isPresent());
+        assertTrue(manager.getProjectByIdInternal(rev.getProjectId()).getDeletedAt().isPresent());
+        assertTrue(manager.getWorkflowDetailsById(wfId).getProject().getDeletedAt().isPresent());
+    }
+}
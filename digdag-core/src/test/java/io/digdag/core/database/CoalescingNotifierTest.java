@@ -0,0 +1,79 @@
+package io.digdag.core.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CoalescingNotifierTest
+{
+    private final List<Runnable> queued = new ArrayList<>();
+    private final AtomicInteger sentCount = new AtomicInteger(0);
+    private CoalescingNotifier notifier;
+
+    @Before
+    public void setUp()
+    {
+        notifier = new CoalescingNotifier(queued::add, () -> sentCount.incrementAndGet());
+    }
+
+    @Test
+    public void coalesceNotificationsWaitingForExecutor()
+    {
+        notifier.notifyLater();
+        notifier.notifyLater();
+        notifier.notifyLater();
+        assertThat(queued.size(), is(1));
+        assertThat(sentCount.get(), is(0));
+
+        runQueued();
+        assertThat(sentCount.get(), is(1));
+
+        notifier.notifyLater();
+        assertThat(queued.size(), is(1));
+        runQueued();
+        assertThat(sentCount.get(), is(2));
+    }
+
+    @Test
+    public void notifyAgainIfCalledWhileSending()
+    {
+        notifier = new CoalescingNotifier(queued::add, () -> {
+            if (sentCount.incrementAndGet() == 1) {
+                notifier.notifyLater();
+            }
+        });
+        notifier.notifyLater();
+        runQueued();
+        assertThat(sentCount.get(), is(1));
+        assertThat(queued.size(), is(1));
+        runQueued();
+        assertThat(sentCount.get(), is(2));
+    }
+
+    @Test
+    public void continueAfterSendFailure()
+    {
+        notifier = new CoalescingNotifier(queued::add, () -> {
+            sentCount.incrementAndGet();
+            throw new RuntimeException("test");
+        });
+        notifier.notifyLater();
+        runQueued();
+        notifier.notifyLater();
+        runQueued();
+        assertThat(sentCount.get(), is(2));
+    }
+
+    private void runQueued()
+    {
+        List<Runnable> tasks = new ArrayList<>(queued);
+        queued.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+}
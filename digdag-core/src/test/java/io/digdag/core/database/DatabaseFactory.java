@@ -3,6 +3,7 @@ package io.digdag.core.database;
 import com.google.common.base.Throwables;
 import com.google.common.base.Optional;
 import com.google.inject.Provider;
+import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.core.agent.AgentId;
 import io.digdag.core.workflow.TaskQueueDispatcher;
@@ -58,16 +59,21 @@ public class DatabaseFactory
     }
 
     public WorkflowExecutor getWorkflowExecutor()
+    {
+        return getWorkflowExecutor(new NullTaskQueueDispatcher(), createConfigFactory().create());
+    }
+
+    public WorkflowExecutor getWorkflowExecutor(TaskQueueDispatcher dispatcher, Config systemConfig)
     {
         ConfigFactory configFactory = createConfigFactory();
         return new WorkflowExecutor(
                 getProjectStoreManager(),
                 getSessionStoreManager(),
-                new NullTaskQueueDispatcher(),
+                dispatcher,
                 new WorkflowCompiler(),
                 configFactory,
                 objectMapper(),
-                configFactory.create(),
+                systemConfig,
                 mock(Notifier.class));
     }
 
@@ -2,11 +2,13 @@ package io.digdag.core.database;
 
 import java.util.*;
 import java.time.Instant;
+import java.io.ByteArrayInputStream;
 import java.util.concurrent.atomic.AtomicReference;
 import org.skife.jdbi.v2.IDBI;
 import org.junit.*;
 import com.google.common.base.Optional;
 import com.google.common.collect.*;
+import io.digdag.core.archive.ArchiveManifest;
 import io.digdag.core.repository.*;
 import io.digdag.core.schedule.*;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -284,6 +286,55 @@ public class DatabaseProjectStoreManagerTest
         assertNotFound(() -> store.getRevisionArchiveData(rev.getId() + 10));
     }
 
+    @Test
+    public void testRevisionArchiveDataFromStream()
+        throws Exception
+    {
+        byte[] data = "archive data".getBytes(UTF_8);
+
+        StoredRevision rev = store.putAndLockProject(
+                Project.of("proj1"),
+                (store, stored) -> {
+                    ProjectControl lock = new ProjectControl(store, stored);
+
+                    StoredRevision storedRev = lock.insertRevision(createRevision("rev1"));
+                    lock.insertRevisionArchiveData(storedRev.getId(), new ByteArrayInputStream(data), data.length);
+
+                    return storedRev;
+                });
+
+        assertArrayEquals(data, store.getRevisionArchiveData(rev.getId()));
+    }
+
+    @Test
+    public void testArchiveFiles()
+        throws Exception
+    {
+        byte[] data1 = "file1".getBytes(UTF_8);
+        byte[] data2 = "file2".getBytes(UTF_8);
+        String hash1 = ArchiveManifest.hashFile(data1);
+        String hash2 = ArchiveManifest.hashFile(data2);
+
+        assertEquals(ImmutableList.of(hash1, hash2), store.getMissingArchiveFileHashes(ImmutableList.of(hash1, hash2, hash1)));
+
+        store.putArchiveFile(hash1, data1);
+        // putting the same file again is ignored
+        store.putArchiveFile(hash1, data1);
+        assertEquals(ImmutableList.of(hash2), store.getMissingArchiveFileHashes(ImmutableList.of(hash1, hash2)));
+
+        store.putArchiveFile(hash2, data2);
+        assertEquals(ImmutableList.of(), store.getMissingArchiveFileHashes(ImmutableList.of(hash1, hash2)));
+
+        Map<String, byte[]> files = store.getArchiveFiles(ImmutableList.of(hash1, hash2));
+        assertEquals(2, files.size());
+        assertArrayEquals(data1, files.get(hash1));
+        assertArrayEquals(data2, files.get(hash2));
+
+        // files are stored per site
+        ProjectStore anotherSite = manager.getProjectStore(1);
+        assertEquals(ImmutableList.of(hash1), anotherSite.getMissingArchiveFileHashes(ImmutableList.of(hash1)));
+    }
+
     @Test
     public void testDeleteProject()
         throws Exception
@@ -5,6 +5,8 @@ import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.spi.TaskQueueData;
@@ -15,6 +17,8 @@ import io.digdag.spi.TaskConflictException;
 import io.digdag.spi.TaskNotFoundException;
 import io.digdag.core.repository.ResourceNotFoundException;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.Before;
@@ -24,6 +28,7 @@ import org.junit.rules.ExpectedException;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeThat;
 import static io.digdag.client.DigdagClient.objectMapper;
 import static io.digdag.core.database.DatabaseTestingUtils.createConfigFactory;
 import static io.digdag.core.database.DatabaseTestingUtils.setupDatabase;
@@ -123,6 +128,95 @@ public class DatabaseQueueTest
         assertThat(poll2.get(1).getUniqueName(), is("4"));
     }
 
+    @Test
+    public void multiSiteLocking()
+        throws Exception
+    {
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.max_concurrency", 2)
+            .set("queue.db.multi_site_locking", true);
+        DatabaseTaskQueueServer multiSiteQueue = new DatabaseTaskQueueServer(
+                factory.get(),
+                factory.getConfig(),
+                new DatabaseTaskQueueConfig(systemConfig),
+                objectMapper());
+
+        multiSiteQueue.enqueueDefaultQueueTask(0, generateRequest("0-1"));
+        multiSiteQueue.enqueueDefaultQueueTask(0, generateRequest("0-2"));
+        multiSiteQueue.enqueueDefaultQueueTask(0, generateRequest("0-3"));
+        multiSiteQueue.enqueueDefaultQueueTask(1, generateRequest("1-1"));
+
+        // site 1 is not starved by site 0 that has older tasks
+        List<TaskQueueLock> poll1 = multiSiteQueue.lockSharedAgentTasks(2, "agent1", 300, 10);
+        assertThat(poll1.stream().map(lock -> lock.getUniqueName()).sorted().collect(Collectors.toList()),
+                is(Arrays.asList("0-1", "1-1")));
+
+        // site 0 can run at most 2 tasks
+        List<TaskQueueLock> poll2 = multiSiteQueue.lockSharedAgentTasks(2, "agent1", 300, 10);
+        assertThat(poll2.stream().map(lock -> lock.getUniqueName()).collect(Collectors.toList()),
+                is(Arrays.asList("0-2")));
+        assertThat(multiSiteQueue.lockSharedAgentTasks(2, "agent1", 300, 10).size(), is(0));
+
+        assertThat(multiSiteQueue.getSiteLockedTaskCount().get(0), is(2L));
+        assertThat(multiSiteQueue.getSiteLockedTaskCount().get(1), is(1L));
+    }
+
+    @Test
+    public void multiSiteLockingUsesSiteMaxConcurrency()
+        throws Exception
+    {
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.max_concurrency", 1)
+            .set("queue.db.multi_site_locking", true);
+        DatabaseTaskQueueConfig queueConfig = new DatabaseTaskQueueConfig(systemConfig)
+        {
+            @Override
+            public Map<Integer, Integer> getSiteMaxConcurrencies()
+            {
+                return ImmutableMap.of(0, 3);
+            }
+        };
+        DatabaseTaskQueueServer multiSiteQueue = new DatabaseTaskQueueServer(
+                factory.get(),
+                factory.getConfig(),
+                queueConfig,
+                objectMapper());
+
+        for (int i = 1; i <= 4; i++) {
+            multiSiteQueue.enqueueDefaultQueueTask(0, generateRequest("0-" + i));
+            multiSiteQueue.enqueueDefaultQueueTask(1, generateRequest("1-" + i));
+        }
+
+        List<TaskQueueLock> locked = multiSiteQueue.lockSharedAgentTasks(10, "agent1", 300, 10);
+        assertThat(locked.stream().map(lock -> lock.getUniqueName()).sorted().collect(Collectors.toList()),
+                is(Arrays.asList("0-1", "0-2", "0-3", "1-1")));
+        assertThat(multiSiteQueue.lockSharedAgentTasks(10, "agent1", 300, 10).size(), is(0));
+    }
+
+    @Test
+    public void pickSharedTasksFairly()
+        throws Exception
+    {
+        List<Map.Entry<Integer, Long>> candidates = Arrays.asList(
+                Maps.immutableEntry(0, 1L),
+                Maps.immutableEntry(0, 2L),
+                Maps.immutableEntry(0, 3L),
+                Maps.immutableEntry(1, 5L),
+                Maps.immutableEntry(1, 6L),
+                Maps.immutableEntry(2, 4L));
+        Map<Integer, Long> runningCounts = ImmutableMap.of(2, 3L);
+
+        // site 2 is full. round-robin between site 0 and 1
+        assertThat(DatabaseTaskQueueServer.pickSharedTasksFairly(candidates, runningCounts, siteId -> 3, 3),
+                is(Arrays.asList(1L, 2L, 5L)));
+        assertThat(DatabaseTaskQueueServer.pickSharedTasksFairly(candidates, runningCounts, siteId -> 3, 10),
+                is(Arrays.asList(1L, 2L, 3L, 5L, 6L)));
+        assertThat(DatabaseTaskQueueServer.pickSharedTasksFairly(candidates, runningCounts, siteId -> 4, 3),
+                is(Arrays.asList(1L, 4L, 5L)));
+    }
+
     @Test
     public void enqueueRejectedIfDuplicatedTaskId()
         throws Exception
@@ -212,6 +306,28 @@ public class DatabaseQueueTest
         assertThat(poll2.get(0).getUniqueName(), is("2"));
     }
 
+    @Test
+    public void heartbeatMultipleLocks()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1"));
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("2"));
+
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(2, "agent1", 300, 10);
+        assertThat(poll1.size(), is(2));
+        assertThat(poll1.get(0).getUniqueName(), is("1"));
+        assertThat(poll1.get(1).getUniqueName(), is("2"));
+
+        String lockId1 = poll1.get(0).getLockId();
+        String lockId2 = poll1.get(1).getLockId();
+
+        assertThat(taskQueue.taskHeartbeat(siteId, Arrays.asList(lockId1, lockId2), "agent1", 300).size(), is(0));
+
+        // only deleted lock is returned
+        taskQueue.deleteTask(siteId, lockId1, "agent1");
+        assertThat(taskQueue.taskHeartbeat(siteId, Arrays.asList(lockId1, lockId2), "agent1", 300), is(Arrays.asList(lockId1)));
+    }
+
     @Test
     public void heartbeatRejectedIfAgentIdMismatch()
         throws Exception
@@ -240,6 +356,49 @@ public class DatabaseQueueTest
         assertThat(failedLockIdList, is(Arrays.asList(poll1.get(0).getLockId())));
     }
 
+    @Test
+    public void wakeUpAgentsOnOtherServers()
+        throws Exception
+    {
+        // H2 doesn't support LISTEN/NOTIFY
+        assumeThat(factory.getConfig().getType(), is("postgresql"));
+
+        Config systemConfig = createConfigFactory().create();
+        DatabaseTaskQueueServer otherServer = new DatabaseTaskQueueServer(
+                factory.get(),
+                factory.getConfig(),
+                new DatabaseTaskQueueConfig(systemConfig),
+                objectMapper());
+        otherServer.start();
+        try {
+            // wait for the listener to start
+            Thread.sleep(1000);
+
+            Thread enqueueThread = new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                    taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1"));
+                }
+                catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            enqueueThread.start();
+
+            // this server doesn't enqueue the task. polling sleeps 60 seconds unless
+            // a notification wakes it up.
+            long startTime = System.currentTimeMillis();
+            assertThat(otherServer.lockSharedAgentTasks(1, "agent1", 300, 60000).size(), is(0));
+            assertThat(System.currentTimeMillis() - startTime < 30000, is(true));
+            enqueueThread.join();
+
+            assertThat(otherServer.lockSharedAgentTasks(1, "agent1", 300, 0).size(), is(1));
+        }
+        finally {
+            otherServer.shutdown();
+        }
+    }
+
     private TaskQueueRequest generateRequest(String uniqueName)
     {
         return TaskQueueRequest.builder()
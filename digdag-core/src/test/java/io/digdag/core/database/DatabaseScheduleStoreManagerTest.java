@@ -200,59 +200,56 @@ public class DatabaseScheduleStoreManagerTest
         //
         assertEquals(sched4.getId(), (long) schedStore.lockScheduleById(sched4.getId(), (store, schedule) -> schedule.getId()));
 
-        List<Integer> lockedByRuntime1 = new ArrayList<>();
-        schedManager.lockReadySchedules(runTime1, (store, schedule) -> {
-            lockedByRuntime1.add(schedule.getId());
-        });
+        List<Integer> lockedByRuntime1 = lockReadySchedules(runTime1, (store, schedule) -> { });
         assertEquals(ImmutableList.of(sched1.getId()), lockedByRuntime1);
 
-        List<Integer> lockedByRuntime2 = new ArrayList<>();
-        schedManager.lockReadySchedules(runTime2, (store, schedule) -> {
-            lockedByRuntime2.add(schedule.getId());
-        });
+        // sched3 comes first because its next_run_time is rolled back
+        List<Integer> lockedByRuntime2 = lockReadySchedules(runTime2, (store, schedule) -> { });
         assertEquals(ImmutableList.of(sched3.getId(), sched4.getId()), lockedByRuntime2);
 
-        // exception during lockReadySchedules
+        // exception during lockReadyScheduleById
         try {
-            schedManager.lockReadySchedules(runTime2, (store, schedule) -> {
+            schedManager.lockReadyScheduleById(sched3.getId(), runTime2, (store, schedule) -> {
                 throw new RuntimeException("processing " + schedule.getId());
             });
             fail();
         }
         catch (RuntimeException ex) {
             assertEquals(ex.getMessage(), "processing " + sched3.getId());
-            assertEquals(1, ex.getSuppressed().length);
-            assertEquals(ex.getSuppressed()[0].getMessage(), "processing " + sched4.getId());
         }
+        assertEquals(ImmutableList.of(sched3.getId(), sched4.getId()), schedManager.getReadyScheduleIds(runTime2, 10));
 
-        // partial processing of lockReadySchedules
+        // each schedule is processed in its own transaction. a failure doesn't
+        // roll back updates of other schedules
         Instant runTime3 = now.plusSeconds(3);
         Instant schedTime3 = now.plusSeconds(30);
         Instant runTime4 = now.plusSeconds(4);
         Instant schedTime4 = now.plusSeconds(40);
 
+        assertTrue(schedManager.lockReadyScheduleById(sched4.getId(), runTime2, (store, schedule) -> {
+            try {
+                store.updateNextScheduleTime(schedule.getId(), ScheduleTime.of(schedTime3, runTime3));
+            }
+            catch (ResourceNotFoundException ex) {
+                throw new RuntimeException(ex);
+            }
+        }));
         try {
-            schedManager.lockReadySchedules(runTime2, (store, schedule) -> {
-                if (schedule.getId() == sched3.getId()) {
-                    throw new RuntimeException();
+            schedManager.lockReadyScheduleById(sched3.getId(), runTime2, (store, schedule) -> {
+                try {
+                    store.updateNextScheduleTime(schedule.getId(), ScheduleTime.of(schedTime3, runTime3));
                 }
-                else {
-                    try {
-                        store.updateNextScheduleTime(schedule.getId(), ScheduleTime.of(schedTime3, runTime3));
-                    }
-                    catch (ResourceNotFoundException ex) {
-                        throw new RuntimeException(ex);
-                    }
+                catch (ResourceNotFoundException ex) {
+                    throw new RuntimeException(ex);
                 }
+                throw new RuntimeException();
             });
             fail();
         }
         catch (RuntimeException ex) {
         }
 
-        List<Integer> updated = new ArrayList<>();
-        schedManager.lockReadySchedules(runTime2, (store, schedule) -> {
-            updated.add(schedule.getId());
+        List<Integer> updated = lockReadySchedules(runTime2, (store, schedule) -> {
             try {
                 store.updateNextScheduleTimeAndLastSessionTime(schedule.getId(), ScheduleTime.of(schedTime4, runTime4), schedTime1);
             }
@@ -324,18 +321,18 @@ public class DatabaseScheduleStoreManagerTest
         });
         {
             List<Integer> ready = new ArrayList<>();
-            schedManager.lockReadySchedules(Instant.now(), (store, schedule) -> ready.add(schedule.getId()));
+            ready.addAll(lockReadySchedules(Instant.now(), (store, schedule) -> { }));
             assertThat(ready, containsInAnyOrder(sched1.getId(), sched2.getId()));
         }
 
-        // Disable one of the schedules and verify that lockReadySchedules skips it
+        // Disable one of the schedules and verify that it's not ready
         schedStore.updateScheduleById(sched1.getId(), (store, schedule) -> {
             store.disableSchedule(schedule.getId());
             return schedule;
         });
         {
             List<Integer> ready = new ArrayList<>();
-            schedManager.lockReadySchedules(Instant.now(), (store, schedule) -> ready.add(schedule.getId()));
+            ready.addAll(lockReadySchedules(Instant.now(), (store, schedule) -> { }));
             assertThat(ready, contains(sched2.getId()));
         }
 
@@ -356,14 +353,14 @@ public class DatabaseScheduleStoreManagerTest
                     containsInAnyOrder(s1, s2));
         }
 
-        // Re-enable the schedule and verify that lockReadySchedules processes it
+        // Re-enable the schedule and verify that it's ready again
         schedStore.updateScheduleById(sched1.getId(), (store, schedule) -> {
             store.enableSchedule(schedule.getId());
             return schedule;
         });
         {
             List<Integer> ready = new ArrayList<>();
-            schedManager.lockReadySchedules(Instant.now(), (store, schedule) -> ready.add(schedule.getId()));
+            ready.addAll(lockReadySchedules(Instant.now(), (store, schedule) -> { }));
             assertThat(ready, containsInAnyOrder(sched1.getId(), sched2.getId()));
         }
 
@@ -374,8 +371,90 @@ public class DatabaseScheduleStoreManagerTest
         });
         {
             List<Integer> ready = new ArrayList<>();
-            schedManager.lockReadySchedules(Instant.now(), (store, schedule) -> ready.add(schedule.getId()));
+            ready.addAll(lockReadySchedules(Instant.now(), (store, schedule) -> { }));
             assertThat(ready, containsInAnyOrder(sched1.getId(), sched2.getId()));
         }
     }
+
+    @Test
+    public void testLockReadyScheduleById()
+        throws Exception
+    {
+        Project srcProj1 = Project.of("proj1");
+        Revision srcRev1 = createRevision("rev1");
+        WorkflowDefinition srcWf1 = createWorkflow("wf1");
+        WorkflowDefinition srcWf2 = createWorkflow("wf2");
+
+        Instant yesterday = Instant.now().minus(Duration.ofDays(1)).truncatedTo(SECONDS);
+        Instant twoDaysAgo = yesterday.minus(Duration.ofDays(1));
+
+        store.putAndLockProject(
+                srcProj1,
+                (store, stored) -> {
+                    ProjectControl lock = new ProjectControl(store, stored);
+                    StoredRevision rev = lock.insertRevision(srcRev1);
+                    List<StoredWorkflowDefinition> defs = lock.insertWorkflowDefinitionsWithoutSchedules(rev, ImmutableList.of(srcWf1, srcWf2));
+                    store.updateSchedules(
+                            stored.getId(),
+                            ImmutableList.of(
+                                Schedule.of(srcWf1.getName(), defs.get(0).getId(), yesterday, yesterday),
+                                Schedule.of(srcWf2.getName(), defs.get(1).getId(), twoDaysAgo, twoDaysAgo)
+                                ),
+                            (oldStatus, newSched) -> {
+                                return oldStatus.getNextScheduleTime();
+                            });
+                    return lock.get();
+                });
+
+        List<StoredSchedule> schedList = schedStore.getSchedules(100, Optional.absent());
+        StoredSchedule sched1 = schedList.get(0);
+        StoredSchedule sched2 = schedList.get(1);
+
+        // the oldest schedule comes first
+        Instant now = Instant.now();
+        assertEquals(ImmutableList.of(sched2.getId(), sched1.getId()), schedManager.getReadyScheduleIds(now, 10));
+        assertEquals(ImmutableList.of(sched2.getId()), schedManager.getReadyScheduleIds(now, 1));
+        assertEquals(ImmutableList.of(), schedManager.getReadyScheduleIds(twoDaysAgo.minusSeconds(1), 10));
+
+        List<Integer> locked = new ArrayList<>();
+        assertTrue(schedManager.lockReadyScheduleById(sched1.getId(), now, (store, schedule) -> {
+            locked.add(schedule.getId());
+            try {
+                store.updateNextScheduleTime(schedule.getId(), ScheduleTime.of(now.plusSeconds(3600), now.plusSeconds(3600)));
+            }
+            catch (ResourceNotFoundException ex) {
+                throw new RuntimeException(ex);
+            }
+        }));
+        assertEquals(ImmutableList.of(sched1.getId()), locked);
+
+        // already processed schedule is skipped
+        assertFalse(schedManager.lockReadyScheduleById(sched1.getId(), now, (store, schedule) -> {
+            fail();
+        }));
+        assertEquals(ImmutableList.of(sched2.getId()), schedManager.getReadyScheduleIds(now, 10));
+
+        // disabled schedule is skipped
+        schedStore.updateScheduleById(sched2.getId(), (store, schedule) -> {
+            store.disableSchedule(schedule.getId());
+            return schedule;
+        });
+        assertFalse(schedManager.lockReadyScheduleById(sched2.getId(), now, (store, schedule) -> {
+            fail();
+        }));
+        assertEquals(ImmutableList.of(), schedManager.getReadyScheduleIds(now, 10));
+    }
+
+    // locks ready schedules one by one as ScheduleExecutor does. returns ids of
+    // the locked schedules.
+    private List<Integer> lockReadySchedules(Instant currentTime, ScheduleStoreManager.ScheduleAction func)
+    {
+        List<Integer> locked = new ArrayList<>();
+        for (int schedId : schedManager.getReadyScheduleIds(currentTime, 100)) {
+            if (schedManager.lockReadyScheduleById(schedId, currentTime, func)) {
+                locked.add(schedId);
+            }
+        }
+        return locked;
+    }
 }
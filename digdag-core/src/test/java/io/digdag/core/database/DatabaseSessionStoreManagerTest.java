@@ -3,8 +3,10 @@ package io.digdag.core.database;
 import java.util.*;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.stream.Collectors;
 
 import org.junit.*;
+import org.skife.jdbi.v2.Handle;
 import com.google.common.base.Optional;
 import com.google.common.collect.*;
 import io.digdag.core.repository.*;
@@ -12,7 +14,9 @@ import io.digdag.core.schedule.*;
 import io.digdag.core.session.*;
 import io.digdag.core.workflow.*;
 import io.digdag.spi.ScheduleTime;
+import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
+import static io.digdag.client.DigdagClient.objectMapper;
 import static io.digdag.core.database.DatabaseTestingUtils.*;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.*;
@@ -413,6 +417,9 @@ public class DatabaseSessionStoreManagerTest
         // task archving
         //
         List<ArchivedTask> activeArchive = store.getTasksOfAttempt(attempt1.getId());
+        List<ArchivedTask> activeTasks = new ArrayList<>();
+        store.forEachTaskOfAttempt(attempt1.getId(), activeTasks::add);
+        assertThat(activeTasks, is(activeArchive));
         SessionAttemptSummary sum = manager.lockAttemptIfExists(
                 attempt1.getId(),
                 (store, summary) -> {
@@ -420,6 +427,163 @@ public class DatabaseSessionStoreManagerTest
                     return summary;
                 }).get();
         assertThat(activeArchive, is(store.getTasksOfAttempt(attempt1.getId())));
+
+        // archived tasks are read from task_archives after deleting tasks
+        manager.lockAttemptIfExists(
+                attempt1.getId(),
+                (store, summary) -> {
+                    store.deleteAllTasksOfAttempt(attempt1.getId());
+                    return summary;
+                }).get();
+        assertThat(store.getTasksOfAttempt(attempt1.getId()), is(activeArchive));
+        List<ArchivedTask> archivedTasks = new ArrayList<>();
+        store.forEachTaskOfAttempt(attempt1.getId(), archivedTasks::add);
+        assertThat(archivedTasks, is(activeArchive));
+        ArchivedTask lastTask = activeArchive.get(activeArchive.size() - 1);
+        assertThat(store.getTasksOfAttempt(attempt1.getId(), ImmutableList.of(lastTask.getId(), lastTask.getId() + 1000)),
+                is(ImmutableList.of(lastTask)));
+        assertThat(anotherSite.getTasksOfAttempt(attempt1.getId()), is(ImmutableList.of()));
+    }
+
+    @Test
+    public void readLegacyTaskArchive()
+        throws Exception
+    {
+        long attemptId = otherProjAttempt1.getId();
+        List<ArchivedTask> tasks = store.getTasksOfAttempt(attemptId);
+        assertThat(tasks.size() > 1, is(true));
+
+        // task archives stored by old versions have JSON in tasks column and null in tasks_data column
+        manager.lockAttemptIfExists(
+                attemptId,
+                (store, summary) -> {
+                    store.deleteAllTasksOfAttempt(attemptId);
+                    return summary;
+                }).get();
+        String json = objectMapper().writeValueAsString(tasks);
+        try (Handle handle = factory.get().open()) {
+            handle.insert("insert into task_archives (id, tasks, created_at) values (?, ?, now())", attemptId, json);
+        }
+
+        assertThat(store.getTasksOfAttempt(attemptId), is(tasks));
+        ArchivedTask lastTask = tasks.get(tasks.size() - 1);
+        assertThat(store.getTasksOfAttempt(attemptId, ImmutableList.of(lastTask.getId(), lastTask.getId() + 1000)),
+                is(ImmutableList.of(lastTask)));
+        List<ArchivedTask> streamed = new ArrayList<>();
+        store.forEachTaskOfAttempt(attemptId, streamed::add);
+        assertThat(streamed, is(tasks));
+        assertThat(manager.getSessionStore(1).getTasksOfAttempt(attemptId), is(ImmutableList.of()));
+    }
+
+    @Test
+    public void forEachTaskOfAttemptArchivedBetweenPages()
+        throws Exception
+    {
+        DatabaseSessionStoreManager manager = factory.getSessionStoreManager();
+        manager.setTaskPageSize(3);
+        SessionStore sessionStore = manager.getSessionStore(0);
+
+        Config config = cf.create();
+        for (int i = 0; i < 10; i++) {
+            config.set("+t" + i, cf.create().set("noop>", ""));
+        }
+        WorkflowDefinition srcWf = WorkflowDefinition.of("paged", config, ZoneId.of("UTC"));
+        StoredWorkflowDefinition[] wf = new StoredWorkflowDefinition[1];
+        StoredRevision pagedRev = projectStore.putAndLockProject(
+                Project.of("paged"),
+                (store, stored) -> {
+                    ProjectControl lock = new ProjectControl(store, stored);
+                    StoredRevision storedRev = lock.insertRevision(createRevision("rev1"));
+                    wf[0] = lock.insertWorkflowDefinitionsWithoutSchedules(storedRev, ImmutableList.of(srcWf)).get(0);
+                    return storedRev;
+                });
+        long attemptId = exec.submitWorkflow(0,
+                attemptBuilder.buildFromStoredWorkflow(pagedRev, wf[0], cf.create(),
+                    ScheduleTime.runNow(Instant.ofEpochSecond(Instant.now().getEpochSecond()))),
+                wf[0]).getId();
+        List<ArchivedTask> tasks = sessionStore.getTasksOfAttempt(attemptId);
+        assertThat(tasks.size(), is(11));
+
+        // the attempt is archived while the first page is processed. the rest
+        // of tasks are read from the archive.
+        List<ArchivedTask> streamed = new ArrayList<>();
+        sessionStore.forEachTaskOfAttempt(attemptId, (task) -> {
+            if (streamed.isEmpty()) {
+                manager.lockAttemptIfExists(
+                        attemptId,
+                        (control, summary) -> {
+                            control.aggregateAndInsertTaskArchive(attemptId);
+                            control.deleteAllTasksOfAttempt(attemptId);
+                            return summary;
+                        }).get();
+            }
+            streamed.add(task);
+        });
+        assertThat(streamed, is(tasks));
+        assertThat(sessionStore.getTasksOfAttempt(attemptId), is(tasks));
+    }
+
+    @Test
+    public void testLockTasks()
+        throws Exception
+    {
+        List<Long> taskIds = manager.getTaskRelations(otherProjAttempt1.getId())
+            .stream()
+            .map(rel -> rel.getId())
+            .sorted()
+            .collect(Collectors.toList());
+        long rootTaskId = taskIds.get(0);
+        long childTaskId = taskIds.get(1);
+        long missingTaskId = taskIds.get(taskIds.size() - 1) + 100;
+
+        // missing tasks are excluded and locked tasks are sorted by id
+        List<Long> lockedTaskIds = manager.lockTasksIfExist(
+                ImmutableList.<Long>builder().add(missingTaskId).addAll(Lists.reverse(taskIds)).build(),
+                (store, locked) -> locked);
+        assertThat(lockedTaskIds, is(taskIds));
+
+        List<StoredTask> lockedTasks = manager.lockTasksWithDetailsIfExist(
+                ImmutableList.of(missingTaskId, childTaskId, rootTaskId),
+                (store, tasks) -> tasks);
+        assertThat(lockedTasks.stream().map(task -> task.getId()).collect(Collectors.toList()), is(taskIds));
+        assertThat(lockedTasks.get(0).getState(), is(TaskStateCode.PLANNED));
+        assertThat(lockedTasks.get(1).getState(), is(TaskStateCode.BLOCKED));
+
+        // the root task has a BLOCKED child that is ready to run
+        List<Long> doneable = manager.lockTasksIfExist(taskIds, (store, locked) ->
+                store.findTasksWithoutProgressibleChild(locked));
+        assertThat(doneable, is(ImmutableList.of(childTaskId)));
+
+        int updated = manager.lockTasksIfExist(ImmutableList.of(rootTaskId, missingTaskId), (store, locked) ->
+                store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(locked));
+        assertThat(updated, is(1));
+        assertThat(manager.findTasksByState(TaskStateCode.READY, 0), is(ImmutableList.of(childTaskId)));
+    }
+
+    @Test
+    public void canceledTasksAreFoundAsRecentlyChanged()
+        throws Exception
+    {
+        long attemptId = otherProjAttempt1.getId();
+        List<Long> taskIds = manager.getTaskRelations(attemptId)
+            .stream()
+            .map(rel -> rel.getId())
+            .sorted()
+            .collect(Collectors.toList());
+
+        // incremental status propagation of WorkflowExecutor scans tasks updated
+        // since the last scan. nothing is changed since the scan yet.
+        Thread.sleep(100);
+        Instant lastScan = manager.getStoreTime();
+        assertThat(manager.findRecentlyChangedTasks(lastScan, 0L).size(), is(0));
+
+        assertThat(manager.requestCancelAttempt(attemptId), is(true));
+
+        List<TaskStateSummary> changed = manager.findRecentlyChangedTasks(lastScan, 0L);
+        assertThat(changed.stream().map(task -> task.getId()).sorted().collect(Collectors.toList()), is(taskIds));
+        for (StoredTask task : manager.lockTasksWithDetailsIfExist(taskIds, (store, tasks) -> tasks)) {
+            assertThat(task.getStateFlags().isCancelRequested(), is(true));
+        }
     }
 
     private void assertSessionAndLastAttemptEquals(StoredSessionWithLastAttempt session, StoredSessionAttemptWithSession attempt)
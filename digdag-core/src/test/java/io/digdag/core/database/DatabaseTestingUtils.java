@@ -80,6 +80,7 @@ public class DatabaseTestingUtils
         "projects",
         "revisions",
         "revision_archives",
+        "project_archive_files",
         "workflow_configs",
         "workflow_definitions",
         "schedules",
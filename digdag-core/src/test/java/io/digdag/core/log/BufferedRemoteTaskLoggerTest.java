@@ -0,0 +1,115 @@
+package io.digdag.core.log;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import io.digdag.core.TempFileManager;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class BufferedRemoteTaskLoggerTest
+{
+    private static final long FLUSH_INTERVAL_MILLIS = 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> uploadedChunks = new ArrayList<>();
+    private final List<Boolean> uploadedLastChunks = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledFlush;
+    private BufferedRemoteTaskLogger taskLogger;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        // tasks are run only when the test runs them
+        scheduler = mock(ScheduledExecutorService.class);
+        scheduledFlush = mock(ScheduledFuture.class);
+        doReturn(scheduledFlush).when(scheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        TempFileManager tempFiles = new TempFileManager(folder.newFolder().toPath());
+        taskLogger = new BufferedRemoteTaskLogger(tempFiles, "+wf+task",
+                (firstLogTime, contentLength, gzData, lastChunk) -> {
+                    try (InputStream in = new GZIPInputStream(gzData.open())) {
+                        uploadedChunks.add(new String(ByteStreams.toByteArray(in), UTF_8));
+                    }
+                    uploadedLastChunks.add(lastChunk);
+                },
+                Deflater.DEFAULT_COMPRESSION, Optional.of(scheduler), FLUSH_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void flushPartiallyFilledBufferAfterFlushInterval()
+        throws Exception
+    {
+        log("a\n");
+        log("b\n");
+        Runnable flush = captureScheduledFlush(1);
+        assertThat(uploadedChunks, is(ImmutableList.of()));
+
+        // flush_interval elapsed
+        flush.run();
+        assertThat(uploadedChunks, is(ImmutableList.of("a\nb\n")));
+        assertThat(uploadedLastChunks, is(ImmutableList.of(false)));
+
+        // next log opens a new buffer and schedules the next flush
+        log("c\n");
+        captureScheduledFlush(2);
+
+        taskLogger.close();
+        verify(scheduledFlush).cancel(false);
+        assertThat(uploadedChunks, is(ImmutableList.of("a\nb\n", "c\n")));
+        assertThat(uploadedLastChunks, is(ImmutableList.of(false, true)));
+    }
+
+    @Test
+    public void flushAfterCloseUploadsNothing()
+        throws Exception
+    {
+        log("a\n");
+        Runnable flush = captureScheduledFlush(1);
+        taskLogger.close();
+        assertThat(uploadedChunks, is(ImmutableList.of("a\n")));
+
+        // the scheduled flush may run even if it's canceled
+        flush.run();
+        assertThat(uploadedChunks, is(ImmutableList.of("a\n")));
+        assertThat(uploadedLastChunks, is(ImmutableList.of(true)));
+    }
+
+    private void log(String message)
+    {
+        byte[] data = message.getBytes(UTF_8);
+        taskLogger.log(data, 0, data.length);
+    }
+
+    private Runnable captureScheduledFlush(int count)
+    {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(count)).schedule(captor.capture(), eq(FLUSH_INTERVAL_MILLIS), eq(TimeUnit.MILLISECONDS));
+        return captor.getValue();
+    }
+}
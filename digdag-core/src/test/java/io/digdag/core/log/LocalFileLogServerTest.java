@@ -0,0 +1,100 @@
+package io.digdag.core.log;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.stream.Collectors;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import io.digdag.core.agent.AgentId;
+import io.digdag.spi.LogFilePrefix;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfig;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LocalFileLogServerTest
+{
+    private static final String AGENT_ID = "1@host";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AbstractFileLogServer logServer;
+    private LogFilePrefix prefix;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        LocalFileLogServerFactory factory = new LocalFileLogServerFactory(
+                createConfig().set("log-server.local.path", folder.newFolder().toString()),
+                AgentId.of(AGENT_ID));
+        logServer = (AbstractFileLogServer) factory.getLogServer();
+        prefix = LogFilePrefix.builder()
+            .siteId(0)
+            .projectId(1)
+            .workflowName("wf")
+            .sessionTime(Instant.ofEpochSecond(1481600000L))
+            .timeZone(ZoneId.of("UTC"))
+            .retryAttemptName(Optional.absent())
+            .createdAt(Instant.now())
+            .build();
+
+        putFile("+wf+a", 1481600001L);
+        putFile("+wf+ab", 1481600002L);
+        putFile("+wf+b", 1481600003L);
+        putFile("+wf+a", 1481600004L);
+
+        // logs in a batch file are filtered by task name in the same way
+        LogBatchUploader uploader = new LogBatchUploader(logServer, AGENT_ID, 1024 * 1024);
+        uploader.add(prefix, "+wf+a", Instant.ofEpochSecond(1481600005L), "batch log".getBytes(UTF_8));
+        uploader.add(prefix, "+wf+ab", Instant.ofEpochSecond(1481600006L), "batch log".getBytes(UTF_8));
+        uploader.flush();
+    }
+
+    @Test
+    public void listAllFiles()
+        throws Exception
+    {
+        assertThat(listTaskNames(Optional.absent()),
+                is(ImmutableList.of("+wf+a", "+wf+a", "+wf+a", "+wf+ab", "+wf+ab", "+wf+b")));
+    }
+
+    @Test
+    public void listFilesOfTask()
+        throws Exception
+    {
+        assertThat(listTaskNames(Optional.of("+wf+b")), is(ImmutableList.of("+wf+b")));
+        assertThat(listTaskNames(Optional.of("+wf+ab")), is(ImmutableList.of("+wf+ab", "+wf+ab")));
+    }
+
+    @Test
+    public void taskNameMatchesAsPrefix()
+        throws Exception
+    {
+        // task name is matched with the beginning of file names. files of
+        // tasks whose names start with the given name (+wf+ab for +wf+a)
+        // are also listed.
+        assertThat(listTaskNames(Optional.of("+wf+a")),
+                is(ImmutableList.of("+wf+a", "+wf+a", "+wf+a", "+wf+ab", "+wf+ab")));
+        assertThat(listTaskNames(Optional.of("+wf+c")), is(ImmutableList.of()));
+    }
+
+    private void putFile(String taskName, long fileTime)
+    {
+        logServer.putFile(prefix, taskName, Instant.ofEpochSecond(fileTime), AGENT_ID, "log".getBytes(UTF_8));
+    }
+
+    private List<String> listTaskNames(Optional<String> taskName)
+    {
+        return logServer.getFileHandles(prefix, taskName).stream()
+            .map(handle -> handle.getTaskName())
+            .sorted()
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,48 @@
+package io.digdag.core.log;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class LogBatchFileTest
+{
+    @Test
+    public void readIndex()
+        throws Exception
+    {
+        byte[] data1 = "log1".getBytes(UTF_8);
+        byte[] data2 = "log-file-2".getBytes(UTF_8);
+        byte[] batch = LogBatchFile.build(
+                ImmutableList.of("+wf+t1@file1", "+wf+t2@file2"),
+                ImmutableList.of(data1, data2));
+
+        List<LogBatchFile.Entry> index = LogBatchFile.readIndex(new ByteArrayInputStream(batch));
+        assertEquals(2, index.size());
+        assertEquals("+wf+t1@file1", index.get(0).getFileName());
+        assertEquals("+wf+t2@file2", index.get(1).getFileName());
+
+        LogBatchFile.Entry e1 = index.get(0);
+        LogBatchFile.Entry e2 = index.get(1);
+        assertArrayEquals(data1, Arrays.copyOfRange(batch, (int) e1.getOffset(), (int) e1.getOffset() + e1.getLength()));
+        assertArrayEquals(data2, Arrays.copyOfRange(batch, (int) e2.getOffset(), (int) e2.getOffset() + e2.getLength()));
+    }
+
+    @Test
+    public void batchEntryFileName()
+    {
+        String fileName = LogFiles.formatFileName("+wf+t1", Instant.ofEpochSecond(1481600000L), "1@host");
+        String batchFileName = LogFiles.formatBatchFileName(Instant.ofEpochSecond(1481600001L), "1@host");
+        assertTrue(LogFiles.isBatchFileName(batchFileName));
+        assertFalse(LogFiles.isBatchFileName(fileName));
+
+        String entryFileName = LogFiles.formatBatchEntryFileName(fileName, batchFileName);
+        assertEquals(batchFileName, LogFiles.getBatchFileNameOfEntry(entryFileName).get());
+        assertEquals(fileName, LogFiles.getFileNameOfEntry(entryFileName));
+        assertFalse(LogFiles.getBatchFileNameOfEntry(fileName).isPresent());
+    }
+}
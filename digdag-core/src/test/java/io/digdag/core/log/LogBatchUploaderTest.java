@@ -0,0 +1,154 @@
+package io.digdag.core.log;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import io.digdag.core.agent.AgentId;
+import io.digdag.spi.LogFileHandle;
+import io.digdag.spi.LogFilePrefix;
+import io.digdag.spi.StorageFileNotFoundException;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfig;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LogBatchUploaderTest
+{
+    private static final String AGENT_ID = "1@host";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AbstractFileLogServer logServer;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        LocalFileLogServerFactory factory = new LocalFileLogServerFactory(
+                createConfig().set("log-server.local.path", folder.newFolder().toString()),
+                AgentId.of(AGENT_ID));
+        logServer = (AbstractFileLogServer) factory.getLogServer();
+    }
+
+    @Test
+    public void listAndReadBatchEntries()
+        throws Exception
+    {
+        LogFilePrefix prefix = logFilePrefix();
+        byte[] data1 = "log of t1".getBytes(UTF_8);
+        byte[] data2 = "longer log of t2".getBytes(UTF_8);
+        byte[] data3 = "log of t3 not in a batch".getBytes(UTF_8);
+
+        LogBatchUploader uploader = new LogBatchUploader(logServer, AGENT_ID, 1024 * 1024);
+        uploader.add(prefix, "+wf+t1", Instant.ofEpochSecond(1481600001L), data1);
+        uploader.add(prefix, "+wf+t2", Instant.ofEpochSecond(1481600002L), data2);
+        logServer.putFile(prefix, "+wf+t3", Instant.ofEpochSecond(1481600003L), AGENT_ID, data3);
+
+        // nothing is uploaded until flush
+        assertThat(logServer.getFileHandles(prefix, Optional.absent()).size(), is(1));
+        uploader.flush();
+
+        List<LogFileHandle> all = logServer.getFileHandles(prefix, Optional.absent());
+        assertThat(all.size(), is(3));
+        assertThat(all.get(0).getTaskName(), is("+wf+t1"));
+        assertThat(all.get(1).getTaskName(), is("+wf+t2"));
+        assertThat(all.get(2).getTaskName(), is("+wf+t3"));
+        assertThat(LogFiles.getBatchFileNameOfEntry(all.get(0).getFileName()).isPresent(), is(true));
+        assertThat(LogFiles.getBatchFileNameOfEntry(all.get(1).getFileName()).isPresent(), is(true));
+        assertThat(LogFiles.getBatchFileNameOfEntry(all.get(2).getFileName()).isPresent(), is(false));
+        assertThat(all.get(0).getFileSize(), is((long) data1.length));
+        assertThat(all.get(1).getFileSize(), is((long) data2.length));
+
+        // entries in a batch file are listed also when files are filtered by task name
+        List<LogFileHandle> t2 = logServer.getFileHandles(prefix, Optional.of("+wf+t2"));
+        assertThat(t2.size(), is(1));
+        String entryFileName = t2.get(0).getFileName();
+        assertThat(entryFileName, is(all.get(1).getFileName()));
+        assertThat(LogFiles.getFileNameOfEntry(entryFileName),
+                is(LogFiles.formatFileName("+wf+t2", Instant.ofEpochSecond(1481600002L), AGENT_ID)));
+
+        // reading an entry returns only the range of the entry in the batch file
+        assertThat(logServer.getFile(prefix, all.get(0).getFileName()), is(data1));
+        assertThat(logServer.getFile(prefix, entryFileName), is(data2));
+        try (InputStream in = logServer.openFile(prefix, entryFileName)) {
+            assertThat(ByteStreams.toByteArray(in), is(data2));
+        }
+        assertThat(logServer.getFile(prefix, all.get(2).getFileName()), is(data3));
+    }
+
+    @Test
+    public void uploadWhenBatchIsFull()
+        throws Exception
+    {
+        LogFilePrefix prefix = logFilePrefix();
+        byte[] data = "0123456789".getBytes(UTF_8);
+
+        LogBatchUploader uploader = new LogBatchUploader(logServer, AGENT_ID, 15);
+        uploader.add(prefix, "+wf+t1", Instant.ofEpochSecond(1481600001L), data);
+        assertThat(logServer.getFileHandles(prefix, Optional.absent()).size(), is(0));
+        uploader.add(prefix, "+wf+t2", Instant.ofEpochSecond(1481600002L), data);
+        assertThat(logServer.getFileHandles(prefix, Optional.absent()).size(), is(2));
+    }
+
+    @Test
+    public void readLargeBatchIndex()
+        throws Exception
+    {
+        // the index is larger than the range read first
+        LogFilePrefix prefix = logFilePrefix();
+        LogBatchUploader uploader = new LogBatchUploader(logServer, AGENT_ID, 1024 * 1024);
+        for (int i = 0; i < 2000; i++) {
+            uploader.add(prefix, "+wf+t" + i, Instant.ofEpochSecond(1481600000L + i), ("log of t" + i).getBytes(UTF_8));
+        }
+        uploader.flush();
+
+        List<LogFileHandle> all = logServer.getFileHandles(prefix, Optional.absent());
+        assertThat(all.size(), is(2000));
+        for (LogFileHandle handle : all) {
+            assertThat(new String(logServer.getFile(prefix, handle.getFileName()), UTF_8),
+                    is("log of " + handle.getTaskName().substring("+wf+".length())));
+        }
+    }
+
+    @Test
+    public void missingEntryIsNotFound()
+        throws Exception
+    {
+        LogFilePrefix prefix = logFilePrefix();
+        LogBatchUploader uploader = new LogBatchUploader(logServer, AGENT_ID, 1024 * 1024);
+        uploader.add(prefix, "+wf+t1", Instant.ofEpochSecond(1481600001L), "log".getBytes(UTF_8));
+        uploader.flush();
+
+        String batchFileName = LogFiles.getBatchFileNameOfEntry(
+                logServer.getFileHandles(prefix, Optional.absent()).get(0).getFileName()).get();
+        String fileName = LogFiles.formatFileName("+wf+t9", Instant.ofEpochSecond(1481600009L), AGENT_ID);
+        try {
+            logServer.getFile(prefix, LogFiles.formatBatchEntryFileName(fileName, batchFileName));
+            fail();
+        }
+        catch (StorageFileNotFoundException ex) {
+        }
+    }
+
+    private static LogFilePrefix logFilePrefix()
+    {
+        return LogFilePrefix.builder()
+            .siteId(0)
+            .projectId(1)
+            .workflowName("wf")
+            .sessionTime(Instant.ofEpochSecond(1481600000L))
+            .timeZone(ZoneId.of("UTC"))
+            .retryAttemptName(Optional.absent())
+            .createdAt(Instant.now())
+            .build();
+    }
+}
@@ -0,0 +1,192 @@
+package io.digdag.core.log;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigException;
+import io.digdag.core.TempFileManager;
+import io.digdag.core.agent.AgentId;
+import io.digdag.core.storage.StorageManager;
+import io.digdag.spi.DirectUploadHandle;
+import io.digdag.spi.LogFileHandle;
+import io.digdag.spi.LogFilePrefix;
+import io.digdag.spi.LogServer;
+import io.digdag.spi.LogServerFactory;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfig;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LogServerManagerTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private TempFileManager tempFiles;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        tempFiles = new TempFileManager(folder.newFolder().toPath());
+    }
+
+    @Test
+    public void acceptValidCompressionLevels()
+    {
+        for (int level : new int[] { -1, 0, 1, 9 }) {
+            newLogServerManager(new NullLogServerFactory(), createConfig()
+                    .set("log-server.buffer.compression_level", level))
+                .shutdown();
+        }
+    }
+
+    @Test
+    public void rejectTooLargeCompressionLevel()
+    {
+        exception.expect(ConfigException.class);
+        newLogServerManager(new NullLogServerFactory(), createConfig()
+                .set("log-server.buffer.compression_level", 10));
+    }
+
+    @Test
+    public void rejectTooSmallCompressionLevel()
+    {
+        exception.expect(ConfigException.class);
+        newLogServerManager(new NullLogServerFactory(), createConfig()
+                .set("log-server.buffer.compression_level", -2));
+    }
+
+    @Test
+    public void rejectZeroFlushThreads()
+    {
+        exception.expect(ConfigException.class);
+        newLogServerManager(new NullLogServerFactory(), createConfig()
+                .set("log-server.buffer.flush_threads", 0));
+    }
+
+    @Test
+    public void slowUploadDoesNotBlockOtherFlushes()
+        throws Exception
+    {
+        // each upload waits until the other one starts. this completes only if
+        // flushes run in parallel.
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch finished = new CountDownLatch(2);
+        AtomicInteger parallelUploads = new AtomicInteger(0);
+        LogServerFactory factory = new BlockingLogServerFactory(() -> {
+            started.countDown();
+            try {
+                if (started.await(30, TimeUnit.SECONDS)) {
+                    parallelUploads.incrementAndGet();
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                finished.countDown();
+            }
+        });
+
+        LogServerManager manager = newLogServerManager(factory, createConfig()
+                .set("log-server.type", "blocking")
+                .set("log-server.buffer.flush_interval", 1)
+                .set("log-server.buffer.flush_threads", 2));
+        try {
+            AgentId agentId = AgentId.of("test");
+            TaskLogger logger1 = manager.newInProcessTaskLogger(agentId, logFilePrefix(), "+wf+t1");
+            TaskLogger logger2 = manager.newInProcessTaskLogger(agentId, logFilePrefix(), "+wf+t2");
+            logger1.log(LogLevel.INFO, System.currentTimeMillis(), "log1\n");
+            logger2.log(LogLevel.INFO, System.currentTimeMillis(), "log2\n");
+
+            assertThat(finished.await(60, TimeUnit.SECONDS), is(true));
+            assertThat(parallelUploads.get(), is(2));
+        }
+        finally {
+            manager.shutdown();
+        }
+    }
+
+    private LogServerManager newLogServerManager(LogServerFactory factory, Config systemConfig)
+    {
+        return new LogServerManager(ImmutableSet.of(factory), systemConfig, tempFiles,
+                new StorageManager(ImmutableSet.of()));
+    }
+
+    private static LogFilePrefix logFilePrefix()
+    {
+        return LogFilePrefix.builder()
+            .siteId(0)
+            .projectId(1)
+            .workflowName("wf")
+            .sessionTime(Instant.ofEpochSecond(1481600000L))
+            .timeZone(ZoneId.of("UTC"))
+            .retryAttemptName(Optional.absent())
+            .createdAt(Instant.now())
+            .build();
+    }
+
+    private static class BlockingLogServerFactory
+            implements LogServerFactory
+    {
+        private final Runnable onPutFile;
+
+        BlockingLogServerFactory(Runnable onPutFile)
+        {
+            this.onPutFile = onPutFile;
+        }
+
+        @Override
+        public String getType()
+        {
+            return "blocking";
+        }
+
+        @Override
+        public LogServer getLogServer()
+        {
+            return new LogServer()
+            {
+                @Override
+                public String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId, byte[] gzData)
+                {
+                    onPutFile.run();
+                    return "blocking";
+                }
+
+                @Override
+                public Optional<DirectUploadHandle> getDirectUploadHandle(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId)
+                {
+                    return Optional.absent();
+                }
+
+                @Override
+                public List<LogFileHandle> getFileHandles(LogFilePrefix prefix, Optional<String> taskName)
+                {
+                    return ImmutableList.of();
+                }
+
+                @Override
+                public byte[] getFile(LogFilePrefix prefix, String fileName)
+                {
+                    return new byte[0];
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package io.digdag.core.storage;
+
+import java.util.Arrays;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.digdag.client.config.Config;
+import io.digdag.core.database.DatabaseFactory;
+import io.digdag.core.repository.ArchiveType;
+import io.digdag.core.repository.ImmutableRevision;
+import io.digdag.core.repository.Project;
+import io.digdag.core.repository.ProjectControl;
+import io.digdag.core.repository.ProjectStore;
+import io.digdag.core.repository.StoredRevision;
+import static io.digdag.client.DigdagClient.objectMapper;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfig;
+import static io.digdag.core.database.DatabaseTestingUtils.createRevision;
+import static io.digdag.core.database.DatabaseTestingUtils.setupDatabase;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ArchiveManagerTest
+{
+    private DatabaseFactory factory;
+    private ProjectStore store;
+    private StoredRevision rev1;
+    private StoredRevision rev2;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        factory = setupDatabase();
+        store = factory.getProjectStoreManager().getProjectStore(0);
+        rev1 = putRevision("rev1", data(100, (byte) 1));
+        rev2 = putRevision("rev2", data(100, (byte) 2));
+    }
+
+    @After
+    public void destroy()
+    {
+        factory.close();
+    }
+
+    @Test
+    public void cacheHitsAndMisses()
+        throws Exception
+    {
+        ArchiveManager manager = newArchiveManager(createConfig());
+
+        assertThat(getArchiveData(manager, rev1), is(data(100, (byte) 1)));
+        assertThat(manager.getArchiveDataCacheMissCount(), is(1L));
+        assertThat(manager.getArchiveDataCacheHitCount(), is(0L));
+
+        assertThat(getArchiveData(manager, rev1), is(data(100, (byte) 1)));
+        assertThat(getArchiveData(manager, rev2), is(data(100, (byte) 2)));
+        assertThat(getArchiveData(manager, rev2), is(data(100, (byte) 2)));
+        assertThat(manager.getArchiveDataCacheMissCount(), is(2L));
+        assertThat(manager.getArchiveDataCacheHitCount(), is(2L));
+        assertThat(manager.getArchiveDataCacheHitBytes(), is(200L));
+    }
+
+    @Test
+    public void entriesHeavierThanMaxSizeAreEvicted()
+        throws Exception
+    {
+        ArchiveManager manager = newArchiveManager(createConfig().set("archive.db.cache.max_size", 10));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(getArchiveData(manager, rev1), is(data(100, (byte) 1)));
+        }
+        assertThat(manager.getArchiveDataCacheMissCount(), is(3L));
+        assertThat(manager.getArchiveDataCacheHitCount(), is(0L));
+    }
+
+    @Test
+    public void zeroMaxSizeDisablesCache()
+        throws Exception
+    {
+        ArchiveManager manager = newArchiveManager(createConfig().set("archive.db.cache.max_size", 0));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(getArchiveData(manager, rev1), is(data(100, (byte) 1)));
+        }
+        // cache is not even looked up
+        assertThat(manager.getArchiveDataCacheMissCount(), is(0L));
+        assertThat(manager.getArchiveDataCacheHitCount(), is(0L));
+    }
+
+    private ArchiveManager newArchiveManager(Config systemConfig)
+    {
+        return new ArchiveManager(new StorageManager(ImmutableSet.of()), systemConfig, objectMapper());
+    }
+
+    private byte[] getArchiveData(ArchiveManager manager, StoredRevision rev)
+        throws Exception
+    {
+        return manager.getArchive(store, rev.getProjectId(), rev.getName()).get().getByteArray().get();
+    }
+
+    private StoredRevision putRevision(String name, byte[] data)
+        throws Exception
+    {
+        return store.putAndLockProject(
+                Project.of("proj"),
+                (store, stored) -> {
+                    ProjectControl lock = new ProjectControl(store, stored);
+                    StoredRevision rev = lock.insertRevision(
+                            ImmutableRevision.builder()
+                                .from(createRevision(name))
+                                .archiveType(ArchiveType.DB)
+                                .build());
+                    lock.insertRevisionArchiveData(rev.getId(), data);
+                    return rev;
+                });
+    }
+
+    private static byte[] data(int length, byte value)
+    {
+        byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        return data;
+    }
+}
@@ -0,0 +1,88 @@
+package io.digdag.core.workflow;
+
+import com.google.common.collect.ImmutableMap;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigElement;
+import io.digdag.core.DigdagEmbed;
+import io.digdag.core.LocalSite;
+import io.digdag.core.session.ArchivedTask;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static io.digdag.client.config.ConfigUtils.newConfig;
+import static io.digdag.core.workflow.WorkflowTestingUtils.loadYamlResource;
+import static io.digdag.core.workflow.WorkflowTestingUtils.runWorkflow;
+import static io.digdag.core.workflow.WorkflowTestingUtils.setupEmbed;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class IncrementalStatusPropagationTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void basic()
+        throws Exception
+    {
+        assertSameAsFullPropagation("basic", loadYamlResource("/io/digdag/core/workflow/basic.dig"));
+    }
+
+    @Test
+    public void retryOnGroupingTask()
+        throws Exception
+    {
+        assertSameAsFullPropagation("retry_on_group", loadYamlResource("/io/digdag/core/workflow/retry_on_group.dig"));
+    }
+
+    @Test
+    public void generatedParallelTasks()
+        throws Exception
+    {
+        assertSameAsFullPropagation("parallel_stress", loadYamlResource("/io/digdag/core/workflow/parallel_stress.dig"));
+    }
+
+    @Test
+    public void errorTasks()
+        throws Exception
+    {
+        assertSameAsFullPropagation("error_tasks", newConfig()
+                .set("+step1", newConfig().set("noop>", ""))
+                .set("+step2", newConfig()
+                    .set("+fail", newConfig().set("fail>", "failed expectedly"))
+                    .set("_error", newConfig()
+                        .set("+recover", newConfig().set("noop>", ""))))
+                .set("+step3", newConfig().set("noop>", ""))
+                );
+    }
+
+    private void assertSameAsFullPropagation(String workflowName, Config config)
+        throws Exception
+    {
+        // full-propagation-interval = 0 runs full scan at every loop
+        List<String> expected = runAndSummarize(workflowName, config, 0);
+        List<String> actual = runAndSummarize(workflowName, config, 3600);
+        assertThat(actual, is(expected));
+    }
+
+    private List<String> runAndSummarize(String workflowName, Config config, long fullPropagationInterval)
+        throws Exception
+    {
+        ConfigElement systemConfig = ConfigElement.ofMap(ImmutableMap.of(
+                    "executor.full-propagation-interval", Long.toString(fullPropagationInterval)));
+        try (DigdagEmbed embed = setupEmbed(systemConfig)) {
+            LocalSite localSite = embed.getInjector().getInstance(LocalSite.class);
+            StoredSessionAttemptWithSession attempt = runWorkflow(localSite, folder.newFolder().toPath(), workflowName, config.deepCopy());
+            List<ArchivedTask> tasks = localSite.getSessionStore().getTasksOfAttempt(attempt.getId());
+            List<String> summary = tasks.stream()
+                .map(task -> task.getFullName() + " " + task.getState())
+                .sorted()
+                .collect(Collectors.toList());
+            summary.add(0, "success=" + attempt.getStateFlags().isSuccess());
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package io.digdag.core.workflow;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.digdag.client.config.Config;
+import io.digdag.core.agent.AgentId;
+import io.digdag.core.database.DatabaseFactory;
+import io.digdag.core.repository.Project;
+import io.digdag.core.repository.ProjectControl;
+import io.digdag.core.repository.StoredRevision;
+import io.digdag.core.repository.StoredWorkflowDefinition;
+import io.digdag.core.repository.WorkflowDefinition;
+import io.digdag.core.schedule.SchedulerManager;
+import io.digdag.core.session.ArchivedTask;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
+import io.digdag.core.session.TaskStateCode;
+import io.digdag.spi.ScheduleTime;
+import io.digdag.spi.TaskQueueRequest;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfig;
+import static io.digdag.core.database.DatabaseTestingUtils.createRevision;
+import static io.digdag.core.database.DatabaseTestingUtils.setupDatabase;
+import static java.time.ZoneOffset.UTC;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TaskQueuerTest
+{
+    // more than a page of SessionStoreManager.findTasksByState
+    private static final int TASK_COUNT = 250;
+
+    private DatabaseFactory factory;
+    private SessionStoreManager sm;
+
+    @Before
+    public void setUp()
+    {
+        factory = setupDatabase();
+        sm = factory.getSessionStoreManager();
+    }
+
+    @After
+    public void destroy()
+    {
+        factory.close();
+    }
+
+    @Test
+    public void enqueueEachReadyTaskOnce()
+        throws Exception
+    {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        WorkflowExecutor exec = factory.getWorkflowExecutor(dispatcher,
+                createConfig().set("executor.enqueue-threads", 8));
+
+        Config config = createConfig().set("_parallel", true);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            config.set("+t" + i, createConfig().set("noop>", ""));
+        }
+        StoredSessionAttemptWithSession attempt = submit(exec, WorkflowDefinition.of("wf", config, UTC));
+
+        // dispatched tasks stay RUNNING because nothing runs them. enqueueReadyTasks
+        // is called many times while dispatch is slow, but each task must be
+        // dispatched only once.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        exec.runWhile(() -> dispatcher.counts.size() < TASK_COUNT && System.nanoTime() < deadline);
+
+        assertThat(dispatcher.counts.size(), is(TASK_COUNT));
+        for (AtomicInteger count : dispatcher.counts.values()) {
+            assertThat(count.get(), is(1));
+        }
+        assertThat(exec.getPendingEnqueueCount(), is(0));
+        assertThat(exec.getEnqueuedTaskCount() >= TASK_COUNT, is(true));
+
+        List<ArchivedTask> tasks = sm.getSessionStore(0).getTasksOfAttempt(attempt.getId());
+        long running = tasks.stream()
+            .filter(task -> task.getState() == TaskStateCode.RUNNING)
+            .count();
+        assertThat(running, is((long) TASK_COUNT));
+
+        // running again doesn't enqueue RUNNING tasks
+        long deadline2 = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        exec.runWhile(() -> System.nanoTime() < deadline2);
+        for (AtomicInteger count : dispatcher.counts.values()) {
+            assertThat(count.get(), is(1));
+        }
+    }
+
+    private StoredSessionAttemptWithSession submit(WorkflowExecutor exec, WorkflowDefinition srcWf)
+        throws Exception
+    {
+        StoredWorkflowDefinition[] wf = new StoredWorkflowDefinition[1];
+        StoredRevision rev = factory.getProjectStoreManager().getProjectStore(0).putAndLockProject(
+                Project.of("proj"),
+                (store, stored) -> {
+                    ProjectControl lock = new ProjectControl(store, stored);
+                    StoredRevision storedRev = lock.insertRevision(createRevision("rev"));
+                    wf[0] = lock.insertWorkflowDefinitionsWithoutSchedules(storedRev, ImmutableList.of(srcWf)).get(0);
+                    return storedRev;
+                });
+
+        AttemptBuilder attemptBuilder = new AttemptBuilder(
+                new SchedulerManager(ImmutableSet.of()),
+                new SlaCalculator());
+        AttemptRequest ar = attemptBuilder.buildFromStoredWorkflow(
+                rev,
+                wf[0],
+                createConfig(),
+                ScheduleTime.runNow(Instant.ofEpochSecond(Instant.now().getEpochSecond())));
+        return exec.submitWorkflow(0, ar, wf[0]);
+    }
+
+    private static class RecordingDispatcher
+            implements TaskQueueDispatcher
+    {
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+        @Override
+        public void dispatch(int siteId, Optional<String> queueName, TaskQueueRequest request)
+        {
+            counts.computeIfAbsent(request.getUniqueName(), key -> new AtomicInteger()).incrementAndGet();
+            try {
+                // keep tasks in flight so that following scans find them READY
+                Thread.sleep(2);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void taskFinished(int siteId, String lockId, AgentId agentId)
+        { }
+
+        @Override
+        public boolean deleteInconsistentTask(String lockId)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io.digdag.core.workflow;
+
+import java.util.List;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.Before;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.TaskRelation;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TaskTreeCacheTest
+{
+    private SessionStoreManager sm;
+    private TaskTreeCache cache;
+
+    @Before
+    public void setUp()
+    {
+        sm = mock(SessionStoreManager.class);
+        cache = new TaskTreeCache(sm, 10);
+
+        //      1
+        //    /   \
+        //   2 --> 3
+        when(sm.getTaskCountOfAttempt(1L)).thenReturn(3L);
+        when(sm.getTaskRelations(1L, 0L)).thenReturn(ImmutableList.of(
+                    TaskRelation.ofRoot(1L),
+                    TaskRelation.of(2L, 1L, ImmutableList.of()),
+                    TaskRelation.of(3L, 1L, ImmutableList.of(2L))));
+    }
+
+    @Test
+    public void reuseTreeIfNoTasksAreAdded()
+            throws Exception
+    {
+        TaskTree tree = cache.getTaskTree(1L);
+        assertThat(tree.getRecursiveParentsUpstreamChildrenIdListFromFar(3L), is(list(1, 2)));
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(cache.getTaskTree(1L), sameInstance(tree));
+        }
+        verify(sm, times(1)).getTaskRelations(1L, 0L);
+        verify(sm, never()).getTaskRelations(1L);
+    }
+
+    @Test
+    public void loadOnlyAddedTasks()
+            throws Exception
+    {
+        cache.getTaskTree(1L);
+
+        //      1
+        //    /   \
+        //   2 --> 3
+        //   |
+        //   4
+        when(sm.getTaskCountOfAttempt(1L)).thenReturn(4L);
+        when(sm.getTaskRelations(1L, 3L)).thenReturn(ImmutableList.of(
+                    TaskRelation.of(4L, 2L, ImmutableList.of())));
+
+        TaskTree tree = cache.getTaskTree(1L);
+        assertThat(tree.getRecursiveParentsUpstreamChildrenIdListFromFar(3L), is(list(1, 2, 4)));
+        verify(sm, times(1)).getTaskRelations(1L, 0L);
+        verify(sm, times(1)).getTaskRelations(1L, 3L);
+        verify(sm, never()).getTaskRelations(1L);
+    }
+
+    @Test
+    public void reloadIfTasksAreCommittedOutOfOrder()
+            throws Exception
+    {
+        cache.getTaskTree(1L);
+
+        // task 4 is not visible yet but 5 is visible
+        when(sm.getTaskCountOfAttempt(1L)).thenReturn(5L);
+        when(sm.getTaskRelations(1L, 3L)).thenReturn(ImmutableList.of(
+                    TaskRelation.of(5L, 2L, ImmutableList.of())));
+        when(sm.getTaskRelations(1L)).thenReturn(ImmutableList.of(
+                    TaskRelation.ofRoot(1L),
+                    TaskRelation.of(2L, 1L, ImmutableList.of()),
+                    TaskRelation.of(3L, 1L, ImmutableList.of(2L)),
+                    TaskRelation.of(4L, 2L, ImmutableList.of()),
+                    TaskRelation.of(5L, 2L, ImmutableList.of())));
+
+        TaskTree tree = cache.getTaskTree(1L);
+        assertThat(tree.getRecursiveParentsUpstreamChildrenIdListFromFar(3L), is(list(1, 2, 4, 5)));
+        verify(sm, times(1)).getTaskRelations(1L);
+    }
+
+    @Test
+    public void invalidate()
+            throws Exception
+    {
+        TaskTree tree = cache.getTaskTree(1L);
+        cache.invalidate(1L);
+        assertThat(cache.getTaskTree(1L) == tree, is(false));
+        verify(sm, times(2)).getTaskRelations(1L, 0L);
+    }
+
+    private static List<Long> list(long... prims)
+    {
+        ImmutableList.Builder<Long> b = ImmutableList.builder();
+        for (long prim : prims) {
+            b.add(prim);
+        }
+        return b.build();
+    }
+}
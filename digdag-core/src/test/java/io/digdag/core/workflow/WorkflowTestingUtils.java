@@ -7,6 +7,7 @@ import com.google.inject.Inject;
 import com.google.inject.Scopes;
 import com.google.inject.multibindings.Multibinder;
 import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigElement;
 import io.digdag.client.config.ConfigUtils;
 import io.digdag.core.DigdagEmbed;
 import io.digdag.core.LocalSecretAccessPolicy;
@@ -49,8 +50,14 @@ public class WorkflowTestingUtils
     private WorkflowTestingUtils() { }
 
     public static DigdagEmbed setupEmbed()
+    {
+        return setupEmbed(ConfigElement.empty());
+    }
+
+    public static DigdagEmbed setupEmbed(ConfigElement systemConfig)
     {
         DigdagEmbed embed = new DigdagEmbed.Bootstrap()
+            .setSystemConfig(systemConfig)
             .withExtensionLoader(false)
             .addModules((binder) -> {
                 binder.bind(CommandExecutor.class).to(SimpleCommandExecutor.class).in(Scopes.SINGLETON);
@@ -19,6 +19,7 @@ import io.digdag.guice.rs.server.undertow.UndertowServerInfo;
 import io.digdag.server.rs.AdminResource;
 import io.digdag.server.rs.AdminRestricted;
 import io.digdag.server.rs.AttemptResource;
+import io.digdag.server.rs.LogFileTailer;
 import io.digdag.server.rs.LogResource;
 import io.digdag.server.rs.ProjectResource;
 import io.digdag.server.rs.ScheduleResource;
@@ -58,6 +59,7 @@ public class ServerModule
             .addProvider(CustomHeaderFilter.class)
             .addProvider(AdminRestrictedFilter.class)
             ;
+        binder().bind(LogFileTailer.class).in(Scopes.SINGLETON);
         bindResources(builder);
         bindAuthenticator();
         bindExceptionhandlers(builder);
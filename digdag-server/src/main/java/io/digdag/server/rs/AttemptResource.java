@@ -3,6 +3,7 @@ package io.digdag.server.rs;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.NotFoundException;
@@ -13,8 +14,10 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.PUT;
 import javax.ws.rs.POST;
 import javax.ws.rs.GET;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -43,6 +46,7 @@ public class AttemptResource
     // GET  /api/attempts?project=<name>&workflow=<name>     # list attempts that belong to a particular workflow
     // GET  /api/attempts/{id}                               # show a session
     // GET  /api/attempts/{id}/tasks                         # list tasks of a session
+    // GET  /api/attempts/{id}/tasks?fields=<name>,...       # list tasks of a session only with the given fields
     // GET  /api/attempts/{id}/retries                       # list retried attempts of this session
     // PUT  /api/attempts                                    # starts a new session
     // POST /api/attempts/{id}/kill                          # kill a session
@@ -53,6 +57,7 @@ public class AttemptResource
     private final AttemptBuilder attemptBuilder;
     private final WorkflowExecutor executor;
     private final ConfigFactory cf;
+    private final ObjectMapper mapper;
 
     @Inject
     public AttemptResource(
@@ -61,7 +66,8 @@ public class AttemptResource
             SchedulerManager srm,
             AttemptBuilder attemptBuilder,
             WorkflowExecutor executor,
-            ConfigFactory cf)
+            ConfigFactory cf,
+            ObjectMapper mapper)
     {
         this.rm = rm;
         this.sm = sm;
@@ -69,6 +75,7 @@ public class AttemptResource
         this.attemptBuilder = attemptBuilder;
         this.executor = executor;
         this.cf = cf;
+        this.mapper = mapper;
     }
 
     @GET
@@ -130,13 +137,39 @@ public class AttemptResource
 
     @GET
     @Path("/api/attempts/{id}/tasks")
-    public List<RestTask> getTasks(@PathParam("id") long id)
+    public Response getTasks(@PathParam("id") long id, @QueryParam("fields") String fields)
     {
-        return sm.getSessionStore(getSiteId())
-            .getTasksOfAttempt(id)
-            .stream()
-            .map(task -> RestModels.task(task))
-            .collect(Collectors.toList());
+        Optional<Set<String>> fieldSet = JsonArrayStreamingOutput.parseFields(fields);
+
+        SessionStore ss = sm.getSessionStore(getSiteId());
+
+        // tasks of a finished attempt never change. the entity tag is given
+        // only to finished attempts. the attempt is looked up before
+        // If-None-Match is checked so that attempts of other sites are not
+        // matched.
+        boolean done;
+        try {
+            done = ss.getAttemptById(id).getStateFlags().isDone();
+        }
+        catch (ResourceNotFoundException ex) {
+            done = false;
+        }
+
+        EntityTag etag = EntityTags.of("attempt_tasks", getSiteId(), id,
+                fieldSet.transform(set -> String.join(",", new TreeSet<>(set))).orNull());
+        if (done && EntityTags.isNotModified(request, etag)) {
+            return EntityTags.notModified(etag, EntityTags.immutable());
+        }
+
+        // attempts may have tens of thousands of tasks. tasks are written to
+        // the response one by one instead of building a List<RestTask>.
+        Response.ResponseBuilder builder = Response.ok(new JsonArrayStreamingOutput<RestTask>(
+                    mapper, fieldSet,
+                    action -> ss.forEachTaskOfAttempt(id, task -> action.accept(RestModels.task(task)))));
+        if (done) {
+            builder.tag(etag).cacheControl(EntityTags.immutable());
+        }
+        return builder.build();
     }
 
     @PUT
@@ -0,0 +1,83 @@
+package io.digdag.server.rs;
+
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Helper methods for conditional GET of immutable resources.
+ *
+ * Entity tags are built only from the keys that identify a resource (for
+ * example, a site id and a workflow definition id) so that a resource can
+ * check If-None-Match header without reading the resource itself. Site,
+ * existence and deletion of the owner (e.g. a project) still need to be
+ * checked before returning 304 Not Modified.
+ */
+class EntityTags
+{
+    private EntityTags()
+    { }
+
+    private static final int IMMUTABLE_MAX_AGE = (int) TimeUnit.DAYS.toSeconds(365);
+
+    public static EntityTag of(Object... keys)
+    {
+        String hash = Hashing.sha256()
+            .hashString(Joiner.on('\0').useForNull("").join(keys), UTF_8)
+            .toString();
+        return new EntityTag(hash.substring(0, 32));
+    }
+
+    public static boolean isNotModified(HttpServletRequest request, EntityTag tag)
+    {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if (value.equals("*")) {
+                return true;
+            }
+            if (value.startsWith("W/")) {
+                // If-None-Match uses weak comparison
+                value = value.substring(2);
+            }
+            if (value.equals("\"" + tag.getValue() + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // response of a resource that never changes once written
+    public static CacheControl immutable()
+    {
+        CacheControl cc = new CacheControl();
+        cc.setPrivate(true);
+        cc.setMaxAge(IMMUTABLE_MAX_AGE);
+        return cc;
+    }
+
+    // response of a resource that may change. clients need to revalidate
+    // it using If-None-Match every time.
+    public static CacheControl revalidate()
+    {
+        CacheControl cc = new CacheControl();
+        cc.setPrivate(true);
+        cc.setNoCache(true);
+        return cc;
+    }
+
+    public static Response notModified(EntityTag tag, CacheControl cacheControl)
+    {
+        return Response.notModified(tag)
+            .cacheControl(cacheControl)
+            .build();
+    }
+}
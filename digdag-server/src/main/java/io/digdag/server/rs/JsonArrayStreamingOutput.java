@@ -0,0 +1,86 @@
+package io.digdag.server.rs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.function.Consumer;
+import javax.ws.rs.core.StreamingOutput;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * StreamingOutput that writes elements to a JSON array one by one
+ * without building the entire list in memory.
+ *
+ * If fields is set, elements are written only with the given fields.
+ */
+class JsonArrayStreamingOutput<T>
+    implements StreamingOutput
+{
+    public interface Source<T>
+    {
+        void forEach(Consumer<T> action);
+    }
+
+    // parses a comma-separated list of field names given by fields= parameter
+    public static Optional<Set<String>> parseFields(String fields)
+    {
+        if (fields == null || fields.trim().isEmpty()) {
+            return Optional.absent();
+        }
+        return Optional.of(ImmutableSet.copyOf(
+                    Splitter.on(',').trimResults().omitEmptyStrings().split(fields)));
+    }
+
+    private final ObjectMapper mapper;
+    private final Optional<Set<String>> fields;
+    private final Source<T> source;
+
+    public JsonArrayStreamingOutput(ObjectMapper mapper, Optional<Set<String>> fields, Source<T> source)
+    {
+        this.mapper = mapper;
+        this.fields = fields;
+        this.source = source;
+    }
+
+    @Override
+    public void write(OutputStream out)
+        throws IOException
+    {
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.writeStartArray();
+            try {
+                source.forEach(element -> {
+                    try {
+                        writeElement(gen, element);
+                    }
+                    catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            }
+            catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    private void writeElement(JsonGenerator gen, T element)
+        throws IOException
+    {
+        if (fields.isPresent()) {
+            ObjectNode node = mapper.valueToTree(element);
+            node.retain(fields.get());
+            gen.writeTree(node);
+        }
+        else {
+            gen.writeObject(element);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package io.digdag.server.rs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.Maps;
+import io.digdag.spi.LogFilePrefix;
+import io.digdag.spi.LogServer;
+import io.digdag.spi.StorageFileNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Keeps decompressing streams of log files that are being tailed. gzip
+// doesn't support random access. Without this, every poll of a growing log
+// file downloads and decompresses the whole file to skip the bytes that the
+// client has already shown.
+public class LogFileTailer
+{
+    private static final Logger logger = LoggerFactory.getLogger(LogFileTailer.class);
+
+    // max number of log files kept open
+    private static final int MAX_OPEN_FILES = 100;
+
+    // a stream is closed if it's not read for this duration
+    private static final long EXPIRE_SECONDS = 60;
+
+    // max length of the last incomplete line kept in memory. A client asks
+    // for the bytes after the last complete line it showed.
+    private static final int MAX_INCOMPLETE_LINE_SIZE = 64 * 1024;
+
+    private final Cache<Map.Entry<LogFilePrefix, String>, TailStream> streams = CacheBuilder.newBuilder()
+        .maximumSize(MAX_OPEN_FILES)
+        .expireAfterAccess(EXPIRE_SECONDS, TimeUnit.SECONDS)
+        .removalListener((RemovalListener<Map.Entry<LogFilePrefix, String>, TailStream>) (notification) -> notification.getValue().close())
+        .build();
+
+    // Returns uncompressed bytes of the file after offset
+    public byte[] readTail(LogServer logServer, LogFilePrefix prefix, String fileName, long offset)
+        throws StorageFileNotFoundException, IOException
+    {
+        Map.Entry<LogFilePrefix, String> key = Maps.immutableEntry(prefix, fileName);
+
+        TailStream stream = streams.getIfPresent(key);
+        if (stream != null) {
+            synchronized (stream) {
+                if (stream.canReadFrom(offset)) {
+                    return stream.readFrom(offset);
+                }
+            }
+        }
+
+        // the file is tailed first time, or the client reads from a position
+        // before the stream
+        stream = new TailStream(logServer.openFile(prefix, fileName));
+        byte[] data;
+        synchronized (stream) {
+            data = stream.readFrom(offset);
+        }
+        // the old stream is closed by the removal listener
+        streams.put(key, stream);
+        return data;
+    }
+
+    private static class TailStream
+    {
+        private final InputStream file;
+        private InputStream in = null;
+        // uncompressed bytes read from the file so far
+        private long position = 0;
+        // bytes after the last newline. starts at position - incompleteLine.size()
+        private final ByteArrayOutputStream incompleteLine = new ByteArrayOutputStream();
+        private boolean finished = false;
+        private boolean closed = false;
+
+        public TailStream(InputStream file)
+        {
+            this.file = file;
+        }
+
+        public boolean canReadFrom(long offset)
+        {
+            return !closed && offset >= position - incompleteLine.size();
+        }
+
+        public byte[] readFrom(long offset)
+            throws IOException
+        {
+            long incompleteLineOffset = position - incompleteLine.size();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (offset < position) {
+                byte[] kept = incompleteLine.toByteArray();
+                int skip = (int) (offset - incompleteLineOffset);
+                out.write(kept, skip, kept.length - skip);
+            }
+
+            byte[] buffer = new byte[32 * 1024];
+            while (true) {
+                int n = read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                int skip = (int) Math.max(0L, Math.min((long) n, offset - position));
+                out.write(buffer, skip, n - skip);
+                position += n;
+                keepIncompleteLine(buffer, n);
+            }
+            return out.toByteArray();
+        }
+
+        // returns -1 at the end of the data written to the file so far
+        private int read(byte[] buffer)
+            throws IOException
+        {
+            if (finished || closed) {
+                return -1;
+            }
+            try {
+                if (in == null) {
+                    in = new GZIPInputStream(file);
+                }
+                int n = in.read(buffer);
+                if (n < 0) {
+                    // the file is complete. The incomplete line is kept until
+                    // the stream expires.
+                    finished = true;
+                    closeFile();
+                }
+                return n;
+            }
+            catch (EOFException ex) {
+                if (in == null) {
+                    // the gzip header isn't completely written yet. the file
+                    // needs to be opened again.
+                    close();
+                }
+                // otherwise, the file is still being written. Inflater keeps its
+                // state and continues when following bytes are written to the file.
+                return -1;
+            }
+        }
+
+        private void keepIncompleteLine(byte[] buffer, int length)
+        {
+            int lastNewline = -1;
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer[i] == '\n') {
+                    lastNewline = i;
+                    break;
+                }
+            }
+            if (lastNewline >= 0) {
+                incompleteLine.reset();
+            }
+            if (incompleteLine.size() + length - (lastNewline + 1) > MAX_INCOMPLETE_LINE_SIZE) {
+                // a client that asks for a position before this opens the file again
+                incompleteLine.reset();
+                return;
+            }
+            incompleteLine.write(buffer, lastNewline + 1, length - (lastNewline + 1));
+        }
+
+        public synchronized void close()
+        {
+            closed = true;
+            closeFile();
+        }
+
+        private void closeFile()
+        {
+            try {
+                file.close();
+            }
+            catch (IOException ex) {
+                logger.debug("Failed to close a log file", ex);
+            }
+        }
+    }
+}
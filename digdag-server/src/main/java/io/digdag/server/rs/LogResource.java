@@ -35,18 +35,22 @@ public class LogResource
     // PUT  /api/logs/{attempt_id}/files?task=<name>&file_time=<unixtime sec>&node_id=<node_id>
     // GET  /api/logs/{attempt_id}/files[?task=<name>]
     // GET  /api/logs/{attempt_id}/files/{file_name}
+    // GET  /api/logs/{attempt_id}/files/{file_name}/tail?offset=<bytes>
     // GET  /api/logs/{attempt_id}/upload_handle?task=<name>&file_time=<unixtime sec>&node_id=<nodeId>
 
     private final SessionStoreManager sm;
     private final LogServer logServer;
+    private final LogFileTailer tailer;
 
     @Inject
     public LogResource(
             SessionStoreManager sm,
-            LogServerManager lm)
+            LogServerManager lm,
+            LogFileTailer tailer)
     {
         this.sm = sm;
         this.logServer = lm.getLogServer();
+        this.tailer = tailer;
     }
 
     @PUT
@@ -123,6 +127,22 @@ public class LogResource
         return logServer.getFile(prefix, fileName);
     }
 
+    @GET
+    @Produces("text/plain")
+    @Path("/api/logs/{attempt_id}/files/{file_name}/tail")
+    public byte[] getFileTail(
+            @PathParam("attempt_id") long attemptId,
+            @PathParam("file_name") String fileName,
+            @QueryParam("offset") long offset)
+        throws StorageFileNotFoundException, ResourceNotFoundException, IOException
+    {
+        // offset is a position in the uncompressed log text. LogFileTailer
+        // keeps the decompressing stream so that the next poll reads only
+        // the bytes written after this.
+        LogFilePrefix prefix = getPrefix(attemptId);
+        return tailer.readTail(logServer, prefix, fileName, offset);
+    }
+
     private LogFilePrefix getPrefix(long attemptId)
         throws ResourceNotFoundException
     {
@@ -27,6 +27,8 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
 
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
@@ -34,12 +36,15 @@ import com.google.inject.Inject;
 import com.google.common.base.Throwables;
 import com.google.common.collect.*;
 import com.google.common.io.ByteStreams;
+import com.google.common.hash.Hashing;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import io.digdag.client.api.RestProject;
+import io.digdag.client.api.RestProjectArchiveManifest;
+import io.digdag.client.api.RestProjectFileHashList;
 import io.digdag.client.api.RestRevision;
 import io.digdag.client.api.RestSchedule;
 import io.digdag.client.api.RestSecretList;
@@ -50,8 +55,9 @@ import io.digdag.client.api.RestWorkflowDefinition;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.core.TempFileManager;
-import io.digdag.core.TempFileManager.TempDir;
 import io.digdag.core.TempFileManager.TempFile;
+import io.digdag.core.archive.ArchiveManifest;
+import io.digdag.core.archive.ArchiveManifestEntry;
 import io.digdag.core.archive.ArchiveMetadata;
 import io.digdag.core.config.YamlConfigLoader;
 import io.digdag.core.repository.ArchiveType;
@@ -106,6 +112,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
@@ -113,6 +120,7 @@ import java.util.stream.Collectors;
 
 import static io.digdag.server.rs.RestModels.sessionModels;
 import static java.util.Locale.ENGLISH;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Path("/")
 @Produces("application/json")
@@ -134,6 +142,9 @@ public class ProjectResource
     // GET  /api/projects/{id}/archive                   # download archive file of the latest revision of a project
     // GET  /api/projects/{id}/archive?revision=<name>   # download archive file of a former revision of a project
     // PUT  /api/projects?project=<name>&revision=<name> # create a new revision (also create a project if it doesn't exist)
+    //                                                   # from an archive file, or from a manifest of project files
+    // POST /api/project_files/missing                   # list hashes of project files that are not stored yet
+    // PUT  /api/project_files/{hash}                    # store a project file
     // GET  /api/projects/{id}/secrets                   # list secrets for a project
     // PUT  /api/projects/{id}/secrets/<key>             # set a secret for a project
     // DEL  /api/projects/{id}/secrets/<key>             # delete a secret for a project
@@ -145,6 +156,7 @@ public class ProjectResource
 
     private static final int ARCHIVE_TOTAL_SIZE_LIMIT = 2 * 1024 * 1024;
     private static final int ARCHIVE_FILE_SIZE_LIMIT = ARCHIVE_TOTAL_SIZE_LIMIT;
+    private static final int ARCHIVE_MANIFEST_ENTRY_LIMIT = 10000;
 
     private final ConfigFactory cf;
     private final YamlConfigLoader rawLoader;
@@ -267,14 +279,27 @@ public class ProjectResource
 
     @GET
     @Path("/api/projects/{id}/workflow")
-    public RestWorkflowDefinition getWorkflow(@PathParam("id") int projId, @QueryParam("name") String name, @QueryParam("revision") String revName)
+    public Response getWorkflow(@PathParam("id") int projId, @QueryParam("name") String name, @QueryParam("revision") String revName)
         throws ResourceNotFoundException
     {
         Preconditions.checkArgument(name != null, "name= is required");
 
+        // the project is checked before If-None-Match so that deleted projects
+        // and projects of other sites are not found. this lookup is cached.
         ProjectStore ps = rm.getProjectStore(getSiteId());
         StoredProject proj = ensureNotDeletedProject(ps.getProjectById(projId));
 
+        // a revision never changes once it's stored and it's deleted only with
+        // its project. if revision is given, If-None-Match can be checked
+        // without reading the revision.
+        EntityTag etag = null;
+        if (revName != null) {
+            etag = EntityTags.of("project_workflow", getSiteId(), projId, revName, name);
+            if (EntityTags.isNotModified(request, etag)) {
+                return EntityTags.notModified(etag, EntityTags.revalidate());
+            }
+        }
+
         StoredRevision rev;
         if (revName == null) {
             rev = ps.getLatestRevision(proj.getId());
@@ -284,12 +309,24 @@ public class ProjectResource
         }
         StoredWorkflowDefinition def = ps.getWorkflowDefinitionByName(rev.getId(), name);
 
-        return RestModels.workflowDefinition(proj, rev, def);
+        if (etag == null) {
+            // latest revision may change
+            etag = EntityTags.of("workflow", getSiteId(), def.getId());
+            if (EntityTags.isNotModified(request, etag)) {
+                return EntityTags.notModified(etag, EntityTags.revalidate());
+            }
+        }
+
+        // the project may be deleted. clients revalidate it every time.
+        return Response.ok(RestModels.workflowDefinition(proj, rev, def))
+            .tag(etag)
+            .cacheControl(EntityTags.revalidate())
+            .build();
     }
 
     @GET
     @Path("/api/projects/{id}/workflows/{name}")
-    public RestWorkflowDefinition getWorkflowByName(@PathParam("id") int projId, @PathParam("name") String name, @QueryParam("revision") String revName)
+    public Response getWorkflowByName(@PathParam("id") int projId, @PathParam("name") String name, @QueryParam("revision") String revName)
         throws ResourceNotFoundException
     {
         return getWorkflow(projId, name, revName);
@@ -396,6 +433,17 @@ public class ProjectResource
         ProjectStore ps = rm.getProjectStore(getSiteId());
         ensureNotDeletedProject(ps.getProjectById(projId));
 
+        // archive of a revision never changes once it's stored. the project
+        // may be deleted. clients revalidate it every time.
+        if (revName == null) {
+            revName = ps.getLatestRevision(projId).getName();
+        }
+        EntityTag etag = EntityTags.of("project_archive", getSiteId(), projId, revName);
+        CacheControl cacheControl = EntityTags.revalidate();
+        if (EntityTags.isNotModified(request, etag)) {
+            return EntityTags.notModified(etag, cacheControl);
+        }
+
         Optional<ArchiveManager.StoredArchive> archiveOrNone =
             archiveManager.getArchive(ps, projId, revName);
         if (!archiveOrNone.isPresent()) {
@@ -417,7 +465,10 @@ public class ProjectResource
 
             Optional<byte[]> bytes = archive.getByteArray();
             if (bytes.isPresent()) {
-                return Response.ok(bytes.get()).build();
+                return Response.ok(bytes.get())
+                    .tag(etag)
+                    .cacheControl(cacheControl)
+                    .build();
             }
 
             return Response.ok(new StreamingOutput() {
@@ -440,7 +491,10 @@ public class ProjectResource
                         ByteStreams.copy(in, out);
                     }
                 }
-            }).build();
+            })
+            .tag(etag)
+            .cacheControl(cacheControl)
+            .build();
         }
     }
 
@@ -467,18 +521,7 @@ public class ProjectResource
         Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "project= is required");
         Preconditions.checkArgument(!Strings.isNullOrEmpty(revision), "revision= is required");
 
-        Instant scheduleFrom;
-        if (scheduleFromString == null || scheduleFromString.isEmpty()) {
-            scheduleFrom = Instant.now();
-        }
-        else {
-            try {
-                scheduleFrom = Instant.parse(scheduleFromString);
-            }
-            catch (DateTimeParseException ex) {
-                throw new IllegalArgumentException("Invalid schedule_from= parameter format. Expected yyyy-MM-dd'T'HH:mm:ss'Z' format", ex);
-            }
-        }
+        Instant scheduleFrom = parseScheduleFrom(scheduleFromString);
 
         if (contentLength > ARCHIVE_TOTAL_SIZE_LIMIT) {
             throw new IllegalArgumentException(String.format(ENGLISH,
@@ -516,106 +559,246 @@ public class ProjectResource
                 }
             }
 
-            // Getting secrets might fail. To avoid ending up with a project without secrets, get the secrets _before_ storing the project.
-            // If getting the project secrets fails, the project will not be stored and the push can then be retried with the same revision.
-            Map<String, String> secrets = getSecrets().get();
-
-            RestProject restProject = rm.getProjectStore(getSiteId()).putAndLockProject(
-                    Project.of(name),
-                    (store, storedProject) -> {
-                        ProjectControl lockedProj = new ProjectControl(store, storedProject);
-                        StoredRevision rev;
-                        if (storeInDb) {
-                            // store data in db
-                            byte[] data = new byte[size];
-                            try (InputStream in = Files.newInputStream(tempFile.get())) {
-                                ByteStreams.readFully(in, data);
-                            }
-                            catch (RuntimeException | IOException ex) {
-                                throw new InternalServerErrorException("Failed to load archive data in memory", ex);
-                            }
-                            rev = lockedProj.insertRevision(
-                                    Revision.builderFromArchive(revision, meta, getUserInfo())
-                                            .archiveType(ArchiveType.DB)
-                                            .archivePath(Optional.absent())
-                                            .archiveMd5(Optional.of(md5))
-                                            .build()
-                            );
-                            lockedProj.insertRevisionArchiveData(rev.getId(), data);
-                        }
-                        else {
-                            // store location of the uploaded file in db
-                            rev = lockedProj.insertRevision(
-                                    Revision.builderFromArchive(revision, meta, getUserInfo())
-                                            .archiveType(location.getArchiveType())
-                                            .archivePath(Optional.of(location.getPath()))
-                                            .archiveMd5(Optional.of(md5))
-                                            .build()
-                            );
-                        }
-
-                        List<StoredWorkflowDefinition> defs =
-                            lockedProj.insertWorkflowDefinitions(rev,
-                                    meta.getWorkflowList().get(),
-                                    srm, scheduleFrom);
-                        return RestModels.project(storedProject, rev);
-                    });
-
-            SecretControlStore secretControlStore = scsp.getSecretControlStore(getSiteId());
-            secrets.forEach((k, v) -> secretControlStore.setProjectSecret(restProject.getId(), SecretScopes.PROJECT_DEFAULT, k, v));
-            return restProject;
+            return storeProject(name, meta, scheduleFrom, (lockedProj) -> {
+                StoredRevision rev;
+                if (storeInDb) {
+                    // store data in db
+                    rev = lockedProj.insertRevision(
+                            Revision.builderFromArchive(revision, meta, getUserInfo())
+                                    .archiveType(ArchiveType.DB)
+                                    .archivePath(Optional.absent())
+                                    .archiveMd5(Optional.of(md5))
+                                    .build()
+                    );
+                    // stream the temp file to the database instead of loading it in memory
+                    try (InputStream in = Files.newInputStream(tempFile.get())) {
+                        lockedProj.insertRevisionArchiveData(rev.getId(), in, size);
+                    }
+                    catch (IOException ex) {
+                        throw new InternalServerErrorException("Failed to read archive data", ex);
+                    }
+                }
+                else {
+                    // store location of the uploaded file in db
+                    rev = lockedProj.insertRevision(
+                            Revision.builderFromArchive(revision, meta, getUserInfo())
+                                    .archiveType(location.getArchiveType())
+                                    .archivePath(Optional.of(location.getPath()))
+                                    .archiveMd5(Optional.of(md5))
+                                    .build()
+                    );
+                }
+                return rev;
+            });
         }
     }
 
-    private ArchiveMetadata readArchiveMetadata(InputStream in, String projectName)
-        throws IOException
+    @PUT
+    @Consumes("application/json")
+    @Path("/api/projects")
+    public RestProject putProjectFromManifest(@QueryParam("project") String name, @QueryParam("revision") String revision,
+            RestProjectArchiveManifest request,
+            @QueryParam("schedule_from") String scheduleFromString)
+        throws IOException, ResourceConflictException, ResourceNotFoundException
     {
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(projectName), "projectName");
-        try (TempDir dir = tempFiles.createTempDir("push", projectName)) {
-            long totalSize = 0;
-            try (TarArchiveInputStream archive = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(in, 32*1024)))) {
-                totalSize = extractConfigFiles(dir.get(), archive);
-            }
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "project= is required");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(revision), "revision= is required");
+        Preconditions.checkArgument(request != null, "manifest is required");
+        if (request.getEntries().size() > ARCHIVE_MANIFEST_ENTRY_LIMIT) {
+            throw new IllegalArgumentException(String.format(ENGLISH,
+                        "Number of files in the manifest exceeds limit (%d > %d)",
+                        request.getEntries().size(), ARCHIVE_MANIFEST_ENTRY_LIMIT));
+        }
 
-            if (totalSize > ARCHIVE_TOTAL_SIZE_LIMIT) {
-                throw new IllegalArgumentException(String.format(ENGLISH,
-                            "Total size of the archive exceeds limit (%d > %d bytes)",
-                            totalSize, ARCHIVE_TOTAL_SIZE_LIMIT));
-            }
+        Instant scheduleFrom = parseScheduleFrom(scheduleFromString);
+
+        ArchiveManifest manifest = ArchiveManifest.of(
+                request.getEntries().stream()
+                .map(entry -> ArchiveManifestEntry.builder()
+                        .name(entry.getName())
+                        .mode(entry.getMode())
+                        .hash(entry.getHash())
+                        .linkName(entry.getLinkName())
+                        .build())
+                .collect(Collectors.toList()));
+
+        ProjectStore ps = rm.getProjectStore(getSiteId());
+
+        List<String> hashes = ArchiveManager.getFileHashes(manifest);
+        Map<String, Long> fileSizes = ps.getArchiveFileSizes(hashes);
+        long missingCount = hashes.stream().filter(hash -> !fileSizes.containsKey(hash)).count();
+        if (missingCount > 0) {
+            throw new IllegalArgumentException(String.format(ENGLISH,
+                        "%d files in the manifest are not uploaded yet", missingCount));
+        }
+
+        // same limit as an uploaded archive. a file is counted for each entry that refers to it
+        long totalSize = manifest.getEntries().stream()
+            .filter(entry -> entry.getHash().isPresent())
+            .mapToLong(entry -> fileSizes.get(entry.getHash().get()))
+            .sum();
+        if (totalSize > ARCHIVE_TOTAL_SIZE_LIMIT) {
+            throw new IllegalArgumentException(String.format(ENGLISH,
+                        "Total size of the archive exceeds limit (%d > %d bytes)",
+                        totalSize, ARCHIVE_TOTAL_SIZE_LIMIT));
+        }
+
+        ArchiveManifestEntry metaEntry = manifest.getEntries().stream()
+            .filter(entry -> Paths.get(entry.getName()).normalize().toString().equals(ArchiveMetadata.FILE_NAME))
+            .filter(entry -> entry.getHash().isPresent())
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Manifest doesn't include " + ArchiveMetadata.FILE_NAME));
+        byte[] metaBody = ps.getArchiveFiles(ImmutableList.of(metaEntry.getHash().get())).get(metaEntry.getHash().get());
+        ArchiveMetadata meta = parseArchiveMetadata(metaBody);
+
+        // archive_md5 of the revision is md5 of the archive that is downloaded.
+        // ArchiveManager.assembleArchive builds the same archive from a manifest every time.
+        byte[] md5 = Hashing.md5().hashBytes(ArchiveManager.assembleArchive(ps, manifest)).asBytes();
+        byte[] manifestData = archiveManager.formatManifest(manifest);
+
+        return storeProject(name, meta, scheduleFrom, (lockedProj) -> {
+            StoredRevision rev = lockedProj.insertRevision(
+                    Revision.builderFromArchive(revision, meta, getUserInfo())
+                            .archiveType(ArchiveType.FILES)
+                            .archivePath(Optional.absent())
+                            .archiveMd5(Optional.of(md5))
+                            .build()
+            );
+            lockedProj.insertRevisionArchiveData(rev.getId(), manifestData);
+            return rev;
+        });
+    }
 
-            Config renderedConfig = rawLoader.loadFile(
-                    dir.child(ArchiveMetadata.FILE_NAME).toFile()).toConfig(cf);
-            return renderedConfig.convert(ArchiveMetadata.class);
+    @POST
+    @Consumes("application/json")
+    @Path("/api/project_files/missing")
+    public RestProjectFileHashList getMissingProjectFiles(RestProjectFileHashList request)
+    {
+        Preconditions.checkArgument(request != null, "hashes are required");
+        for (String hash : request.getHashes()) {
+            Preconditions.checkArgument(ArchiveManifest.isValidHash(hash), "Invalid file hash: %s", hash);
         }
+        ProjectStore ps = rm.getProjectStore(getSiteId());
+        return RestProjectFileHashList.of(ps.getMissingArchiveFileHashes(request.getHashes()));
     }
 
-    // TODO here doesn't have to extract files exception ArchiveMetadata.FILE_NAME
-    //      rawLoader.loadFile doesn't have to render the file because it's already rendered.
-    private long extractConfigFiles(java.nio.file.Path dir, TarArchiveInputStream archive)
+    @PUT
+    @Consumes("application/octet-stream")
+    @Path("/api/project_files/{hash}")
+    public void putProjectFile(@PathParam("hash") String hash,
+            InputStream body, @HeaderParam("Content-Length") long contentLength)
         throws IOException
     {
-        long totalSize = 0;
-        TarArchiveEntry entry;
-        while (true) {
-            entry = archive.getNextTarEntry();
-            if (entry == null) {
-                break;
+        Preconditions.checkArgument(ArchiveManifest.isValidHash(hash), "Invalid file hash: %s", hash);
+        if (contentLength > ARCHIVE_FILE_SIZE_LIMIT) {
+            throw new IllegalArgumentException(String.format(ENGLISH,
+                        "Size of the uploaded file exceeds limit (%d bytes)",
+                        ARCHIVE_FILE_SIZE_LIMIT));
+        }
+
+        byte[] data = ByteStreams.toByteArray(ByteStreams.limit(body, ARCHIVE_FILE_SIZE_LIMIT + 1));
+        if (data.length != contentLength) {
+            throw new IllegalArgumentException("Content-Length header doesn't match with uploaded data size");
+        }
+        if (!ArchiveManifest.hashFile(data).equals(hash)) {
+            throw new IllegalArgumentException("Hash of the uploaded data doesn't match: " + hash);
+        }
+
+        rm.getProjectStore(getSiteId()).putArchiveFile(hash, data);
+    }
+
+    private interface RevisionInserter
+    {
+        StoredRevision insert(ProjectControl lockedProj)
+            throws ResourceConflictException;
+    }
+
+    private RestProject storeProject(String name, ArchiveMetadata meta, Instant scheduleFrom, RevisionInserter inserter)
+        throws ResourceConflictException
+    {
+        // Getting secrets might fail. To avoid ending up with a project without secrets, get the secrets _before_ storing the project.
+        // If getting the project secrets fails, the project will not be stored and the push can then be retried with the same revision.
+        Map<String, String> secrets = getSecrets().get();
+
+        RestProject restProject = rm.getProjectStore(getSiteId()).putAndLockProject(
+                Project.of(name),
+                (store, storedProject) -> {
+                    ProjectControl lockedProj = new ProjectControl(store, storedProject);
+                    StoredRevision rev = inserter.insert(lockedProj);
+
+                    List<StoredWorkflowDefinition> defs =
+                        lockedProj.insertWorkflowDefinitions(rev,
+                                meta.getWorkflowList().get(),
+                                srm, scheduleFrom);
+                    return RestModels.project(storedProject, rev);
+                });
+
+        SecretControlStore secretControlStore = scsp.getSecretControlStore(getSiteId());
+        secrets.forEach((k, v) -> secretControlStore.setProjectSecret(restProject.getId(), SecretScopes.PROJECT_DEFAULT, k, v));
+        return restProject;
+    }
+
+    private static Instant parseScheduleFrom(String scheduleFromString)
+    {
+        if (scheduleFromString == null || scheduleFromString.isEmpty()) {
+            return Instant.now();
+        }
+        else {
+            try {
+                return Instant.parse(scheduleFromString);
             }
-            if (entry.isDirectory()) {
-                // do nothing
+            catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Invalid schedule_from= parameter format. Expected yyyy-MM-dd'T'HH:mm:ss'Z' format", ex);
             }
-            else {
-                validateTarEntry(entry);
-                totalSize += entry.getSize();
-
-                java.nio.file.Path file = dir.resolve(entry.getName());
-                Files.createDirectories(file.getParent());
-                try (OutputStream out = Files.newOutputStream(file)) {
-                    ByteStreams.copy(archive, out);
+        }
+    }
+
+    private ArchiveMetadata readArchiveMetadata(InputStream in, String projectName)
+        throws IOException
+    {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(projectName), "projectName");
+        long totalSize = 0;
+        byte[] metaBody = null;
+        try (TarArchiveInputStream archive = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(in, 32*1024)))) {
+            // reads only ArchiveMetadata.FILE_NAME. other files are validated and skipped.
+            TarArchiveEntry entry;
+            while (true) {
+                entry = archive.getNextTarEntry();
+                if (entry == null) {
+                    break;
+                }
+                if (entry.isDirectory()) {
+                    // do nothing
+                }
+                else {
+                    validateTarEntry(entry);
+                    totalSize += entry.getSize();
+
+                    if (Paths.get(entry.getName()).normalize().toString().equals(ArchiveMetadata.FILE_NAME)) {
+                        metaBody = ByteStreams.toByteArray(archive);
+                    }
                 }
             }
         }
-        return totalSize;
+
+        if (totalSize > ARCHIVE_TOTAL_SIZE_LIMIT) {
+            throw new IllegalArgumentException(String.format(ENGLISH,
+                        "Total size of the archive exceeds limit (%d > %d bytes)",
+                        totalSize, ARCHIVE_TOTAL_SIZE_LIMIT));
+        }
+        if (metaBody == null) {
+            throw new IllegalArgumentException("Archive doesn't include " + ArchiveMetadata.FILE_NAME);
+        }
+
+        return parseArchiveMetadata(metaBody);
+    }
+
+    private ArchiveMetadata parseArchiveMetadata(byte[] metaBody)
+        throws IOException
+    {
+        // rawLoader doesn't render the file because it's already rendered.
+        Config renderedConfig = rawLoader.loadString(new String(metaBody, UTF_8)).toConfig(cf);
+        return renderedConfig.convert(ArchiveMetadata.class);
     }
 
     private void validateTarEntry(TarArchiveEntry entry)
@@ -23,6 +23,8 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.PUT;
 import javax.ws.rs.POST;
 import javax.ws.rs.GET;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
 import com.google.inject.Inject;
 import com.google.common.base.Throwables;
 import com.google.common.collect.*;
@@ -111,13 +113,26 @@ public class WorkflowResource
 
     @GET
     @Path("/api/workflows/{id}")
-    public RestWorkflowDefinition getWorkflowDefinition(@PathParam("id") long id)
+    public Response getWorkflowDefinition(@PathParam("id") long id)
         throws ResourceNotFoundException
     {
+        // this lookup is cached. it's done before If-None-Match is checked
+        // so that workflows of other sites are not found.
         StoredWorkflowDefinitionWithProject def =
             rm.getProjectStore(getSiteId())
             .getWorkflowDefinitionById(id);
-        return RestModels.workflowDefinition(def);
+
+        // a workflow definition never changes once it's stored. but its
+        // project may be deleted. clients revalidate it every time.
+        EntityTag etag = EntityTags.of("workflow", getSiteId(), id);
+        if (EntityTags.isNotModified(request, etag)) {
+            return EntityTags.notModified(etag, EntityTags.revalidate());
+        }
+
+        return Response.ok(RestModels.workflowDefinition(def))
+            .tag(etag)
+            .cacheControl(EntityTags.revalidate())
+            .build();
     }
 
     @GET
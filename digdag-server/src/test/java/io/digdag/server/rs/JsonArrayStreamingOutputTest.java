@@ -0,0 +1,66 @@
+package io.digdag.server.rs;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.digdag.client.DigdagClient;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JsonArrayStreamingOutputTest
+{
+    private static final ObjectMapper MAPPER = DigdagClient.objectMapper();
+
+    private static final List<Map<String, Object>> ELEMENTS = ImmutableList.of(
+            ImmutableMap.of("id", 1, "fullName", "+wf", "state", "success"),
+            ImmutableMap.of("id", 2, "fullName", "+wf+t1", "state", "error"));
+
+    @Test
+    public void parseFields()
+    {
+        assertThat(JsonArrayStreamingOutput.parseFields(null), is(Optional.absent()));
+        assertThat(JsonArrayStreamingOutput.parseFields(" "), is(Optional.absent()));
+        assertThat(JsonArrayStreamingOutput.parseFields("id, state,,"),
+                is(Optional.of(ImmutableSet.of("id", "state"))));
+    }
+
+    @Test
+    public void writeAllFields()
+        throws Exception
+    {
+        assertThat(write(Optional.absent(), ELEMENTS),
+                is("[{\"id\":1,\"fullName\":\"+wf\",\"state\":\"success\"},{\"id\":2,\"fullName\":\"+wf+t1\",\"state\":\"error\"}]"));
+    }
+
+    @Test
+    public void writeOnlyGivenFields()
+        throws Exception
+    {
+        assertThat(write(JsonArrayStreamingOutput.parseFields("id,state,unknown"), ELEMENTS),
+                is("[{\"id\":1,\"state\":\"success\"},{\"id\":2,\"state\":\"error\"}]"));
+    }
+
+    @Test
+    public void writeEmptyArray()
+        throws Exception
+    {
+        assertThat(write(Optional.absent(), ImmutableList.of()), is("[]"));
+    }
+
+    private static String write(Optional<Set<String>> fields, List<Map<String, Object>> elements)
+        throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonArrayStreamingOutput<Map<String, Object>>(MAPPER, fields, elements::forEach).write(out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
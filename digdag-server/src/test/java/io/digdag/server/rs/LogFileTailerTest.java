@@ -0,0 +1,103 @@
+package io.digdag.server.rs;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.zip.GZIPOutputStream;
+import com.google.common.base.Optional;
+import io.digdag.spi.LogFilePrefix;
+import io.digdag.spi.LogServer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LogFileTailerTest
+{
+    private static final String FILE_NAME = "+wf+t1@585126c0.1@host.log.gz";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LogFilePrefix prefix = LogFilePrefix.builder()
+        .siteId(0)
+        .projectId(1)
+        .workflowName("wf")
+        .sessionTime(Instant.ofEpochSecond(1481600000L))
+        .timeZone(ZoneId.of("UTC"))
+        .retryAttemptName(Optional.absent())
+        .createdAt(Instant.ofEpochSecond(1481600000L))
+        .build();
+
+    private Path path;
+    private LogServer logServer;
+    private LogFileTailer tailer;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        path = folder.newFile().toPath();
+        logServer = mock(LogServer.class);
+        when(logServer.openFile(prefix, FILE_NAME)).thenAnswer(invocation -> Files.newInputStream(path));
+        tailer = new LogFileTailer();
+    }
+
+    @Test
+    public void readOnlyAppendedBytesOfGrowingFile()
+        throws Exception
+    {
+        try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(path), true)) {
+            write(out, "a\nb");
+            assertThat(readTail(0), is("a\nb"));
+
+            // the client asks from the incomplete line again
+            write(out, "c\nd\n");
+            assertThat(readTail(2), is("bc\nd\n"));
+
+            assertThat(readTail(7), is(""));
+
+            write(out, "e\n");
+            assertThat(readTail(7), is("e\n"));
+        }
+        assertThat(readTail(9), is(""));
+
+        verify(logServer, times(1)).openFile(prefix, FILE_NAME);
+    }
+
+    @Test
+    public void reopenIfOffsetIsBeforeStream()
+        throws Exception
+    {
+        try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            write(out, "a\nb\nc\n");
+        }
+        assertThat(readTail(4), is("c\n"));
+        assertThat(readTail(0), is("a\nb\nc\n"));
+
+        verify(logServer, times(2)).openFile(prefix, FILE_NAME);
+    }
+
+    private String readTail(long offset)
+        throws Exception
+    {
+        return new String(tailer.readTail(logServer, prefix, FILE_NAME, offset), UTF_8);
+    }
+
+    private static void write(OutputStream out, String text)
+        throws Exception
+    {
+        out.write(text.getBytes(UTF_8));
+        out.flush();
+    }
+}
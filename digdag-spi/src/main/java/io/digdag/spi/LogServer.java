@@ -1,18 +1,39 @@
 package io.digdag.spi;
 
 import java.util.List;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
 import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
 
 public interface LogServer
 {
     String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId, byte[] gzData);
 
+    default String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId,
+            long contentLength, Storage.UploadStreamProvider gzData)
+        throws IOException
+    {
+        byte[] data;
+        try (InputStream in = gzData.open()) {
+            data = ByteStreams.toByteArray(in);
+        }
+        return putFile(prefix, taskName, firstLogTime, agentId, data);
+    }
+
     Optional<DirectUploadHandle> getDirectUploadHandle(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId);
 
     List<LogFileHandle> getFileHandles(LogFilePrefix prefix, Optional<String> taskName);
 
     byte[] getFile(LogFilePrefix prefix, String fileName)
         throws StorageFileNotFoundException;
+
+    default InputStream openFile(LogFilePrefix prefix, String fileName)
+        throws StorageFileNotFoundException
+    {
+        return new ByteArrayInputStream(getFile(prefix, fileName));
+    }
 }
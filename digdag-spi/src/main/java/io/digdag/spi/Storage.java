@@ -4,12 +4,34 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.util.List;
 import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
 
 public interface Storage
 {
     StorageObject open(String key)
         throws StorageFileNotFoundException;
 
+    // Opens at most length bytes from offset. The default implementation
+    // reads and skips the bytes before offset.
+    default InputStream openRange(String key, long offset, long length)
+        throws StorageFileNotFoundException, IOException
+    {
+        InputStream in = open(key).getContentInputStream();
+        try {
+            ByteStreams.skipFully(in, offset);
+        }
+        catch (IOException ex) {
+            try {
+                in.close();
+            }
+            catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+        return ByteStreams.limit(in, length);
+    }
+
     interface UploadStreamProvider
     {
         InputStream open() throws IOException;
@@ -29,6 +29,9 @@ public abstract class AbstractJdbcConnectionConfig
 
     public abstract DurationParam socketTimeout();
 
+    // number of rows fetched at once when a query returns results
+    public abstract int fetchSize();
+
     public abstract String jdbcProtocolName();
 
     public abstract String jdbcDriverName();
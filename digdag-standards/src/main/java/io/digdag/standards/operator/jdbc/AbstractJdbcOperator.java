@@ -1,5 +1,6 @@
 package io.digdag.standards.operator.jdbc;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
@@ -16,12 +17,16 @@ import io.digdag.util.BaseOperator;
 import io.digdag.util.DurationParam;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import static io.digdag.spi.TaskExecutionException.buildExceptionErrorConfig;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -207,37 +212,55 @@ public abstract class AbstractJdbcOperator <C>
 
     private void downloadResultsToFile(JdbcResultSet results, String fileName)
     {
-        try (CsvWriter csvWriter = new CsvWriter(workspace.newBufferedWriter(fileName, UTF_8))) {
-            List<String> columnNames = results.getColumnNames();
-            csvWriter.addCsvHeader(columnNames);
-            while (true) {
-                List<Object> values = results.next();
-                if (values == null) {
-                    break;
-                }
-                List<String> row = values.stream().map(value -> {
-                    if (value == null) {
-                        return (String) value;
-                    }
-                    else if (value instanceof String) {
-                        return (String) value;
-                    }
-                    else {
-                        return value.toString();  // TODO use jackson to serialize?
-                    }
-                })
-                .collect(Collectors.toList());
-                csvWriter.addCsvRow(row);
-            }
+        try (CsvWriter csvWriter = new CsvWriter(newResultFileWriter(fileName))) {
+            writeResults(results, csvWriter);
         }
         catch (IOException ex) {
             throw Throwables.propagate(ex);
         }
     }
 
+    private Writer newResultFileWriter(String fileName)
+        throws IOException
+    {
+        if (fileName.endsWith(".gz")) {
+            OutputStream out = workspace.newOutputStream(fileName);
+            try {
+                return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, 64 * 1024), UTF_8));
+            }
+            catch (IOException | RuntimeException ex) {
+                out.close();
+                throw ex;
+            }
+        }
+        else {
+            return workspace.newBufferedWriter(fileName, UTF_8);
+        }
+    }
+
+    @VisibleForTesting
+    static long writeResults(JdbcResultSet results, CsvWriter csvWriter)
+        throws IOException
+    {
+        // values are written to the writer directly without converting
+        // rows to lists of strings so that memory usage doesn't grow with
+        // number of rows.
+        csvWriter.addCsvHeader(results.getColumnNames());
+        long count = 0;
+        while (true) {
+            List<Object> values = results.next();
+            if (values == null) {
+                break;
+            }
+            csvWriter.addCsvValues(values);
+            count++;
+        }
+        return count;
+    }
+
     private void skipResults(JdbcResultSet results)
     {
-        while (results.next() != null)
+        while (results.skip())
             ;
     }
 }
@@ -50,6 +50,17 @@ public abstract class AbstractJdbcResultSet
         }
     }
 
+    @Override
+    public boolean skip()
+    {
+        try {
+            return resultSet.next();
+        }
+        catch (SQLException ex) {
+            throw new DatabaseException("Failed to fetch next rows", ex);
+        }
+    }
+
     protected List<Object> getObjects() throws SQLException
     {
         Object[] results = new Object[columnNames.size()];
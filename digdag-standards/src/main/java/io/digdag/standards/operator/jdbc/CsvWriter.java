@@ -41,11 +41,38 @@ public class CsvWriter
         out.write("\r\n");
     }
 
+    public void addCsvValues(List<?> values)
+            throws IOException
+    {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                out.write(DELIMITER_CHAR);
+            }
+            addCsvValue(values.get(i));
+        }
+        out.write("\r\n");
+    }
+
+    public void addCsvValue(Object value)
+            throws IOException
+    {
+        if (value == null) {
+            return;
+        }
+        else if (value instanceof Number || value instanceof Boolean) {
+            // string representation of numbers and booleans never needs escaping
+            out.write(value.toString());
+        }
+        else {
+            addCsvText(value.toString());
+        }
+    }
+
     public void addCsvText(String value)
             throws IOException
     {
         if (value != null) {
-            out.write(escapeAndQuoteCsvValue(value));
+            writeEscapedCsvValue(value);
         }
     }
 
@@ -53,6 +80,58 @@ public class CsvWriter
     private static final char ESCAPE_CHAR = '"';
     private static final char QUOTE_CHAR = '"';
 
+    // same as escapeAndQuoteCsvValue but writes to the output directly
+    // without building an intermediate string.
+    private void writeEscapedCsvValue(String v)
+            throws IOException
+    {
+        if (v.isEmpty()) {
+            out.write(QUOTE_CHAR);
+            out.write(QUOTE_CHAR);
+            return;
+        }
+
+        if (!requiresQuote(v)) {
+            out.write(v);
+            return;
+        }
+
+        out.write(QUOTE_CHAR);
+        char previousChar = ' ';
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+
+            if (c == QUOTE_CHAR) {
+                out.write(ESCAPE_CHAR);
+                out.write(c);
+            }
+            else if (c == '\r') {
+                out.write('\n');
+            }
+            else if (c == '\n') {
+                if (previousChar != '\r') {
+                    out.write('\n');
+                }
+            }
+            else {
+                out.write(c);
+            }
+            previousChar = c;
+        }
+        out.write(QUOTE_CHAR);
+    }
+
+    private static boolean requiresQuote(String v)
+    {
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            if (c == QUOTE_CHAR || c == '\r' || c == '\n' || c == DELIMITER_CHAR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String escapeAndQuoteCsvValue(String v)
     {
         if (v.isEmpty()) {
@@ -29,12 +29,15 @@ public class PgConnection
     @VisibleForTesting
     public static PgConnection open(PgConnectionConfig config)
     {
-        return new PgConnection(config.openConnection());
+        return new PgConnection(config.openConnection(), config.fetchSize());
     }
 
-    protected PgConnection(Connection connection)
+    private final int fetchSize;
+
+    protected PgConnection(Connection connection, int fetchSize)
     {
         super(connection);
+        this.fetchSize = fetchSize;
     }
 
     @Override
@@ -42,10 +45,21 @@ public class PgConnection
         throws NotReadOnlyException
     {
         try {
-            execute("SET TRANSACTION READ ONLY");
-            try (Statement stmt = connection.createStatement()) {
-                ResultSet rs = stmt.executeQuery(sql);  // executeQuery throws exception if given query includes multiple statements
-                resultHandler.accept(new PgResultSet(rs));
+            // postgresql jdbc fetches results using a cursor only in a transaction.
+            // otherwise, it reads all rows into memory before returning the first row.
+            connection.setAutoCommit(false);
+            try {
+                execute("SET TRANSACTION READ ONLY");
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.setFetchSize(fetchSize);
+                    ResultSet rs = stmt.executeQuery(sql);  // executeQuery throws exception if given query includes multiple statements
+                    resultHandler.accept(new PgResultSet(rs));
+                }
+            }
+            finally {
+                // the transaction is read-only. rollback is safe regardless of the result
+                connection.rollback();
+                connection.setAutoCommit(true);
             }
             execute("SET TRANSACTION READ WRITE");
         }
@@ -15,6 +15,8 @@ import java.util.Properties;
 public abstract class PgConnectionConfig
     extends AbstractJdbcConnectionConfig
 {
+    private static final int DEFAULT_FETCH_SIZE = 10000;
+
     public abstract Optional<String> schema();
 
     @VisibleForTesting
@@ -32,6 +34,7 @@ public abstract class PgConnectionConfig
                 .socketTimeout(secrets.getSecretOptional("socket_timeout").transform(DurationParam::parse).or(() ->
                         params.get("socket_timeout", DurationParam.class, DurationParam.of(Duration.ofSeconds(1800)))))
                 .schema(secrets.getSecretOptional("schema").or(params.getOptional("schema", String.class)))
+                .fetchSize(params.get("fetch_size", int.class, DEFAULT_FETCH_SIZE))
                 .build();
     }
 
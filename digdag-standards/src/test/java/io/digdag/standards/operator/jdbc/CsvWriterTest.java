@@ -0,0 +1,159 @@
+package io.digdag.standards.operator.jdbc;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isEmptyOrNullString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeThat;
+
+public class CsvWriterTest
+{
+    private static final Logger logger = LoggerFactory.getLogger(CsvWriterTest.class);
+
+    private static final int BENCHMARK_ROWS = 200000;
+
+    // set DIGDAG_TEST_BENCHMARK=true to run the throughput benchmark
+    private static final String BENCHMARK = System.getenv("DIGDAG_TEST_BENCHMARK");
+
+    @Test
+    public void escapeValues()
+            throws IOException
+    {
+        List<String> values = ImmutableList.of(
+                "", "abc", "a,b", "a\"b", "a\nb", "a\rb", "a\r\nb", "\"", ",", "\r\n");
+
+        for (String value : values) {
+            StringWriter out = new StringWriter();
+            CsvWriter writer = new CsvWriter(out);
+            writer.addCsvText(value);
+            assertThat(out.toString(), is(writer.escapeAndQuoteCsvValue(value)));
+        }
+    }
+
+    @Test
+    public void addCsvValues()
+            throws IOException
+    {
+        StringWriter out = new StringWriter();
+        CsvWriter writer = new CsvWriter(out);
+        writer.addCsvValues(Arrays.asList(1, null, "x,y", new BigDecimal("1.50"), true, 2.5));
+        assertThat(out.toString(), is("1,,\"x,y\",1.50,true,2.5\r\n"));
+    }
+
+    @Test
+    public void writeResults()
+            throws Exception
+    {
+        try (Connection conn = openTestDatabase(3)) {
+            StringWriter out = new StringWriter();
+            try (Statement stmt = conn.createStatement()) {
+                ResultSet rs = stmt.executeQuery("SELECT id, name, amount FROM t ORDER BY id");
+                AbstractJdbcOperator.writeResults(new TestResultSet(rs), new CsvWriter(out));
+            }
+            assertThat(out.toString(), is(
+                        "ID,NAME,AMOUNT\r\n" +
+                        "0,\"name,0\",0.00\r\n" +
+                        "1,\"name,1\",1.50\r\n" +
+                        "2,\"name,2\",3.00\r\n"));
+        }
+    }
+
+    @Test
+    public void throughput()
+            throws Exception
+    {
+        assumeThat(BENCHMARK, not(isEmptyOrNullString()));
+
+        try (Connection conn = openTestDatabase(BENCHMARK_ROWS)) {
+            // warm up
+            exportWithStringRows(conn);
+            exportWithValues(conn);
+
+            long start = System.nanoTime();
+            exportWithStringRows(conn);
+            long stringRowsNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            exportWithValues(conn);
+            long valuesNanos = System.nanoTime() - start;
+
+            logger.info(String.format("CSV export of %d rows: List<String> rows %d ms (%.0f rows/s), direct values %d ms (%.0f rows/s)",
+                        BENCHMARK_ROWS,
+                        stringRowsNanos / 1000000, BENCHMARK_ROWS * 1e9 / stringRowsNanos,
+                        valuesNanos / 1000000, BENCHMARK_ROWS * 1e9 / valuesNanos));
+        }
+    }
+
+    // the conversion that was used before addCsvValues
+    private static void exportWithStringRows(Connection conn)
+            throws Exception
+    {
+        try (Statement stmt = conn.createStatement();
+                CsvWriter writer = new CsvWriter(CharStreams.nullWriter())) {
+            JdbcResultSet results = new TestResultSet(stmt.executeQuery("SELECT id, name, amount FROM t"));
+            writer.addCsvHeader(results.getColumnNames());
+            while (true) {
+                List<Object> values = results.next();
+                if (values == null) {
+                    break;
+                }
+                List<String> row = values.stream()
+                    .map(value -> value == null ? null : value.toString())
+                    .collect(Collectors.toList());
+                writer.addCsvRow(row);
+            }
+        }
+    }
+
+    private static void exportWithValues(Connection conn)
+            throws Exception
+    {
+        try (Statement stmt = conn.createStatement();
+                CsvWriter writer = new CsvWriter(CharStreams.nullWriter())) {
+            AbstractJdbcOperator.writeResults(new TestResultSet(stmt.executeQuery("SELECT id, name, amount FROM t")), writer);
+        }
+    }
+
+    private static Connection openTestDatabase(int rows)
+            throws Exception
+    {
+        Class.forName("org.h2.Driver");
+        Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(255), amount DECIMAL(10,2))");
+            stmt.execute("INSERT INTO t SELECT x - 1, CONCAT('name,', x - 1), (x - 1) * 1.5 FROM SYSTEM_RANGE(1, " + rows + ")");
+        }
+        return conn;
+    }
+
+    private static class TestResultSet
+            extends AbstractJdbcResultSet
+    {
+        TestResultSet(ResultSet resultSet)
+        {
+            super(resultSet);
+        }
+
+        @Override
+        protected Object serializableObject(Object raw)
+        {
+            return raw;
+        }
+    }
+}
@@ -57,6 +57,7 @@ public class PgConnectionTest
 
         pgConnectionConfig = mock(PgConnectionConfig.class);
         when(pgConnectionConfig.openConnection()).thenReturn(connection);
+        when(pgConnectionConfig.fetchSize()).thenReturn(1000);
 
         pgConnection = spy(PgConnection.open(pgConnectionConfig));
     }
@@ -68,8 +69,12 @@ public class PgConnectionTest
         AtomicReference<JdbcResultSet> rs = new AtomicReference<>();
         pgConnection.executeReadOnlyQuery(SQL, rs::set);
 
+        verify(connection).setAutoCommit(eq(false));
         verify(pgConnection).execute(eq("SET TRANSACTION READ ONLY"));
+        verify(statement).setFetchSize(eq(1000));
         verify(statement).executeQuery(eq(SQL));
+        verify(connection).rollback();
+        verify(connection).setAutoCommit(eq(true));
         verify(pgConnection).execute(eq("SET TRANSACTION READ WRITE"));
         assertThat(rs.get(), is(notNullValue()));
     }
@@ -0,0 +1,148 @@
+package io.digdag.storage.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import com.google.common.base.Throwables;
+
+/**
+ * InputStream that reads the first bytes from a stream and rest of the
+ * bytes by fetching ranges in parallel.
+ *
+ * Up to concurrency ranges are fetched ahead of the current read position.
+ * Memory usage is bounded by partSize * concurrency.
+ */
+class ParallelRangeInputStream
+    extends InputStream
+{
+    public interface RangeReader
+    {
+        byte[] read(long offset, int length) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final RangeReader reader;
+    private final long size;
+    private final int partSize;
+    private final int concurrency;
+    private final Deque<Future<byte[]>> parts = new ArrayDeque<>();
+
+    private InputStream head;
+    private long nextOffset;
+    private byte[] current = null;
+    private int position = 0;
+
+    ParallelRangeInputStream(InputStream head, long headLength, long size,
+            int partSize, int concurrency,
+            ExecutorService executor, RangeReader reader)
+    {
+        this.head = head;
+        this.nextOffset = headLength;
+        this.size = size;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+        this.executor = executor;
+        this.reader = reader;
+        fetchAhead();
+    }
+
+    private void fetchAhead()
+    {
+        while (parts.size() < concurrency && nextOffset < size) {
+            long offset = nextOffset;
+            int length = (int) Math.min(partSize, size - offset);
+            parts.addLast(executor.submit(() -> reader.read(offset, length)));
+            nextOffset += length;
+        }
+    }
+
+    private boolean nextPart()
+        throws IOException
+    {
+        if (head != null) {
+            // head is fully read. closing it releases the connection
+            head.close();
+            head = null;
+        }
+        Future<byte[]> part = parts.pollFirst();
+        if (part == null) {
+            return false;
+        }
+        fetchAhead();
+        try {
+            current = part.get();
+            position = 0;
+            return true;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException ex) {
+            Throwables.propagateIfInstanceOf(ex.getCause(), IOException.class);
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    @Override
+    public int read()
+        throws IOException
+    {
+        if (head != null) {
+            int c = head.read();
+            if (c >= 0) {
+                return c;
+            }
+        }
+        while (current == null || position >= current.length) {
+            if (!nextPart()) {
+                return -1;
+            }
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (head != null) {
+            int n = head.read(b, off, len);
+            if (n >= 0) {
+                return n;
+            }
+        }
+        while (current == null || position >= current.length) {
+            if (!nextPart()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        for (Future<byte[]> part : parts) {
+            part.cancel(true);
+        }
+        parts.clear();
+        current = null;
+        if (head != null) {
+            head.close();
+            head = null;
+        }
+    }
+}
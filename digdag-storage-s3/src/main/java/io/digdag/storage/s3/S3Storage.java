@@ -1,33 +1,44 @@
 package io.digdag.storage.s3;
 
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
+import java.util.List;
 import java.time.Instant;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.FilterInputStream;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.Callable;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.model.UploadResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.digdag.client.config.Config;
 import io.digdag.spi.Storage;
 import io.digdag.spi.StorageObject;
 import io.digdag.spi.StorageObjectSummary;
@@ -45,21 +56,37 @@ public class S3Storage
 {
     private static Logger logger = LoggerFactory.getLogger(S3Storage.class);
 
+    // S3 doesn't accept smaller parts except the last part
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
     private final AmazonS3Client client;
     private final String bucket;
-    private final ExecutorService uploadExecutor;
-    private final TransferManager transferManager;
+    private final ExecutorService transferExecutor;
+    private final int uploadPartSize;
+    private final int uploadConcurrency;
+    private final int downloadPartSize;
+    private final int downloadConcurrency;
 
-    public S3Storage(AmazonS3Client client, String bucket)
+    public S3Storage(AmazonS3Client client, String bucket, Config config)
     {
         checkArgument(!isNullOrEmpty(bucket), "bucket is null or empty");
         this.client = client;
         this.bucket = bucket;
-        this.uploadExecutor = Executors.newCachedThreadPool(
+        // objects larger than part-size are transferred in parts. concurrency is the number of
+        // parts transferred in parallel per object. memory usage is part-size * concurrency.
+        this.uploadPartSize = config.get("upload.part-size", int.class, 16 * 1024 * 1024);
+        this.uploadConcurrency = config.get("upload.concurrency", int.class, 4);
+        this.downloadPartSize = config.get("download.part-size", int.class, 8 * 1024 * 1024);
+        this.downloadConcurrency = config.get("download.concurrency", int.class, 4);
+        checkArgument(uploadPartSize >= MIN_PART_SIZE, "upload.part-size must be larger than or equal to %s", MIN_PART_SIZE);
+        checkArgument(uploadConcurrency > 0, "upload.concurrency must be larger than 0");
+        checkArgument(downloadPartSize > 0, "download.part-size must be larger than 0");
+        checkArgument(downloadConcurrency > 0, "download.concurrency must be larger than 0");
+        this.transferExecutor = Executors.newCachedThreadPool(
                 new ThreadFactoryBuilder()
-                    .setNameFormat("storage-s3-upload-transfer-%d")
+                    .setNameFormat("storage-s3-transfer-%d")
+                    .setDaemon(true)
                     .build());
-        this.transferManager = new TransferManager(client, uploadExecutor);
         // TODO check existance of the bucket so that following
         //      any GET or PUT don't get 404 Not Found error.
     }
@@ -86,6 +113,13 @@ public class S3Storage
         S3Object obj = getWithRetry(errorMessage, () -> client.getObject(req));
 
         final long actualSize = obj.getObjectMetadata().getContentLength();
+        final String etag = obj.getObjectMetadata().getETag();
+
+        // following GETs read the rest of the same object. if the object is
+        // overwritten in the meantime, they fail instead of mixing the contents.
+        if (etag != null) {
+            req.withMatchingETagConstraint(etag);
+        }
 
         // override close to call abort instead because close skips all remaining bytes so that
         // s3 client can reuse the TCP connection. but close of a fully opened file is occasionally
@@ -97,19 +131,82 @@ public class S3Storage
                 try {
                     S3ObjectInputStream raw = getWithRetry(errorMessage, () -> {
                             req.setRange(offset, actualSize - offset - 1);
-                            return client.getObject(req);
+                            return getObjectOfETag(req, key);
                         })
                     .getObjectContent();
                     return overrideCloseToAbort(raw);
                 }
-                catch (StorageFileNotFoundException ex) {
+                catch (StorageFileNotFoundException | ConcurrentModificationException ex) {
                     throw new IOException(ex);
                 }
             });
 
+        if (downloadConcurrency > 1 && actualSize > downloadPartSize) {
+            // read the first part from the opened stream and the rest by ranged GETs in parallel
+            InputStream parallel = new ParallelRangeInputStream(
+                    ByteStreams.limit(resumable, downloadPartSize), downloadPartSize, actualSize,
+                    downloadPartSize, downloadConcurrency, transferExecutor,
+                    (offset, length) -> readRange(key, etag, offset, length));
+            return new StorageObject(parallel, actualSize);
+        }
+
         return new StorageObject(resumable, actualSize);
     }
 
+    @Override
+    public InputStream openRange(String key, long offset, long length)
+        throws StorageFileNotFoundException
+    {
+        checkArgument(key != null, "key is null");
+        checkArgument(offset >= 0 && length >= 0, "offset and length must not be negative");
+
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        String errorMessage = "opening range " + offset + "-" + (offset + length - 1) + " of file bucket " + bucket + " key " + key;
+        GetObjectRequest req = new GetObjectRequest(bucket, key);
+        req.setRange(offset, offset + length - 1);
+
+        // close skips the remaining bytes of the range so that s3 client can
+        // reuse the TCP connection. Ranges are expected to be small.
+        return getWithRetry(errorMessage, () -> client.getObject(req)).getObjectContent();
+    }
+
+    private byte[] readRange(String key, String etag, long offset, int length)
+        throws IOException
+    {
+        String errorMessage = "reading range " + offset + "-" + (offset + length - 1) + " of file bucket " + bucket + " key " + key;
+        try {
+            // retries on read errors as well as request errors
+            return getWithRetry(errorMessage, () -> {
+                GetObjectRequest req = new GetObjectRequest(bucket, key);
+                if (etag != null) {
+                    req.withMatchingETagConstraint(etag);
+                }
+                req.setRange(offset, offset + length - 1);
+                try (S3ObjectInputStream in = getObjectOfETag(req, key).getObjectContent()) {
+                    byte[] data = new byte[length];
+                    ByteStreams.readFully(in, data);
+                    return data;
+                }
+            });
+        }
+        catch (StorageFileNotFoundException | ConcurrentModificationException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private S3Object getObjectOfETag(GetObjectRequest req, String key)
+    {
+        S3Object obj = client.getObject(req);
+        if (obj == null) {
+            // AmazonS3Client returns null if the ETag constraint is not met
+            throw new ConcurrentModificationException("S3 file bucket " + bucket + " key " + key + " is modified while reading");
+        }
+        return obj;
+    }
+
     private InputStream overrideCloseToAbort(final S3ObjectInputStream raw)
     {
         return new FilterInputStream(raw)
@@ -129,6 +226,10 @@ public class S3Storage
     {
         checkArgument(key != null, "key is null");
 
+        if (contentLength > uploadPartSize) {
+            return putMultipart(key, contentLength, payload);
+        }
+
         ObjectMetadata meta = new ObjectMetadata();
         meta.setContentLength(contentLength);
 
@@ -146,9 +247,7 @@ public class S3Storage
                 .runInterruptible(() -> {
                     try (InputStream in = payload.open()) {
                         PutObjectRequest req = new PutObjectRequest(bucket, key, in, meta);
-                        UploadResult result = transferManager.upload(req).waitForUploadResult();
-
-                        return result.getETag();
+                        return client.putObject(req).getETag();
                     }
                 });
         }
@@ -162,6 +261,99 @@ public class S3Storage
         }
     }
 
+    private String putMultipart(String key, long contentLength, UploadStreamProvider payload)
+        throws IOException
+    {
+        String errorMessage = "uploading file bucket " + bucket + " key " + key;
+        String uploadId = uploadWithRetry(errorMessage, () ->
+                client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId());
+
+        List<Future<PartETag>> futures = new ArrayList<>();
+        try {
+            // parts are read sequentially from the payload and uploaded in parallel.
+            // the semaphore limits number of parts in memory.
+            Semaphore permits = new Semaphore(uploadConcurrency);
+            try (InputStream in = payload.open()) {
+                long offset = 0;
+                int partNumber = 1;
+                while (offset < contentLength) {
+                    int partSize = (int) Math.min(uploadPartSize, contentLength - offset);
+                    permits.acquire();
+                    byte[] data = new byte[partSize];
+                    try {
+                        ByteStreams.readFully(in, data);
+                    }
+                    catch (IOException | RuntimeException ex) {
+                        permits.release();
+                        throw ex;
+                    }
+                    int number = partNumber;
+                    futures.add(transferExecutor.submit(() -> {
+                        try {
+                            return uploadWithRetry(errorMessage + " part " + number, () -> {
+                                UploadPartRequest req = new UploadPartRequest()
+                                    .withBucketName(bucket)
+                                    .withKey(key)
+                                    .withUploadId(uploadId)
+                                    .withPartNumber(number)
+                                    .withPartSize(data.length)
+                                    .withInputStream(new ByteArrayInputStream(data));
+                                return client.uploadPart(req).getPartETag();
+                            });
+                        }
+                        finally {
+                            permits.release();
+                        }
+                    }));
+                    offset += partSize;
+                    partNumber++;
+                }
+            }
+
+            List<PartETag> etags = new ArrayList<>();
+            for (Future<PartETag> future : futures) {
+                etags.add(future.get());
+            }
+
+            return uploadWithRetry(errorMessage, () ->
+                    client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags)).getETag());
+        }
+        catch (IOException | RuntimeException | InterruptedException | ExecutionException ex) {
+            for (Future<PartETag> future : futures) {
+                future.cancel(true);
+            }
+            try {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            }
+            catch (RuntimeException abortEx) {
+                logger.warn("Failed to abort multipart upload bucket "+bucket+" key "+key, abortEx);
+            }
+            if (ex instanceof InterruptedException) {
+                throw Throwables.propagate(ex);
+            }
+            Throwable cause = (ex instanceof ExecutionException) ? ex.getCause() : ex;
+            Throwables.propagateIfInstanceOf(cause, IOException.class);
+            throw Throwables.propagate(cause);
+        }
+    }
+
+    private <T> T uploadWithRetry(String message, Callable<T> callable)
+    {
+        try {
+            return uploadRetryExecutor()
+                .onRetry((exception, retryCount, retryLimit, retryWait) -> {
+                    logger.warn(String.format("Retrying %s (%d/%d): %s", message, retryCount, retryLimit, exception));
+                })
+                .runInterruptible(() -> callable.call());
+        }
+        catch (InterruptedException ex) {
+            throw Throwables.propagate(ex);
+        }
+        catch (RetryGiveupException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
     @Override
     public void list(String keyPrefix, FileListing callback)
     {
@@ -225,7 +417,7 @@ public class S3Storage
                 .onRetry((exception, retryCount, retryLimit, retryWait) -> {
                     logger.warn(String.format("Retrying %s (%d/%d): %s", message, retryCount, retryLimit, exception));
                 })
-                .retryIf((exception) -> !isNotFoundException(exception))
+                .retryIf((exception) -> !isNotFoundException(exception) && !(exception instanceof ConcurrentModificationException))
                 .runInterruptible(() -> callable.call());
         }
         catch (InterruptedException ex) {
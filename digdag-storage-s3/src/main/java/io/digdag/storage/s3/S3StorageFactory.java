@@ -32,7 +32,7 @@ public class S3StorageFactory
 
         String bucket = config.get("bucket", String.class);
 
-        return new S3Storage(client, bucket);
+        return new S3Storage(client, bucket, config);
     }
 
     private static ClientConfiguration buildClientConfiguration(Config config)
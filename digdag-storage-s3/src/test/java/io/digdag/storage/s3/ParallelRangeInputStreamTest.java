@@ -0,0 +1,107 @@
+package io.digdag.storage.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ParallelRangeInputStreamTest
+{
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readAllParts()
+        throws Exception
+    {
+        Random random = new Random(0);
+        for (int size : new int[] {1, 99, 100, 101, 1000, 12345}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            assertArrayEquals(data, ByteStreams.toByteArray(open(data, 100, 3, new AtomicInteger())));
+        }
+    }
+
+    @Test
+    public void readByteByByte()
+        throws Exception
+    {
+        byte[] data = new byte[250];
+        new Random(0).nextBytes(data);
+        try (InputStream in = open(data, 100, 2, new AtomicInteger())) {
+            for (int i = 0; i < data.length; i++) {
+                assertThat(in.read(), is(data[i] & 0xff));
+            }
+            assertThat(in.read(), is(-1));
+        }
+    }
+
+    @Test
+    public void propagateReadError()
+        throws Exception
+    {
+        byte[] data = new byte[300];
+        InputStream in = new ParallelRangeInputStream(
+                new ByteArrayInputStream(data, 0, 100), 100, data.length,
+                100, 2, executor,
+                (offset, length) -> {
+                    throw new IOException("read error");
+                });
+        try {
+            ByteStreams.toByteArray(in);
+            fail();
+        }
+        catch (IOException ex) {
+            assertThat(ex.getMessage(), is("read error"));
+        }
+    }
+
+    @Test
+    public void fetchAheadIsLimitedByConcurrency()
+        throws Exception
+    {
+        byte[] data = new byte[1000];
+        AtomicInteger readCount = new AtomicInteger();
+        try (InputStream in = open(data, 100, 2, readCount)) {
+            // parts are fetched in background
+            Thread.sleep(100);
+            assertThat(readCount.get(), is(2));
+        }
+    }
+
+    private InputStream open(byte[] data, int partSize, int concurrency, AtomicInteger readCount)
+    {
+        int headLength = Math.min(partSize, data.length);
+        return new ParallelRangeInputStream(
+                new ByteArrayInputStream(data, 0, headLength), headLength, data.length,
+                partSize, concurrency, executor,
+                (offset, length) -> {
+                    readCount.incrementAndGet();
+                    return Arrays.copyOfRange(data, (int) offset, (int) offset + length);
+                });
+    }
+}
@@ -2,6 +2,7 @@ package io.digdag.storage.s3;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Random;
 import java.util.UUID;
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
@@ -13,9 +14,13 @@ import com.google.common.io.ByteStreams;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.spi.Storage;
+import io.digdag.spi.StorageObject;
 import io.digdag.spi.StorageObjectSummary;
 import io.digdag.spi.Storage.UploadStreamProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assume.assumeThat;
 import static org.hamcrest.Matchers.is;
@@ -31,6 +36,11 @@ public class S3StorageTest
 {
     private static final String FAKE_S3_ENDPOINT = System.getenv("FAKE_S3_ENDPOINT");
 
+    private static final Logger logger = LoggerFactory.getLogger(S3StorageTest.class);
+
+    private static final int MB = 1024 * 1024;
+
+    private Config config;
     private Storage storage;
 
     @Before
@@ -39,7 +49,7 @@ public class S3StorageTest
     {
         assumeThat(FAKE_S3_ENDPOINT, not(isEmptyOrNullString()));
         ConfigFactory cf = new ConfigFactory(objectMapper());
-        Config config = cf.create()
+        config = cf.create()
             .set("endpoint", FAKE_S3_ENDPOINT)
             .set("bucket", UUID.randomUUID().toString())  // use unique bucket name
             .set("credentials.access-key-id", "fake-key-id")
@@ -105,6 +115,74 @@ public class S3StorageTest
         assertThat(all.get(1).getKey(), is("test/file/2"));
     }
 
+    @Test
+    public void putGetInParts()
+        throws Exception
+    {
+        Storage partStorage = new S3StorageFactory().newStorage(config.deepCopy()
+                .set("upload.part-size", 5 * MB)
+                .set("download.part-size", 1 * MB));
+
+        byte[] data = randomBytes(12 * MB + 1);
+        partStorage.put("key/large", data.length, () -> new ByteArrayInputStream(data));
+
+        StorageObject obj = partStorage.open("key/large");
+        assertThat(obj.getContentLength(), is((long) data.length));
+        assertArrayEquals(data, ByteStreams.toByteArray(obj.getContentInputStream()));
+    }
+
+    @Test
+    public void throughputByObjectSize()
+        throws Exception
+    {
+        // this is a benchmark. it runs only when requested.
+        assumeThat(System.getenv("DIGDAG_TEST_BENCHMARK"), not(isEmptyOrNullString()));
+
+        Storage serial = new S3StorageFactory().newStorage(config.deepCopy()
+                .set("upload.concurrency", 1)
+                .set("download.concurrency", 1));
+        Storage parallel = new S3StorageFactory().newStorage(config.deepCopy()
+                .set("upload.part-size", 5 * MB)
+                .set("download.part-size", 5 * MB));
+
+        for (int size : new int[] {1 * MB, 8 * MB, 32 * MB}) {
+            byte[] data = randomBytes(size);
+            measure("serial", size, serial, data);
+            measure("parallel", size, parallel, data);
+        }
+    }
+
+    private static void measure(String name, int size, Storage storage, byte[] data)
+        throws Exception
+    {
+        String key = "throughput/" + name + "/" + size;
+
+        long start = System.nanoTime();
+        storage.put(key, data.length, () -> new ByteArrayInputStream(data));
+        long putNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        byte[] read = ByteStreams.toByteArray(storage.open(key).getContentInputStream());
+        long getNanos = System.nanoTime() - start;
+
+        assertArrayEquals(data, read);
+        logger.info("{}: {} bytes put {} MB/s, get {} MB/s", name, size,
+                String.format("%.1f", throughput(size, putNanos)),
+                String.format("%.1f", throughput(size, getNanos)));
+    }
+
+    private static double throughput(int size, long nanos)
+    {
+        return (double) size / MB / (nanos / 1e9);
+    }
+
+    private static byte[] randomBytes(int size)
+    {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
     private static Storage.UploadStreamProvider contents(String data)
     {
         return () -> new ByteArrayInputStream(data.getBytes(UTF_8));
@@ -0,0 +1,157 @@
+package acceptance;
+
+import io.digdag.client.DigdagClient;
+import io.digdag.client.api.RestProject;
+import io.digdag.client.api.RestWorkflowDefinition;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.CommandStatus;
+import utils.TemporaryDigdagServer;
+
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static utils.TestUtils.copyResource;
+import static utils.TestUtils.main;
+
+public class ConditionalGetIT
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public TemporaryDigdagServer server = TemporaryDigdagServer.of();
+
+    private OkHttpClient httpClient;
+    private DigdagClient client;
+    private RestProject proj;
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        httpClient = new OkHttpClient();
+        client = DigdagClient.builder()
+                .host(server.host())
+                .port(server.port())
+                .build();
+
+        Path projectDir = folder.getRoot().toPath().resolve("foobar");
+        Path config = folder.newFile().toPath();
+
+        CommandStatus initStatus = main("init",
+                "-c", config.toString(),
+                projectDir.toString());
+        assertThat(initStatus.errUtf8(), initStatus.code(), is(0));
+        copyResource("acceptance/basic.dig", projectDir.resolve("foobar.dig"));
+
+        CommandStatus pushStatus = main("push",
+                "--project", projectDir.toString(),
+                "foobar",
+                "-c", config.toString(),
+                "-e", server.endpoint(),
+                "-r", "rev1");
+        assertThat(pushStatus.errUtf8(), pushStatus.code(), is(0));
+
+        proj = client.getProject("foobar");
+    }
+
+    @Test
+    public void workflowOfRevision()
+            throws Exception
+    {
+        verifyConditionalGet("/api/projects/" + proj.getId() + "/workflows/foobar?revision=rev1");
+    }
+
+    @Test
+    public void workflowOfLatestRevision()
+            throws Exception
+    {
+        verifyConditionalGet("/api/projects/" + proj.getId() + "/workflows/foobar");
+    }
+
+    @Test
+    public void workflowById()
+            throws Exception
+    {
+        RestWorkflowDefinition def = client.getWorkflowDefinitions(proj.getId()).get(0);
+        String etag = verifyNotModified("/api/workflows/" + def.getId());
+
+        // DigdagClient reuses the cached entity on 304 Not Modified
+        assertThat(client.getWorkflowDefinition(def.getId()), is(def));
+        assertThat(client.getWorkflowDefinition(def.getId()), is(def));
+
+        // missing workflows are not found even with If-None-Match
+        assertThat(getStatus("/api/workflows/" + (def.getId() + 1000), etag), is(404));
+    }
+
+    @Test
+    public void archiveOfRevision()
+            throws Exception
+    {
+        verifyConditionalGet("/api/projects/" + proj.getId() + "/archive?revision=rev1");
+    }
+
+    @Test
+    public void archiveOfLatestRevision()
+            throws Exception
+    {
+        verifyConditionalGet("/api/projects/" + proj.getId() + "/archive");
+    }
+
+    // 200 with ETag, 304 with If-None-Match, and 404 after the project is deleted
+    private void verifyConditionalGet(String path)
+            throws Exception
+    {
+        String etag = verifyNotModified(path);
+
+        client.deleteProject(proj.getId());
+
+        assertThat(getStatus(path, etag), is(404));
+    }
+
+    private String verifyNotModified(String path)
+            throws Exception
+    {
+        Response res = get(path, null);
+        res.body().close();
+        assertThat(res.code(), is(200));
+        String etag = res.header("ETag");
+        assertThat(etag, notNullValue());
+        assertThat(res.header("Cache-Control"), containsString("no-cache"));
+
+        res = get(path, etag);
+        res.body().close();
+        assertThat(res.code(), is(304));
+        assertThat(res.header("ETag"), is(etag));
+
+        return etag;
+    }
+
+    private int getStatus(String path, String ifNoneMatch)
+            throws Exception
+    {
+        Response res = get(path, ifNoneMatch);
+        res.body().close();
+        return res.code();
+    }
+
+    private Response get(String path, String ifNoneMatch)
+            throws Exception
+    {
+        Request.Builder request = new Request.Builder()
+                .url(server.endpoint() + path);
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return httpClient.newCall(request.build()).execute();
+    }
+}
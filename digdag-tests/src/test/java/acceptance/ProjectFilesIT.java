@@ -0,0 +1,166 @@
+package acceptance;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.digdag.client.DigdagClient;
+import io.digdag.client.api.RestProject;
+import io.digdag.client.api.RestProjectArchiveEntry;
+import io.digdag.client.api.RestProjectArchiveManifest;
+import io.digdag.client.api.RestRevision;
+import io.digdag.core.archive.ArchiveManifest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.CommandStatus;
+import utils.TemporaryDigdagServer;
+
+import javax.ws.rs.BadRequestException;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static utils.TestUtils.copyResource;
+import static utils.TestUtils.main;
+
+public class ProjectFilesIT
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public TemporaryDigdagServer server = TemporaryDigdagServer.of();
+
+    private Path config;
+    private Path projectDir;
+    private DigdagClient client;
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        projectDir = folder.getRoot().toPath().resolve("foobar");
+        config = folder.newFile().toPath();
+
+        client = DigdagClient.builder()
+                .host(server.host())
+                .port(server.port())
+                .build();
+    }
+
+    @Test
+    public void putProjectFiles()
+            throws Exception
+    {
+        byte[] data = "hello".getBytes(UTF_8);
+        String hash = ArchiveManifest.hashFile(data);
+
+        assertThat(client.getMissingProjectFiles(ImmutableList.of(hash)), is(ImmutableList.of(hash)));
+        client.putProjectFile(hash, data);
+        assertThat(client.getMissingProjectFiles(ImmutableList.of(hash)), is(ImmutableList.of()));
+
+        // uploading the same file again is ok
+        client.putProjectFile(hash, data);
+
+        // hash must match with the content
+        try {
+            client.putProjectFile(hash, "world".getBytes(UTF_8));
+            fail();
+        }
+        catch (BadRequestException ex) {
+        }
+    }
+
+    @Test
+    public void pushUsesManifest()
+            throws Exception
+    {
+        CommandStatus initStatus = main("init",
+                "-c", config.toString(),
+                projectDir.toString());
+        assertThat(initStatus.errUtf8(), initStatus.code(), is(0));
+        copyResource("acceptance/basic.dig", projectDir.resolve("foobar.dig"));
+
+        CommandStatus pushStatus = main("push",
+                "--project", projectDir.toString(),
+                "foobar",
+                "-c", config.toString(),
+                "-e", server.endpoint(),
+                "-r", "rev1");
+        assertThat(pushStatus.errUtf8(), pushStatus.code(), is(0));
+
+        RestProject proj = client.getProject("foobar");
+        RestRevision rev = client.getRevisions(proj.getId(), Optional.absent()).get(0);
+        assertThat(rev.getArchiveType(), is("files"));
+
+        // archive_md5 is md5 of the downloaded archive
+        byte[] archive;
+        try (InputStream in = client.getProjectArchive(proj.getId(), "rev1")) {
+            archive = ByteStreams.toByteArray(in);
+        }
+        assertThat(rev.getArchiveMd5().get(), is(Hashing.md5().hashBytes(archive).asBytes()));
+    }
+
+    @Test
+    public void rejectManifestOverTotalSizeLimit()
+            throws Exception
+    {
+        // 1.5MB each. a file is within the limit but a manifest that refers to it twice is not
+        byte[] data = new byte[1536 * 1024];
+        new Random(0).nextBytes(data);
+        String hash = ArchiveManifest.hashFile(data);
+        client.putProjectFile(hash, data);
+
+        RestProjectArchiveManifest manifest = RestProjectArchiveManifest.builder()
+            .entries(ImmutableList.of(
+                        fileEntry("a.bin", hash),
+                        fileEntry("b.bin", hash)))
+            .build();
+        try {
+            client.putProjectRevision("foobar", "rev1", manifest, Optional.absent());
+            fail();
+        }
+        catch (BadRequestException ex) {
+        }
+    }
+
+    @Test
+    public void rejectManifestOverEntryLimit()
+            throws Exception
+    {
+        List<RestProjectArchiveEntry> entries = new ArrayList<>();
+        for (int i = 0; i <= 10000; i++) {
+            entries.add(RestProjectArchiveEntry.builder()
+                    .name("link" + i)
+                    .mode(0777)
+                    .linkName("target")
+                    .build());
+        }
+        try {
+            client.putProjectRevision("foobar", "rev1",
+                    RestProjectArchiveManifest.builder().entries(entries).build(),
+                    Optional.absent());
+            fail();
+        }
+        catch (BadRequestException ex) {
+        }
+    }
+
+    private static RestProjectArchiveEntry fileEntry(String name, String hash)
+    {
+        return RestProjectArchiveEntry.builder()
+            .name(name)
+            .mode(0644)
+            .hash(hash)
+            .build();
+    }
+}